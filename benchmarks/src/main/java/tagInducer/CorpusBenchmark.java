@@ -0,0 +1,80 @@
+package tagInducer;
+
+import org.openjdk.jmh.annotations.*;
+import tagInducer.corpus.CCGJSONCorpus;
+import tagInducer.corpus.Corpus;
+import tagInducer.corpus.json.SentenceObj;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading (and pre-processing) a synthetic corpus, and evaluating a clustering of it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusBenchmark {
+	@Param({"10000"})
+	public int vocabSize;
+	@Param({"1.0"})
+	public double zipfExponent;
+	@Param({"20000"})
+	public int numSentences;
+	@Param({"45"})
+	public int numClasses;
+
+	private File corpusFile, jsonFile;
+	private Options conllOptions, jsonOptions;
+	private Corpus clusteredCorpus;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		SyntheticCorpus synthetic = new SyntheticCorpus(vocabSize, zipfExponent, numSentences, 20, 45, 100, 1);
+		corpusFile = synthetic.writeTempFile("conll");
+		jsonFile = synthetic.writeTempFile("json");
+		conllOptions = new OptionsCmdLine(new String[]{"-in", corpusFile.getPath()});
+		jsonOptions = new OptionsCmdLine(new String[]{"-in", jsonFile.getPath(), "-parg"});
+
+		clusteredCorpus = new Corpus(conllOptions);
+		Random random = new Random(1);
+		int[] z = new int[clusteredCorpus.getNumTypes()];
+		for (int type = 0; type < z.length; type++) z[type] = random.nextInt(numClasses);
+		clusteredCorpus.setCorpusClusters(z);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (!corpusFile.delete()) corpusFile.deleteOnExit();
+		if (!jsonFile.delete()) jsonFile.deleteOnExit();
+	}
+
+	@Benchmark
+	public Corpus readCoNLL() {
+		return new Corpus(conllOptions);
+	}
+
+	/**
+	 * The streaming JSON reader (with the PARG dependencies)
+	 */
+	@Benchmark
+	public Corpus readJSONCorpus() {
+		return new CCGJSONCorpus(jsonOptions);
+	}
+
+	@Benchmark
+	public List<SentenceObj> readJSON() throws IOException {
+		return CCGJSONCorpus.readJSON(jsonFile.getPath());
+	}
+
+	@Benchmark
+	public Evaluator evaluator() {
+		return new Evaluator(clusteredCorpus);
+	}
+}
@@ -0,0 +1,89 @@
+package tagInducer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import tagInducer.corpus.CCGJSONCorpus;
+import tagInducer.corpus.Corpus;
+import tagInducer.features.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction of each type of features (including the construction of the extractor) from a synthetic corpus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FeaturesBenchmark {
+	@Param({"10000"})
+	public int vocabSize;
+	@Param({"1.0"})
+	public double zipfExponent;
+	@Param({"20000"})
+	public int numSentences;
+	@Param({"100"})
+	public int numContextFeats;
+	@Param({"100"})
+	public int numCategories;
+	@Param({"1"})
+	public int numThreads;
+
+	private File morphFile;
+	private Corpus corpus;
+	private CCGJSONCorpus jsonCorpus;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		SyntheticCorpus synthetic = new SyntheticCorpus(vocabSize, zipfExponent, numSentences, 20, 45, numCategories, 1);
+		File corpusFile = synthetic.writeTempFile("conll");
+		File jsonFile = synthetic.writeTempFile("json");
+		morphFile = synthetic.writeTempFile("morph");
+		corpus = new Corpus(new OptionsCmdLine(new String[]{"-in", corpusFile.getPath(),
+				"-context-feats", Integer.toString(numContextFeats)}));
+		jsonCorpus = new CCGJSONCorpus(new OptionsCmdLine(new String[]{"-in", jsonFile.getPath(),
+				"-context-feats", Integer.toString(numContextFeats), "-parg"}));
+		if (!corpusFile.delete()) corpusFile.deleteOnExit();
+		if (!jsonFile.delete()) jsonFile.deleteOnExit();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (!morphFile.delete()) morphFile.deleteOnExit();
+	}
+
+	@Benchmark
+	public int[][] context() throws IOException {
+		return new ContextFeatures(corpus, numThreads).getFeatures();
+	}
+
+	@Benchmark
+	public int[][] deps() {
+		return new DepFeatures(corpus, false).getFeatures();
+	}
+
+	@Benchmark
+	public int[][] morph() throws IOException {
+		return new MorfFeatures(corpus, morphFile.getPath(), true, numThreads).getFeatures();
+	}
+
+	@Benchmark
+	public SparseFeatures ccgCats() throws IOException {
+		return new CCGCatFeatures(corpus, numThreads).getSparseFeatures();
+	}
+
+	/**
+	 * All three types of PARG features
+	 */
+	@Benchmark
+	public void parg(Blackhole blackhole) throws IOException {
+		PargFeatures features = new PargFeatures(jsonCorpus, numThreads);
+		blackhole.consume(features.getCatFeatures());
+		blackhole.consume(features.getHeadCatFeatures());
+		blackhole.consume(features.getContextFeatures());
+	}
+}
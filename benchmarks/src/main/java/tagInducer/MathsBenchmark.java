@@ -0,0 +1,41 @@
+package tagInducer;
+
+import org.openjdk.jmh.annotations.*;
+import tagInducer.utils.MathsUtils;
+import tagInducer.utils.XoroshiroRandom;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MathsBenchmark {
+	@Param({"45", "500"})
+	public int numClasses;
+
+	private MathsUtils m;
+	private double[] logProbs, buffer;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		m = new MathsUtils(new XoroshiroRandom(1));
+		Random random = new Random(1);
+		logProbs = new double[numClasses];
+		// Log probabilities of the magnitude produced by the sampler
+		for (int i = 0; i < numClasses; i++) logProbs[i] = -1000 - 50 * random.nextDouble();
+		buffer = new double[numClasses];
+	}
+
+	/**
+	 * NB: multSampleLog works in place, so every call samples from a fresh copy (included in the time)
+	 */
+	@Benchmark
+	public int multSampleLog() {
+		System.arraycopy(logProbs, 0, buffer, 0, numClasses);
+		return m.multSampleLog(buffer);
+	}
+}
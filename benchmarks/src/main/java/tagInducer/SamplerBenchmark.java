@@ -0,0 +1,80 @@
+package tagInducer;
+
+import org.openjdk.jmh.annotations.*;
+import tagInducer.corpus.Corpus;
+import tagInducer.features.SparseFeatures;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The inner loops of the sampler, on the context features of a synthetic corpus
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SamplerBenchmark {
+	@Param({"10000"})
+	public int vocabSize;
+	@Param({"1.0"})
+	public double zipfExponent;
+	@Param({"20000"})
+	public int numSentences;
+	@Param({"45"})
+	public int numClasses;
+	@Param({"100"})
+	public int numContextFeats;
+	@Param({"dense", "sparse", "alias"})
+	public String samplerType;
+
+	private GibbsSampler sampler;
+	private double[] hyperFeats;
+	private int numTypes;
+	private int type, cluster;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File corpusFile = new SyntheticCorpus(vocabSize, zipfExponent, numSentences, 20, 45, 100, 1).writeTempFile("conll");
+		Options o = new OptionsCmdLine(new String[]{"-in", corpusFile.getPath(), "-classes", Integer.toString(numClasses),
+				"-context-feats", Integer.toString(numContextFeats), "-seed", "1", "-sampler", samplerType});
+		Corpus corpus = new Corpus(o);
+		if (!corpusFile.delete()) corpusFile.deleteOnExit();
+		Map<String, SparseFeatures> features = Inducer.extractFeatures(corpus, o);
+		numTypes = corpus.getNumTypes();
+		sampler = new GibbsSampler(features, numTypes, o);
+		sampler.initialise(numClasses);
+		sampler.setRunParameters(1);
+		hyperFeats = new double[features.size()];
+		Arrays.fill(hyperFeats, 0.1);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public int sweep() {
+		return sampler.sweep(1);
+	}
+
+	@Benchmark
+	public int sampleCluster() {
+		type = (type + 1) % numTypes;
+		return sampler.sampleCluster(type, 1);
+	}
+
+	@Benchmark
+	public double logLikelihood() {
+		type = (type + 1) % numTypes;
+		cluster = (cluster + 1) % numClasses;
+		return sampler.logLikelihood(cluster, type);
+	}
+
+	@Benchmark
+	public double totalLogLikelihood() {
+		return sampler.totalLogLikelihood(hyperFeats);
+	}
+}
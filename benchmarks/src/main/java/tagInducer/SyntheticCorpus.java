@@ -0,0 +1,212 @@
+package tagInducer;
+
+import tagInducer.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic corpora for the benchmarks, in the CoNLL and JSON formats read by the inducer
+ * (plus a matching morphology file).
+ * Word tokens are drawn from a Zipf distribution over the vocabulary; every word type has a fixed gold tag
+ * and CCG category, and every token a random head (so the dependency and PARG features are populated).
+ * The same parameters (and seed) always produce the same corpus.
+ */
+public class SyntheticCorpus {
+	private static final String[] SUFFIXES = {"s", "ed", "ing", "ly", "er", "ness", "ment", "able"};
+
+	private final int vocabSize;
+	private final int numSentences;
+	private final int meanSentenceLength;
+	private final int numTags;
+	private final int numCategories;
+	private final long seed;
+
+	/** The cumulative (unnormalised) Zipf probability of each word rank */
+	private final double[] cumProbs;
+
+	/**
+	 * @param vocabSize Number of distinct word types
+	 * @param zipfExponent Exponent of the Zipf distribution of the word types (1 is typical of natural language)
+	 * @param numSentences Number of sentences
+	 * @param meanSentenceLength Mean sentence length (in tokens)
+	 * @param numTags Number of distinct gold tags
+	 * @param numCategories Number of distinct CCG categories (and PARG dependency categories)
+	 * @param seed Random seed
+	 */
+	public SyntheticCorpus(int vocabSize, double zipfExponent, int numSentences, int meanSentenceLength,
+						   int numTags, int numCategories, long seed) {
+		this.vocabSize = vocabSize;
+		this.numSentences = numSentences;
+		this.meanSentenceLength = meanSentenceLength;
+		this.numTags = numTags;
+		this.numCategories = numCategories;
+		this.seed = seed;
+		cumProbs = new double[vocabSize];
+		double sum = 0;
+		for (int rank = 0; rank < vocabSize; rank++) {
+			sum += 1 / Math.pow(rank + 1, zipfExponent);
+			cumProbs[rank] = sum;
+		}
+	}
+
+	/**
+	 * @return The word type ids of each sentence
+	 */
+	public int[][] sentences() {
+		Random random = new Random(seed);
+		int[][] sentences = new int[numSentences][];
+		for (int s = 0; s < numSentences; s++) {
+			int length = Math.max(1, (int) Math.round(meanSentenceLength + random.nextGaussian() * meanSentenceLength / 3.0));
+			sentences[s] = new int[length];
+			for (int i = 0; i < length; i++) sentences[s][i] = sampleWord(random);
+		}
+		return sentences;
+	}
+
+	/**
+	 * @return The (1-based) head of each token of a sentence (0 for the root, which is the first token)
+	 */
+	private int[] heads(int length, Random random) {
+		int[] heads = new int[length];
+		for (int i = 1; i < length; i++) {
+			int head = random.nextInt(length - 1);
+			// Skip over the token itself
+			heads[i] = (head >= i) ? head + 2 : head + 1;
+		}
+		return heads;
+	}
+
+	private int sampleWord(Random random) {
+		int rank = Arrays.binarySearch(cumProbs, random.nextDouble() * cumProbs[vocabSize - 1]);
+		return (rank >= 0) ? rank : Math.min(-rank - 1, vocabSize - 1);
+	}
+
+	public static String word(int type) {
+		return "w" + type;
+	}
+
+	private String tag(int type) {
+		return "T" + (type % numTags);
+	}
+
+	private String category(int type) {
+		int cat = type % numCategories;
+		return (cat % 2 == 0) ? "N" + cat : "(S\\NP" + cat + ")/NP";
+	}
+
+	private static String jsonEscape(String string) {
+		return string.replace("\\", "\\\\");
+	}
+
+	public void writeCoNLL(String file) throws IOException {
+		int[][] sentences = sentences();
+		Random random = new Random(seed + 1);
+		try (BufferedWriter out = FileUtils.createOut(file)) {
+			for (int[] sentence : sentences) {
+				int[] heads = heads(sentence.length, random);
+				for (int i = 0; i < sentence.length; i++) {
+					int type = sentence[i];
+					out.write((i + 1) + "\t" + word(type) + "\t" + word(type) + "\t" + tag(type) + "\t" +
+							(type % numTags) + "\t" + tag(type) + "\t" + category(type) + "\t" +
+							heads[i] + "\tdep\n");
+				}
+				out.write("\n");
+			}
+		}
+	}
+
+	/**
+	 * Writes one sentence object per line, with a single parse containing both the PARG and CoNLL dependencies
+	 */
+	public void writeJSON(String file) throws IOException {
+		int[][] sentences = sentences();
+		Random random = new Random(seed + 1);
+		try (BufferedWriter out = FileUtils.createOut(file)) {
+			for (int[] sentence : sentences) {
+				int[] heads = heads(sentence.length, random);
+				StringBuilder line = new StringBuilder("{\"words\": [");
+				for (int i = 0; i < sentence.length; i++) {
+					int type = sentence[i];
+					if (i > 0) line.append(", ");
+					line.append("{\"word\": \"").append(word(type)).append("\", \"lemma\": \"").append(word(type))
+							.append("\", \"pos\": \"").append(tag(type)).append("\", \"upos\": \"").append(tag(type))
+							.append("\", \"cat\": \"").append(jsonEscape(category(type))).append("\"}");
+				}
+				line.append("], \"synPars\": [{\"depParse\": [");
+				boolean first = true;
+				for (int i = 0; i < sentence.length; i++) {
+					if (heads[i] == 0) continue;
+					if (!first) line.append(", ");
+					first = false;
+					line.append("{\"category\": \"").append(jsonEscape(category(sentence[heads[i] - 1]))).append("\", \"slot\": 1")
+							.append(", \"dependent\": ").append(i).append(", \"head\": ").append(heads[i] - 1)
+							.append("}");
+				}
+				line.append("], \"score\": 1.0, \"conllParse\": [");
+				for (int i = 0; i < sentence.length; i++) {
+					if (i > 0) line.append(", ");
+					line.append("{\"index\": ").append(i + 1).append(", \"head\": ").append(heads[i])
+							.append(", \"label\": \"dep\"}");
+				}
+				line.append("]}]}\n");
+				out.write(line.toString());
+			}
+		}
+	}
+
+	/**
+	 * Writes a morphological segmentation of every word type, with a suffix for most of them
+	 */
+	public void writeMorph(String file) throws IOException {
+		try (BufferedWriter out = FileUtils.createOut(file)) {
+			for (int type = 0; type < vocabSize; type++) {
+				out.write("1 " + word(type) + "/STM");
+				if (type % SUFFIXES.length != 0) out.write(" + " + SUFFIXES[type % SUFFIXES.length] + "/SUF");
+				out.write("\n");
+			}
+		}
+	}
+
+	/**
+	 * Writes the corpus to a new temporary file (to be deleted by the caller)
+	 * @param format One of conll, json or morph
+	 */
+	public File writeTempFile(String format) throws IOException {
+		File file = File.createTempFile("synthetic", "." + format);
+		file.deleteOnExit();
+		switch (format) {
+			case "conll": writeCoNLL(file.getPath()); break;
+			case "json": writeJSON(file.getPath()); break;
+			case "morph": writeMorph(file.getPath()); break;
+			default: throw new IllegalArgumentException("Unknown format: " + format);
+		}
+		return file;
+	}
+
+	/**
+	 * Usage: SyntheticCorpus &lt;out-prefix&gt; [vocab] [zipf] [sentences] [length] [tags] [categories] [seed]<br>
+	 * Writes &lt;out-prefix&gt;.conll, &lt;out-prefix&gt;.json and &lt;out-prefix&gt;.morph
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: SyntheticCorpus <out-prefix> [vocab] [zipf] [sentences] [length] [tags] " +
+					"[categories] [seed]");
+			System.exit(-1);
+		}
+		SyntheticCorpus corpus = new SyntheticCorpus(
+				(args.length > 1) ? Integer.parseInt(args[1]) : 10000,
+				(args.length > 2) ? Double.parseDouble(args[2]) : 1.0,
+				(args.length > 3) ? Integer.parseInt(args[3]) : 10000,
+				(args.length > 4) ? Integer.parseInt(args[4]) : 20,
+				(args.length > 5) ? Integer.parseInt(args[5]) : 45,
+				(args.length > 6) ? Integer.parseInt(args[6]) : 100,
+				(args.length > 7) ? Long.parseLong(args[7]) : 1);
+		corpus.writeCoNLL(args[0] + ".conll");
+		corpus.writeJSON(args[0] + ".json");
+		corpus.writeMorph(args[0] + ".morph");
+	}
+}
@@ -0,0 +1,293 @@
+package tagInducer;
+
+import tagInducer.features.SparseFeatures;
+import tagInducer.utils.LogGammaCache;
+import tagInducer.utils.MathsUtils;
+
+import java.util.Arrays;
+
+/**
+ * A Metropolis-Hastings (LightLDA style) sampler of the cluster of a word type, whose cost per type does not
+ * grow with the number of clusters: the proposals are drawn in O(1) from stale alias tables, and every
+ * proposal is accepted or rejected against the exact (tempered) conditional of {@link GibbsSampler}.
+ * <br>
+ * Each type is resampled with a cycle of MH steps that alternate between two proposals:
+ * <ul>
+ *     <li>the prior proposal, proportional to (n_k+alpha);</li>
+ *     <li>a feature proposal: a feature token of the type is picked (in proportion to its count c_i) and a cluster
+ *     proposed in proportion to the predictive probability of that feature, (n_ki+beta_f) / (N_kf+F_f*beta_f).
+ *     This is split into a sparse table over the clusters in which the feature occurs and a smoothing table
+ *     (shared by all the features of a feature type) over all the clusters.</li>
+ * </ul>
+ * The tables are built from the counts and only rebuilt after a given number of sampled types (or when the
+ * counts or the hyperparameters are changed by anything other than this sampler); the tables of a feature
+ * are only built once the feature is proposed from. Since each step is an MH step for a fixed proposal,
+ * the chain still converges to the exact conditional, but the draws are correlated within a cycle.
+ * Every instance samples against a single set of counts and is not thread-safe.
+ */
+class AliasSampler implements ClusterSampler {
+	private final SparseFeatures[] features;
+	private final int numClasses;
+	/** Number of MH steps per type */
+	private final int mhSteps;
+	/** Number of sampled types between rebuilds of the tables */
+	private final int rebuildInterval;
+
+	private double hyperClass = Double.NaN;
+	private LogGammaCache[] featLogGamma, totLogGamma;
+
+	/** Incremented whenever the tables are rebuilt (the feature tables of older epochs are stale) */
+	private int epoch;
+	private boolean built;
+	private int sampledSinceRebuild;
+
+	/** The prior proposal and its (unnormalised) weights */
+	private final AliasTable prior;
+	private final double[] priorWeights;
+	/** The smoothing proposal of every feature type and its weights, beta_f / (N_kf+F_f*beta_f) */
+	private final AliasTable[] smoothing;
+	private final double[][] smoothingWeights;
+	/** The sparse proposals of the features (built on first use) */
+	private final FeatureTable[][] featureTables;
+
+	/** Scratch space for building the tables */
+	private final int[] small, large;
+
+	/**
+	 * @param mhSteps Number of MH steps per type
+	 * @param rebuildInterval Number of sampled types between rebuilds of the tables
+	 */
+	AliasSampler(SparseFeatures[] features, int numClasses, int mhSteps, int rebuildInterval) {
+		this.features = features;
+		this.numClasses = numClasses;
+		this.mhSteps = mhSteps;
+		this.rebuildInterval = Math.max(1, rebuildInterval);
+		prior = new AliasTable(numClasses);
+		priorWeights = new double[numClasses];
+		smoothing = new AliasTable[features.length];
+		smoothingWeights = new double[features.length][numClasses];
+		featureTables = new FeatureTable[features.length][];
+		for (int f = 0; f < features.length; f++) {
+			smoothing[f] = new AliasTable(numClasses);
+			featureTables[f] = new FeatureTable[features[f].getNumFeatures()];
+		}
+		small = new int[numClasses];
+		large = new int[numClasses];
+	}
+
+	/**
+	 * Sets the current hyperparameters (and their log-gamma tables), invalidating the tables if they changed
+	 */
+	@Override
+	public void setHyperparameters(double hyperClass, LogGammaCache[] featLogGamma, LogGammaCache[] totLogGamma) {
+		boolean changed = hyperClass != this.hyperClass || this.totLogGamma == null;
+		for (int f = 0; !changed && f < totLogGamma.length; f++) changed = totLogGamma[f] != this.totLogGamma[f];
+		this.hyperClass = hyperClass;
+		this.featLogGamma = featLogGamma;
+		this.totLogGamma = totLogGamma.clone();
+		if (changed) invalidate();
+	}
+
+	/**
+	 * Invalidates the tables (needed whenever the counts are changed by anything other than this sampler)
+	 */
+	@Override
+	public void invalidate() {
+		built = false;
+	}
+
+	/**
+	 * Resamples the cluster of a word type (updating the counts)
+	 * @param current The current cluster of the type
+	 * @return The new cluster
+	 */
+	@Override
+	public int sample(int type, int current, double temperature, ClusterCounts counts, MathsUtils m) {
+		if (!built || sampledSinceRebuild >= rebuildInterval) rebuild(counts);
+		sampledSinceRebuild++;
+		counts.remove(type, current);
+
+		int numTokens = 0;
+		for (SparseFeatures feats : features) numTokens += feats.getTypeTotal(type);
+		int cluster = current;
+		double logP = logConditional(type, cluster, temperature, counts);
+		for (int step = 0; step < mhSteps; step++) {
+			int proposal;
+			//The log ratio of the proposal probabilities, q(cluster) / q(proposal)
+			double logProposalRatio;
+			if (step % 2 == 0 && numTokens > 0) {
+				//Pick a feature token of the type, then a cluster from that feature's proposal
+				int token = m.randInt(numTokens);
+				int f = 0, i = features[0].getOffsets()[type];
+				while (true) {
+					if (i == features[f].getOffsets()[type + 1]) i = features[++f].getOffsets()[type];
+					else if (token < features[f].getCounts()[i]) break;
+					else token -= features[f].getCounts()[i++];
+				}
+				FeatureTable table = featureTable(f, features[f].getIndices()[i], counts);
+				double[] smoothingWeight = smoothingWeights[f];
+				double u = m.randUniform() * (table.alias.mass + smoothing[f].mass);
+				proposal = (u < table.alias.mass) ? table.clusters[table.alias.sample(m)] : smoothing[f].sample(m);
+				logProposalRatio = Math.log((table.weight(cluster) + smoothingWeight[cluster]) /
+						(table.weight(proposal) + smoothingWeight[proposal]));
+			}
+			else {
+				proposal = prior.sample(m);
+				logProposalRatio = Math.log(priorWeights[cluster] / priorWeights[proposal]);
+			}
+			if (proposal == cluster) continue;
+			double proposalLogP = logConditional(type, proposal, temperature, counts);
+			double logAccept = proposalLogP - logP + logProposalRatio;
+			if (logAccept >= 0 || m.randUniform() < Math.exp(logAccept)) {
+				cluster = proposal;
+				logP = proposalLogP;
+			}
+		}
+
+		counts.add(type, cluster);
+		return cluster;
+	}
+
+	/**
+	 * The exact (tempered, unnormalised) log conditional of a cluster for a word type that has been removed
+	 * from the counts, as computed by the dense sampler
+	 */
+	private double logConditional(int type, int cluster, double temperature, ClusterCounts counts) {
+		double logP = Math.log(counts.typesPerClass[cluster] + hyperClass);
+		for (int f = 0; f < features.length; f++) {
+			int[] offsets = features[f].getOffsets();
+			int[] indices = features[f].getIndices();
+			int[] typeCounts = features[f].getCounts();
+			int[] classCounts = counts.featuresPerClass[f][cluster];
+			LogGammaCache featCache = featLogGamma[f];
+			for (int i = offsets[type]; i < offsets[type + 1]; i++)
+				logP += featCache.logRising(classCounts[indices[i]], typeCounts[i]);
+			logP -= totLogGamma[f].logRising(counts.sumClassFeatures[f][cluster], features[f].getTypeTotal(type));
+		}
+		return temperature * logP;
+	}
+
+	/**
+	 * Rebuilds the prior and smoothing tables from the counts (and marks the feature tables as stale)
+	 */
+	private void rebuild(ClusterCounts counts) {
+		epoch++;
+		built = true;
+		sampledSinceRebuild = 0;
+		for (int cluster = 0; cluster < numClasses; cluster++)
+			priorWeights[cluster] = counts.typesPerClass[cluster] + hyperClass;
+		prior.build(priorWeights, numClasses, small, large);
+		for (int f = 0; f < features.length; f++) {
+			double beta = featLogGamma[f].getOffset(), totalBeta = totLogGamma[f].getOffset();
+			for (int cluster = 0; cluster < numClasses; cluster++)
+				smoothingWeights[f][cluster] = beta / (counts.sumClassFeatures[f][cluster] + totalBeta);
+			smoothing[f].build(smoothingWeights[f], numClasses, small, large);
+		}
+	}
+
+	/**
+	 * @return The sparse proposal of a feature, (re)built from the counts if it is stale
+	 */
+	private FeatureTable featureTable(int f, int feature, ClusterCounts counts) {
+		FeatureTable table = featureTables[f][feature];
+		if (table == null) table = featureTables[f][feature] = new FeatureTable();
+		if (table.epoch == epoch) return table;
+		table.epoch = epoch;
+		table.size = 0;
+		long[] words = counts.clusterBits[f][feature];
+		int[] classCounts = counts.classesPerFeature[f][feature];
+		double totalBeta = totLogGamma[f].getOffset();
+		for (int w = 0; w < words.length; w++) {
+			long word = words[w];
+			while (word != 0) {
+				int cluster = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1;
+				if (table.size == table.clusters.length) {
+					table.clusters = Arrays.copyOf(table.clusters, 2 * table.size);
+					table.weights = Arrays.copyOf(table.weights, 2 * table.size);
+				}
+				table.clusters[table.size] = cluster;
+				table.weights[table.size++] = classCounts[cluster] / (counts.sumClassFeatures[f][cluster] + totalBeta);
+			}
+		}
+		table.alias.build(table.weights, table.size, small, large);
+		return table;
+	}
+
+	/**
+	 * The sparse proposal of a feature: the clusters in which it occurs (in increasing order) and their weights,
+	 * n_ki / (N_kf+F_f*beta_f), at the time the table was built
+	 */
+	private static class FeatureTable {
+		int[] clusters = new int[4];
+		double[] weights = new double[4];
+		int size;
+		final AliasTable alias = new AliasTable(4);
+		int epoch = -1;
+
+		/**
+		 * @return The weight of a cluster (0 if the feature did not occur in it)
+		 */
+		double weight(int cluster) {
+			int i = Arrays.binarySearch(clusters, 0, size, cluster);
+			return (i >= 0) ? weights[i] : 0;
+		}
+	}
+
+	/**
+	 * Walker's alias table (built with Vose's method) for O(1) draws from a discrete distribution
+	 */
+	private static class AliasTable {
+		double[] prob;
+		int[] alias;
+		int size;
+		/** The total (unnormalised) weight */
+		double mass;
+
+		AliasTable(int capacity) {
+			prob = new double[capacity];
+			alias = new int[capacity];
+		}
+
+		/**
+		 * Builds the table of the first <code>size</code> weights
+		 * @param small Scratch space (of at least <code>size</code> entries)
+		 * @param large Scratch space (of at least <code>size</code> entries)
+		 */
+		void build(double[] weights, int size, int[] small, int[] large) {
+			if (prob.length < size) {
+				prob = new double[weights.length];
+				alias = new int[weights.length];
+			}
+			this.size = size;
+			mass = 0;
+			for (int i = 0; i < size; i++) mass += weights[i];
+			int numSmall = 0, numLarge = 0;
+			for (int i = 0; i < size; i++) {
+				prob[i] = weights[i] * size / mass;
+				alias[i] = i;
+				if (prob[i] < 1) small[numSmall++] = i;
+				else large[numLarge++] = i;
+			}
+			while (numSmall > 0 && numLarge > 0) {
+				int less = small[--numSmall], more = large[--numLarge];
+				alias[less] = more;
+				prob[more] += prob[less] - 1;
+				if (prob[more] < 1) small[numSmall++] = more;
+				else large[numLarge++] = more;
+			}
+			//Whatever is left over is (up to rounding) exactly 1
+			while (numSmall > 0) prob[small[--numSmall]] = 1;
+			while (numLarge > 0) prob[large[--numLarge]] = 1;
+		}
+
+		/**
+		 * @return The index of a weight, drawn in proportion to the weights
+		 */
+		int sample(MathsUtils m) {
+			double u = m.randUniform() * size;
+			int i = Math.min((int) u, size - 1);
+			return (u - i < prob[i]) ? i : alias[i];
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package tagInducer;
+
+/**
+ * The best state found by the sampler so far: the assignment of every word type and (optionally) its
+ * (log) class distribution at that iteration.
+ * <br>
+ * The state is double buffered: an improvement is copied into the spare buffers, which are then swapped with the
+ * best ones. The buffers are allocated on the first two improvements and reused afterwards, and an array returned
+ * by {@link #getAssignment()} keeps the previous best state until the next improvement.
+ * The distributions are stored as floats, either over every class or over only the <code>topK</code> most
+ * probable classes of each type.
+ */
+class BestState {
+	private final int numTypes, numClasses;
+	/** Number of classes stored per type (0 without distributions) */
+	private final int width;
+	/** Whether only the most probable classes are stored (with their ids) */
+	private final boolean topK;
+
+	private int[] z, spareZ;
+	/** The stored (log) probabilities, <code>width</code> per type */
+	private float[] distributions, spareDistributions;
+	/** The classes of the stored probabilities (top-k only) */
+	private int[] classes, spareClasses;
+
+	/**
+	 * @param distributions Whether to keep the class distributions
+	 * @param topK Number of classes to keep per type (0 or at least numClasses for the full distributions)
+	 */
+	BestState(int numTypes, int numClasses, boolean distributions, int topK) {
+		this.numTypes = numTypes;
+		this.numClasses = numClasses;
+		this.topK = distributions && topK > 0 && topK < numClasses;
+		this.width = !distributions ? 0 : this.topK ? topK : numClasses;
+	}
+
+	/**
+	 * Copies the current state into the spare buffers and makes them the best state
+	 * @param current The current assignment
+	 * @param currentDistributions The current (log) class distributions (ignored without distributions)
+	 */
+	void update(int[] current, double[][] currentDistributions) {
+		if (spareZ == null) spareZ = new int[numTypes];
+		System.arraycopy(current, 0, spareZ, 0, numTypes);
+		if (width > 0) {
+			if (spareDistributions == null) spareDistributions = new float[numTypes * width];
+			if (topK && spareClasses == null) spareClasses = new int[numTypes * width];
+			for (int type = 0; type < numTypes; type++) {
+				if (topK) selectTopK(currentDistributions[type], type * width);
+				else {
+					double[] row = currentDistributions[type];
+					int offset = type * width;
+					for (int cluster = 0; cluster < numClasses; cluster++)
+						spareDistributions[offset + cluster] = (float) row[cluster];
+				}
+			}
+		}
+		swap();
+	}
+
+	/**
+	 * Keeps the <code>width</code> largest values of a row (in decreasing order) in the spare buffers
+	 */
+	private void selectTopK(double[] row, int offset) {
+		int size = 0;
+		for (int cluster = 0; cluster < numClasses; cluster++) {
+			float value = (float) row[cluster];
+			if (size == width && value <= spareDistributions[offset + size - 1]) continue;
+			//Insertion into the sorted prefix
+			int i = (size < width) ? size++ : size - 1;
+			while (i > 0 && spareDistributions[offset + i - 1] < value) {
+				spareDistributions[offset + i] = spareDistributions[offset + i - 1];
+				spareClasses[offset + i] = spareClasses[offset + i - 1];
+				i--;
+			}
+			spareDistributions[offset + i] = value;
+			spareClasses[offset + i] = cluster;
+		}
+	}
+
+	private void swap() {
+		int[] tmpZ = z;
+		z = spareZ;
+		spareZ = tmpZ;
+		float[] tmpDistributions = distributions;
+		distributions = spareDistributions;
+		spareDistributions = tmpDistributions;
+		int[] tmpClasses = classes;
+		classes = spareClasses;
+		spareClasses = tmpClasses;
+	}
+
+	/**
+	 * Sets the best state from a checkpoint (the distributions are dropped if their layout does not match)
+	 */
+	void restore(int[] bestZ, int bestWidth, int[] bestClasses, float[] bestDistributions) {
+		z = bestZ;
+		if (width > 0 && bestDistributions != null && bestWidth == width && (bestClasses != null) == topK) {
+			distributions = bestDistributions;
+			classes = bestClasses;
+		}
+		else {
+			distributions = null;
+			classes = null;
+		}
+	}
+
+	/**
+	 * @return The best assignment (null before the first improvement)
+	 */
+	int[] getAssignment() {
+		return z;
+	}
+
+	/**
+	 * @return Number of classes stored per type (0 without distributions)
+	 */
+	int getWidth() {
+		return width;
+	}
+
+	boolean hasDistributions() {
+		return distributions != null;
+	}
+
+	/**
+	 * @return The stored (log) probabilities, <code>width</code> per type (null if there are none)
+	 */
+	float[] getDistributions() {
+		return distributions;
+	}
+
+	/**
+	 * @return The classes of the stored probabilities, <code>width</code> per type (null unless top-k)
+	 */
+	int[] getClasses() {
+		return classes;
+	}
+
+	/**
+	 * @return The stored distribution of a type as text: the values of every class, comma separated, or
+	 * <code>class:value</code> pairs (most probable first) for the top-k distributions
+	 */
+	String toString(int type) {
+		StringBuilder str = new StringBuilder();
+		for (int i = type * width; i < (type + 1) * width; i++) {
+			if (str.length() > 0) str.append(", ");
+			if (topK) str.append(classes[i]).append(':');
+			str.append(distributions[i]);
+		}
+		return str.toString();
+	}
+}
@@ -0,0 +1,76 @@
+package tagInducer;
+
+import tagInducer.corpus.Corpus;
+import tagInducer.features.SparseFeatures;
+import tagInducer.utils.FileUtils;
+import tagInducer.utils.NpyWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+/**
+ * Writes the outputs of a run as NumPy (<code>.npy</code>) arrays, to be memory-mapped by downstream jobs
+ * instead of parsing text: the class distributions of the word types (a float32 matrix, or int32 classes and
+ * float32 values for the top-k ones) and the final class counts. The rows of the per-type arrays follow the
+ * vocabulary file (one word type per line).
+ */
+class BinaryExport {
+	private BinaryExport() {}
+
+	static void writeVocabulary(Corpus corpus, String file) throws IOException {
+		try (BufferedWriter out = FileUtils.createOut(file)) {
+			for (int type = 0; type < corpus.getNumTypes(); type++) out.write(corpus.getWordString(type) + "\n");
+		}
+	}
+
+	/**
+	 * Writes the best (log) class distributions to <code>prefix.npy</code> (types x classes), or for top-k
+	 * distributions to <code>prefix.classes.npy</code> and <code>prefix.values.npy</code> (types x k, most
+	 * probable first)
+	 */
+	static void writeDistributions(BestState best, int numTypes, String prefix) throws IOException {
+		if (best.getClasses() == null) NpyWriter.write(prefix + ".npy", best.getDistributions(), numTypes, best.getWidth());
+		else {
+			NpyWriter.write(prefix + ".classes.npy", best.getClasses(), numTypes, best.getWidth());
+			NpyWriter.write(prefix + ".values.npy", best.getDistributions(), numTypes, best.getWidth());
+		}
+	}
+
+	/**
+	 * Writes the averaged posteriors to <code>prefix.classes.npy</code> and <code>prefix.probs.npy</code>
+	 * (types x k, most probable first; unused slots have class -1)
+	 */
+	static void writePosteriors(PosteriorCollector posteriors, int numTypes, String prefix) throws IOException {
+		int topK = posteriors.getTopK();
+		int[] clusters = new int[topK];
+		float[] probabilities = new float[topK];
+		try (NpyWriter classesOut = new NpyWriter(prefix + ".classes.npy", false, numTypes, topK);
+			 NpyWriter probsOut = new NpyWriter(prefix + ".probs.npy", true, numTypes, topK)) {
+			for (int type = 0; type < numTypes; type++) {
+				posteriors.getPosterior(type, clusters, probabilities);
+				classesOut.writeInts(clusters);
+				probsOut.writeFloats(probabilities);
+			}
+		}
+	}
+
+	/**
+	 * Writes the class counts of an assignment: the word types per class to <code>prefix.types.npy</code>,
+	 * and for every feature type the feature tokens per class and feature to
+	 * <code>prefix.&lt;feature type&gt;.npy</code> (classes x features)
+	 */
+	static void writeCounts(GibbsSampler sampler, int numClasses, String prefix) throws IOException {
+		SparseFeatures[] features = sampler.getFeatures();
+		ClusterCounts counts = new ClusterCounts(features, numClasses);
+		int[] z = sampler.getFinalAssignment();
+		for (int type = 0; type < z.length; type++) counts.add(type, z[type]);
+		NpyWriter.write(prefix + ".types.npy", counts.typesPerClass, numClasses);
+		String[] featTypes = sampler.getFeatTypes();
+		for (int f = 0; f < features.length; f++) {
+			String name = featTypes[f].replaceAll("[^A-Za-z0-9_-]", "_");
+			try (NpyWriter out = new NpyWriter(prefix + "." + name + ".npy", false, numClasses, features[f].getNumFeatures())) {
+				for (int[] classCounts : counts.featuresPerClass[f]) out.writeInts(classCounts);
+			}
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package tagInducer;
+
+import tagInducer.features.SparseFeatures;
+import tagInducer.utils.LogGammaCache;
+import tagInducer.utils.MathsUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sparsity-aware (SparseLDA style) sampler of the cluster of a word type, whose cost grows with the
+ * number of clusters that share features with the type rather than with the number of clusters.
+ * <br>
+ * At temperature T the conditional of cluster k factorises into a dense and a feature term:
+ * p(k) = d_k * a_k, with d_k = [(n_k+alpha) / prod_f (N_kf+F_f*beta_f)^(C_f)]^T and
+ * a_k = [prod_f prod_i (n_kfi+beta_f)^(c_i)]^T (rising factorials over the type's non-zero features i,
+ * with counts c_i and totals C_f). For a cluster that shares no feature with the type, a_k is the constant a_0,
+ * so p(k) = a_0 * d_k + d_k * (a_k - a_0) splits into:
+ * <ul>
+ *     <li>a smoothing bucket over all the clusters, which only depends on the type through its feature totals:
+ *     the dense weights are cached (in a Fenwick tree) for every group of types with the same totals, and only the
+ *     clusters that changed since the group was last sampled are updated;</li>
+ *     <li>a sparse bucket, non-zero only for the clusters that co-occur with the type's features
+ *     (found through {@link ClusterCounts#clusterBits}, with the counts read from {@link ClusterCounts#classesPerFeature}).</li>
+ * </ul>
+ * The clusters are drawn from the same distribution as {@link GibbsSampler}'s dense sampler (up to rounding),
+ * but with fewer random numbers, so the runs are not identical to the dense ones.
+ * Every instance samples against a single set of counts and is not thread-safe.
+ */
+class BucketSampler implements ClusterSampler {
+	/** Maximum number of cached dense weights (over all the groups of types) */
+	private static final int MAX_CACHED_WEIGHTS = 1 << 22;
+	/** The cached weights are rebuilt once a weight grows this much (in log space) beyond their reference */
+	private static final double MAX_LOG_RATIO = 16;
+
+	private final SparseFeatures[] features;
+	private final int numClasses;
+	/** The group of every type (-1 if its dense weights are not cached) */
+	private final int[] typeGroups;
+	private final DenseWeights[] groups;
+	/** Dense weights for the types of uncached groups (rebuilt for every type) */
+	private final DenseWeights uncached;
+
+	/** The clusters whose counts changed since the caches were last invalidated, in order */
+	private int[] changeLog;
+	private int changeLogSize;
+	/** Incremented whenever all the cached weights become invalid */
+	private int epoch;
+
+	private double temperature = Double.NaN, hyperClass = Double.NaN;
+	private LogGammaCache[] featLogGamma, totLogGamma;
+
+	/** The (tempered) log of a_k / a_0 of every co-occurring cluster, and the list of those clusters */
+	private final double[] sparseLogRatios;
+	private final boolean[] isSparse;
+	private final int[] sparseClusters;
+	private final double[] sparseMasses;
+	private int numSparse;
+
+	/**
+	 * @param typeGroups The group of every type (see {@link #typeGroups(SparseFeatures[], int, int)})
+	 */
+	BucketSampler(SparseFeatures[] features, int numClasses, int[] typeGroups) {
+		this.features = features;
+		this.numClasses = numClasses;
+		this.typeGroups = typeGroups;
+		int numGroups = 0;
+		for (int group : typeGroups) numGroups = Math.max(numGroups, group + 1);
+		groups = new DenseWeights[numGroups];
+		uncached = new DenseWeights();
+		changeLog = new int[1024];
+		sparseLogRatios = new double[numClasses];
+		isSparse = new boolean[numClasses];
+		sparseClusters = new int[numClasses];
+		sparseMasses = new double[numClasses];
+	}
+
+	/**
+	 * Groups the word types by their feature totals (the dense weights are the same within a group).
+	 * Only the largest groups shared by more than one type are cached, within a fixed memory budget.
+	 * @return The group of every type (-1 for uncached types)
+	 */
+	static int[] typeGroups(SparseFeatures[] features, int numTypes, int numClasses) {
+		final Map<List<Integer>, Integer> groupSizes = new HashMap<>();
+		List<List<Integer>> typeKeys = new ArrayList<>(numTypes);
+		for (int type = 0; type < numTypes; type++) {
+			List<Integer> key = new ArrayList<>(features.length);
+			for (SparseFeatures feats : features) key.add(feats.getTypeTotal(type));
+			typeKeys.add(key);
+			Integer size = groupSizes.get(key);
+			groupSizes.put(key, (size == null) ? 1 : size + 1);
+		}
+		List<List<Integer>> shared = new ArrayList<>();
+		for (Map.Entry<List<Integer>, Integer> entry : groupSizes.entrySet())
+			if (entry.getValue() > 1) shared.add(entry.getKey());
+		Collections.sort(shared, new Comparator<List<Integer>>() {
+			@Override
+			public int compare(List<Integer> key1, List<Integer> key2) {
+				return groupSizes.get(key2) - groupSizes.get(key1);
+			}
+		});
+		int maxGroups = MAX_CACHED_WEIGHTS / (2 * numClasses);
+		Map<List<Integer>, Integer> groupIds = new HashMap<>();
+		for (int group = 0; group < Math.min(maxGroups, shared.size()); group++) groupIds.put(shared.get(group), group);
+		int[] typeGroups = new int[numTypes];
+		for (int type = 0; type < numTypes; type++) {
+			Integer group = groupIds.get(typeKeys.get(type));
+			typeGroups[type] = (group == null) ? -1 : group;
+		}
+		return typeGroups;
+	}
+
+	/**
+	 * Sets the current hyperparameters (and their log-gamma tables), invalidating the cached weights if they changed
+	 */
+	@Override
+	public void setHyperparameters(double hyperClass, LogGammaCache[] featLogGamma, LogGammaCache[] totLogGamma) {
+		boolean changed = hyperClass != this.hyperClass || this.totLogGamma == null;
+		for (int f = 0; !changed && f < totLogGamma.length; f++) changed = totLogGamma[f] != this.totLogGamma[f];
+		this.hyperClass = hyperClass;
+		this.featLogGamma = featLogGamma;
+		this.totLogGamma = totLogGamma.clone();
+		if (changed) invalidate();
+	}
+
+	/**
+	 * Invalidates the cached weights (needed whenever the counts are changed by anything other than this sampler)
+	 */
+	@Override
+	public void invalidate() {
+		epoch++;
+		changeLogSize = 0;
+	}
+
+	/**
+	 * Resamples the cluster of a word type (updating the counts)
+	 * @param current The current cluster of the type
+	 * @return The new cluster
+	 */
+	@Override
+	public int sample(int type, int current, double temperature, ClusterCounts counts, MathsUtils m) {
+		if (temperature != this.temperature) {
+			this.temperature = temperature;
+			invalidate();
+		}
+		counts.remove(type, current);
+		logChange(current);
+		DenseWeights dense = (typeGroups[type] >= 0) ? group(typeGroups[type]) : uncached;
+		dense.update(type, counts);
+		findSparse(type, counts);
+
+		//Rescale both buckets so that the largest weight is at most 1
+		double shift = 0;
+		for (int i = 0; i < numSparse; i++) {
+			int cluster = sparseClusters[i];
+			shift = Math.max(shift, dense.logWeights[cluster] - dense.reference + sparseLogRatios[cluster]);
+		}
+		double sparseMass = 0;
+		for (int i = 0; i < numSparse; i++) {
+			int cluster = sparseClusters[i];
+			double logRatio = sparseLogRatios[cluster];
+			//d_k * (a_k - a_0), computed without overflowing
+			sparseMasses[i] = Math.exp(dense.logWeights[cluster] - dense.reference + logRatio - shift) * (1 - Math.exp(-logRatio));
+			sparseMass += sparseMasses[i];
+		}
+		double denseMass = dense.total * Math.exp(-shift);
+
+		int cluster = -1;
+		double u = m.randUniform() * (sparseMass + denseMass);
+		if (u < sparseMass) {
+			for (int i = 0; i < numSparse && cluster < 0; i++) {
+				u -= sparseMasses[i];
+				if (u < 0) cluster = sparseClusters[i];
+			}
+			//Only reached through rounding errors
+			if (cluster < 0) cluster = sparseClusters[numSparse - 1];
+		}
+		else cluster = dense.find((u - sparseMass) / denseMass * dense.total);
+		for (int i = 0; i < numSparse; i++) isSparse[sparseClusters[i]] = false;
+
+		counts.add(type, cluster);
+		logChange(cluster);
+		return cluster;
+	}
+
+	/**
+	 * The conditional distribution of the cluster of a word type (which must have been removed from the counts),
+	 * computed from the two buckets; used to check them against the dense sampler
+	 * @return The normalised probabilities
+	 */
+	double[] probabilities(int type, double temperature, ClusterCounts counts) {
+		this.temperature = temperature;
+		invalidate();
+		uncached.update(type, counts);
+		findSparse(type, counts);
+		double[] p = new double[numClasses];
+		double total = 0;
+		for (int cluster = 0; cluster < numClasses; cluster++) {
+			double logRatio = isSparse[cluster] ? sparseLogRatios[cluster] : 0;
+			p[cluster] = Math.exp(uncached.logWeights[cluster] - uncached.reference + logRatio);
+			total += p[cluster];
+		}
+		for (int i = 0; i < numSparse; i++) isSparse[sparseClusters[i]] = false;
+		for (int cluster = 0; cluster < numClasses; cluster++) p[cluster] /= total;
+		return p;
+	}
+
+	/**
+	 * Finds the clusters that co-occur with the features of a type, and their (tempered) log a_k / a_0
+	 */
+	private void findSparse(int type, ClusterCounts counts) {
+		numSparse = 0;
+		for (int f = 0; f < features.length; f++) {
+			int[] offsets = features[f].getOffsets();
+			int[] indices = features[f].getIndices();
+			int[] typeCounts = features[f].getCounts();
+			int[][] featureCounts = counts.classesPerFeature[f];
+			long[][] bits = counts.clusterBits[f];
+			LogGammaCache featCache = featLogGamma[f];
+			for (int i = offsets[type]; i < offsets[type + 1]; i++) {
+				int feature = indices[i];
+				int count = typeCounts[i];
+				double emptyLogRising = featCache.logRising(0, count);
+				long[] words = bits[feature];
+				int[] classCounts = featureCounts[feature];
+				for (int w = 0; w < words.length; w++) {
+					long word = words[w];
+					while (word != 0) {
+						int cluster = (w << 6) + Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+						if (!isSparse[cluster]) {
+							isSparse[cluster] = true;
+							sparseLogRatios[cluster] = 0;
+							sparseClusters[numSparse++] = cluster;
+						}
+						sparseLogRatios[cluster] += featCache.logRising(classCounts[cluster], count) - emptyLogRising;
+					}
+				}
+			}
+		}
+		for (int i = 0; i < numSparse; i++) sparseLogRatios[sparseClusters[i]] *= temperature;
+	}
+
+	private DenseWeights group(int group) {
+		if (groups[group] == null) groups[group] = new DenseWeights();
+		return groups[group];
+	}
+
+	private void logChange(int cluster) {
+		if (changeLogSize == changeLog.length) {
+			//The groups that are this far behind will be rebuilt anyway
+			if (changeLogSize >= 4 * numClasses) {
+				invalidate();
+				return;
+			}
+			changeLog = Arrays.copyOf(changeLog, 2 * changeLog.length);
+		}
+		changeLog[changeLogSize++] = cluster;
+	}
+
+	/**
+	 * The (tempered) log dense weight log d_k of a cluster for the types with the feature totals of <code>type</code>
+	 */
+	private double logDenseWeight(int type, int cluster, ClusterCounts counts) {
+		double logWeight = Math.log(counts.typesPerClass[cluster] + hyperClass);
+		for (int f = 0; f < features.length; f++)
+			logWeight -= totLogGamma[f].logRising(counts.sumClassFeatures[f][cluster], features[f].getTypeTotal(type));
+		return temperature * logWeight;
+	}
+
+	/**
+	 * The dense weights of a group of types, exp(logWeight - reference), in a Fenwick tree
+	 * (for O(log K) updates and draws)
+	 */
+	private class DenseWeights {
+		final double[] logWeights = new double[numClasses];
+		/** The Fenwick tree (1-based) of the weights */
+		final double[] tree = new double[numClasses + 1];
+		double reference, total;
+		/** The epoch and the position in the change log when the weights were last updated */
+		int updatedEpoch = -1, updatedChanges;
+
+		/**
+		 * Brings the weights up to date with the counts: only the clusters that changed since the last update
+		 * are recomputed, unless the weights have been invalidated (or have drifted too far from their reference)
+		 */
+		void update(int type, ClusterCounts counts) {
+			//Replaying more than K/2 changes costs more than rebuilding
+			if (updatedEpoch != epoch || this == uncached || 2 * (changeLogSize - updatedChanges) > numClasses) {
+				rebuild(type, counts);
+				return;
+			}
+			for (int i = updatedChanges; i < changeLogSize; i++) {
+				int cluster = changeLog[i];
+				double logWeight = logDenseWeight(type, cluster, counts);
+				if (logWeight - reference > MAX_LOG_RATIO) {
+					rebuild(type, counts);
+					return;
+				}
+				add(cluster, Math.exp(logWeight - reference) - Math.exp(logWeights[cluster] - reference));
+				logWeights[cluster] = logWeight;
+			}
+			updatedChanges = changeLogSize;
+			if (total < Math.exp(-MAX_LOG_RATIO)) rebuild(type, counts);
+		}
+
+		private void rebuild(int type, ClusterCounts counts) {
+			reference = Double.NEGATIVE_INFINITY;
+			for (int cluster = 0; cluster < numClasses; cluster++) {
+				logWeights[cluster] = logDenseWeight(type, cluster, counts);
+				reference = Math.max(reference, logWeights[cluster]);
+			}
+			total = 0;
+			tree[0] = 0;
+			for (int cluster = 0; cluster < numClasses; cluster++) {
+				tree[cluster + 1] = Math.exp(logWeights[cluster] - reference);
+				total += tree[cluster + 1];
+			}
+			//Linear-time Fenwick construction: push every node into its parent
+			for (int node = 1; node <= numClasses; node++) {
+				int parent = node + (node & -node);
+				if (parent <= numClasses) tree[parent] += tree[node];
+			}
+			updatedEpoch = epoch;
+			updatedChanges = changeLogSize;
+		}
+
+		private void add(int cluster, double delta) {
+			for (int node = cluster + 1; node <= numClasses; node += node & -node) tree[node] += delta;
+			total += delta;
+		}
+
+		/**
+		 * @return The cluster at which the cumulative weight reaches <code>u</code>
+		 */
+		int find(double u) {
+			int node = 0;
+			for (int step = Integer.highestOneBit(numClasses); step > 0; step >>= 1) {
+				if (node + step <= numClasses && tree[node + step] <= u) {
+					node += step;
+					u -= tree[node];
+				}
+			}
+			return Math.min(node, numClasses - 1);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package tagInducer;
+
+import tagInducer.features.SparseFeatures;
+
+/**
+ * The count variables of the sampler: how many word types and feature tokens are assigned to each cluster.
+ * Kept separate from {@link GibbsSampler} so that each parallel worker can sample against its own copy.
+ */
+class ClusterCounts {
+	/** Total number of words assigned to cluster j */
+	final int[] typesPerClass;
+	/** Counts of feature tokens per class (NxF) for each feature type */
+	final int[][][] featuresPerClass;
+	/** Counts total number of feature tokens in class (sum over all context words) for each feature type */
+	final int[][] sumClassFeatures;
+	/**
+	 * For every feature of every feature type, the bitset of the clusters in which its count is non-zero
+	 * (only kept for the {@link BucketSampler} and the {@link AliasSampler}, otherwise null)
+	 */
+	final long[][][] clusterBits;
+	/** The feature counts per class transposed (FxN), so the clusters of a feature are contiguous (null if not indexed) */
+	final int[][][] classesPerFeature;
+
+	private final SparseFeatures[] features;
+
+	ClusterCounts(SparseFeatures[] features, int numClasses) {
+		this(features, numClasses, false);
+	}
+
+	/**
+	 * @param indexClusters Whether to keep the index of the clusters of every feature
+	 * ({@link #clusterBits} and {@link #classesPerFeature})
+	 */
+	ClusterCounts(SparseFeatures[] features, int numClasses, boolean indexClusters) {
+		this.features = features;
+		typesPerClass = new int[numClasses];
+		featuresPerClass = new int[features.length][][];
+		sumClassFeatures = new int[features.length][];
+		for (int f = 0; f < features.length; f++){
+			featuresPerClass[f] = new int[numClasses][features[f].getNumFeatures()];
+			sumClassFeatures[f] = new int[numClasses];
+		}
+		if (indexClusters) {
+			clusterBits = new long[features.length][][];
+			classesPerFeature = new int[features.length][][];
+			for (int f = 0; f < features.length; f++) {
+				clusterBits[f] = new long[features[f].getNumFeatures()][(numClasses + 63) >>> 6];
+				classesPerFeature[f] = new int[features[f].getNumFeatures()][numClasses];
+			}
+		}
+		else {
+			clusterBits = null;
+			classesPerFeature = null;
+		}
+	}
+
+	/**
+	 * Adds a word type (and its non-zero feature counts) to a cluster
+	 */
+	void add(int type, int cluster) {
+		typesPerClass[cluster]++;
+		for (int f = 0; f < features.length; f++){
+			int[] offsets = features[f].getOffsets();
+			int[] indices = features[f].getIndices();
+			int[] counts = features[f].getCounts();
+			int[] classCounts = featuresPerClass[f][cluster];
+			if (clusterBits != null) {
+				long[][] bits = clusterBits[f];
+				int[][] featureCounts = classesPerFeature[f];
+				for (int i = offsets[type]; i < offsets[type + 1]; i++) {
+					if (classCounts[indices[i]] == 0) bits[indices[i]][cluster >>> 6] |= 1L << cluster;
+					featureCounts[indices[i]][cluster] += counts[i];
+				}
+			}
+			for (int i = offsets[type]; i < offsets[type + 1]; i++)
+				classCounts[indices[i]] += counts[i];
+			sumClassFeatures[f][cluster] += features[f].getTypeTotal(type);
+		}
+	}
+
+	/**
+	 * Removes a word type (and its non-zero feature counts) from a cluster
+	 */
+	void remove(int type, int cluster) {
+		typesPerClass[cluster]--;
+		for (int f = 0; f < features.length; f++){
+			int[] offsets = features[f].getOffsets();
+			int[] indices = features[f].getIndices();
+			int[] counts = features[f].getCounts();
+			int[] classCounts = featuresPerClass[f][cluster];
+			for (int i = offsets[type]; i < offsets[type + 1]; i++)
+				classCounts[indices[i]] -= counts[i];
+			if (clusterBits != null) {
+				long[][] bits = clusterBits[f];
+				int[][] featureCounts = classesPerFeature[f];
+				for (int i = offsets[type]; i < offsets[type + 1]; i++) {
+					if (classCounts[indices[i]] == 0) bits[indices[i]][cluster >>> 6] &= ~(1L << cluster);
+					featureCounts[indices[i]][cluster] -= counts[i];
+				}
+			}
+			sumClassFeatures[f][cluster] -= features[f].getTypeTotal(type);
+		}
+	}
+
+	/**
+	 * Overwrites these counts with a snapshot of another set of counts (of the same dimensions)
+	 */
+	void copyFrom(ClusterCounts other) {
+		System.arraycopy(other.typesPerClass, 0, typesPerClass, 0, typesPerClass.length);
+		for (int f = 0; f < features.length; f++){
+			for (int cluster = 0; cluster < typesPerClass.length; cluster++)
+				System.arraycopy(other.featuresPerClass[f][cluster], 0, featuresPerClass[f][cluster], 0,
+						featuresPerClass[f][cluster].length);
+			System.arraycopy(other.sumClassFeatures[f], 0, sumClassFeatures[f], 0, sumClassFeatures[f].length);
+			if (clusterBits != null && other.clusterBits != null) {
+				for (int feature = 0; feature < clusterBits[f].length; feature++) {
+					System.arraycopy(other.clusterBits[f][feature], 0, clusterBits[f][feature], 0,
+							clusterBits[f][feature].length);
+					System.arraycopy(other.classesPerFeature[f][feature], 0, classesPerFeature[f][feature], 0,
+							classesPerFeature[f][feature].length);
+				}
+			}
+		}
+	}
+}
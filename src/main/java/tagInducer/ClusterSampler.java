@@ -0,0 +1,28 @@
+package tagInducer;
+
+import tagInducer.utils.LogGammaCache;
+import tagInducer.utils.MathsUtils;
+
+/**
+ * An alternative to the dense (every cluster for every type) sampler of {@link GibbsSampler}
+ * for the cluster of a word type. Every instance samples against a single set of counts, whose changes
+ * it may track, and is not thread-safe.
+ */
+interface ClusterSampler {
+	/**
+	 * Sets the current hyperparameters (and their log-gamma tables)
+	 */
+	void setHyperparameters(double hyperClass, LogGammaCache[] featLogGamma, LogGammaCache[] totLogGamma);
+
+	/**
+	 * Discards any state derived from the counts (needed whenever the counts are changed by anything other than this sampler)
+	 */
+	void invalidate();
+
+	/**
+	 * Resamples the cluster of a word type (updating the counts)
+	 * @param current The current cluster of the type
+	 * @return The new cluster
+	 */
+	int sample(int type, int current, double temperature, ClusterCounts counts, MathsUtils m);
+}
@@ -39,7 +39,35 @@ public class Evaluator {
 		this(corpus, "fine");
 	}
 
+	/**
+	 * Evaluates a clustering of the corpus tokens other than the one stored in the corpus
+	 * @param clusters The cluster of every token (see {@link Corpus#tokenClusters(int[])})
+	 */
+	public Evaluator(Corpus corpus, int[][] clusters) {
+		this(corpus, "fine", clusters);
+	}
+
+	/**
+	 * Compares two clusterings of the same tokens (e.g. from two sampling chains), using the second as the gold standard
+	 */
+	Evaluator(int[] clusters, int[] otherClusters) {
+		// The clusters are used as indices, so code the (possibly non-contiguous) ids
+		StringCoder clusterCoder = new StringCoder();
+		StringCoder goldTagCoder = new StringCoder();
+		int[] c = new int[clusters.length];
+		int[] g = new int[otherClusters.length];
+		for (int token = 0; token < clusters.length; token++) {
+			c[token] = clusterCoder.encode(Integer.toString(clusters[token]));
+			g[token] = goldTagCoder.encode(Integer.toString(otherClusters[token]));
+		}
+		setData(c, g);
+	}
+
 	private Evaluator(Corpus corpus, String goldType) {
+		this(corpus, goldType, corpus.getCorpusClusters());
+	}
+
+	private Evaluator(Corpus corpus, String goldType, int[][] clusters) {
 		List<Integer> c = new ArrayList<>();
 		List<Integer> g = new ArrayList<>();
 
@@ -55,7 +83,6 @@ public class Evaluator {
 				tags = corpus.getCorpusGoldTags();
 				break;
 		}
-		int[][] clusters = corpus.getCorpusClusters();
 
 		StringCoder goldTagCoder = new StringCoder();
 		StringCoder clusterCoder = new StringCoder();
@@ -1,58 +1,213 @@
 package tagInducer;
 
+import tagInducer.features.SparseFeatures;
+import tagInducer.monitor.HyperStats;
+import tagInducer.monitor.SamplerListener;
+import tagInducer.monitor.SweepStats;
+import tagInducer.utils.CountHistogram;
+import tagInducer.utils.LogGammaCache;
 import tagInducer.utils.MathsUtils;
+import tagInducer.utils.RandomSource;
 import tagInducer.utils.StringUtils;
+import tagInducer.utils.XoroshiroRandom;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 public class GibbsSampler {
 
 	/** The corpus data */
-	/** A map of features counts (MxF) for each feature type */
-	private Map<String, int[][]> features;
+	/** The names of the feature types (indexes the per-feature-type arrays below) */
+	private String[] featTypes;
+	/** The (sparse) features counts (MxF) for each feature type */
+	private SparseFeatures[] features;
 	/** Vocabulary size (number of word types) */
 	private int numTypes;
 	private int numClasses;
-	/** Dirichlet parameters controlling phi (feature parameters) */
-	private Map<String, Double> hyperFeats;
+	/** Dirichlet parameters controlling phi (feature parameters), one per feature type */
+	private double[] hyperFeats;
 	/** Dirichlet parameter controlling theta (class parameters) */
 	private double hyperClass;
+	/** Log-gamma tables at the current betas, for the class feature counts (offset beta) and class totals (offset F*beta) */
+	private LogGammaCache[] featLogGamma, totLogGamma;
+	/** Maximum number of integer arguments cached in each log-gamma table */
+	private static final int LOG_GAMMA_TABLE_SIZE = 1 << 16;
+	/** Histograms of the per-class feature counts of each feature type (for evaluating the likelihood) */
+	private CountHistogram[] countHistograms;
 	/** Cluster assignments for each word type */
 	private int z[];
-	/** Best cluster assignments according to logProb */
-	private int bestZ[];
-	/** Total number of words assigned to cluster j */
-	private int[] typesPerClass;
+	/** Best cluster assignments (and class distributions) according to logProb */
+	private final BestState best;
+	/** The type/feature counts per cluster */
+	private ClusterCounts counts;
 	private int ITERATIONS;
-	/** Counts of feature tokens per class (NxF) a specific feature type */
-	private Map<String, int[][]> featuresPerClass;
-	/** Counts total number of feature tokens in class (sum over all context words) */
-	private Map<String, int[]> sumClassFeatures;
 	/** Annealing temperature schedule */
 	private double[] temperatures;
+	/** Number of iterations in the initial annealing phase, and the first iteration (0-based) of the final cooling phase */
+	private int annealIters, coolingStart;
+	/**
+	 * Early stopping: the run has converged once the relative change of the log posterior over a window of
+	 * iterations and/or the mean fraction of types that changed cluster in the window fall below these values
+	 * (0 = criterion not used)
+	 */
+	private final double convergenceTol, convergenceChangeRate;
+	private final int convergenceWindow;
+	/** The iteration at which the run converged (0 = not converged), after which only the cooling phase is run */
+	private int convergedIter = 0;
+	/** The log posterior (NaN if not computed) and the fraction of changed types of every iteration (1-based) */
+	private double[] logPosteriors, changeRates;
 	private static final int tempIncrements = 20;
 	/** Number of hyperparameter sampling iterations */
 	private static final int HYPERSAMPLE_ITERATIONS = 5;
 	/** The standard deviation for generating new hypersamples */
 	private static double HYPERSAMPLING_RATIO = 0.1;
 	private double bestClassLogP = Double.NEGATIVE_INFINITY;
+	/** Number of iterations already completed (non-zero when resuming from a checkpoint) */
+	private int startIter = 0;
+	/** Write a checkpoint every this many iterations (0 = never) */
+	private final int checkpointInterval;
+	private final String checkpointFile;
+
+	/** The main (single-threaded) source of randomness; parallel workers use streams split from it */
+	private final MathsUtils m;
+
+	/** Number of threads used for (approximate) parallel sweeps; 1 means exact sequential sampling */
+	private final int numThreads;
+	/** The parallel workers, each owning a contiguous shard of word types */
+	private List<SweepWorker> workers;
+	/** Worker threads must not keep the JVM alive if sampling fails */
+	private static final ThreadFactory daemonThreads = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "gibbs-worker");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
 
-	private MathsUtils m = new MathsUtils();
-
-    /** The (log) posterior distribution over classes for each type  */
+    /** The (log) posterior distribution over classes for each type (only allocated if requested) */
     private double[][] classDistributions;
-    private double[][] bestClassDistributions;
+	private final boolean generateDistributions;
+	/** The posterior cluster distributions averaged over the sweeps after the burn-in (null if not requested) */
+	private final PosteriorCollector posteriors;
+	/** The burn-in (0 = the annealing phase) and thinning of the averaged posteriors */
+	private final int posteriorBurnIn, posteriorThinning;
+	/** Whether the conditionals of the current sweep are added to the averaged posteriors */
+	private boolean collecting;
+	/** Scratch buffer for the per-class probabilities of the (sequential) sampler */
+	private double[] scratch;
+	/** The cluster sampler: dense, sparse (see {@link BucketSampler}) or alias (see {@link AliasSampler}) */
+	private final String samplerType;
+	/** The groups of word types of the sparse sampler (null for the other samplers) */
+	private final int[] typeGroups;
+	/** Number of Metropolis-Hastings steps per type, and word types sampled between rebuilds of the alias tables */
+	private final int mhSteps, aliasRebuild;
+	/** The cluster sampler of the sequential sweeps (null for the dense sampler) */
+	private ClusterSampler clusterSampler;
+
+	/** Notified after every sweep and hyperparameter sampling round */
+	private final List<SamplerListener> listeners = new ArrayList<>();
+	/** Number of feature tokens (of all feature types) visited by a sweep */
+	private final long featureTokens;
+	/** Accepted hyperparameter proposals in the last sampling round (the class hyperparameter first) */
+	private int[] hyperAccepted;
+
+	/** Prefix of the messages of this sampler (empty unless running multiple chains or sweep configurations) */
+	private String logPrefix;
+	/** Whether to print the iteration counter (not when multiple samplers share the console) */
+	private boolean verbose;
 
 	/**
 	 * Initialise the Gibbs sampler and configure the sampling options.
 	 */
-	public GibbsSampler(Map<String, int[][]> features, int numTypes, Options o) {
-		this.features = features;
+	public GibbsSampler(Map<String, SparseFeatures> features, int numTypes, Options o) {
+		this(features, numTypes, o, 0);
+	}
+
+	/**
+	 * Initialise one of several independent chains over the same (read-only) features.
+	 * Chain 0 is identical to a single-chain run; the other chains use their own seeds (derived from the
+	 * configured one) and their own checkpoint files.
+	 * @param chain The index of the chain
+	 */
+	public GibbsSampler(Map<String, SparseFeatures> features, int numTypes, Options o, int chain) {
+		featTypes = features.keySet().toArray(new String[features.size()]);
+		this.features = new SparseFeatures[featTypes.length];
+		long featureTokens = 0;
+		for (int f = 0; f < featTypes.length; f++) {
+			this.features[f] = features.get(featTypes[f]);
+			for (int count : this.features[f].getCounts()) featureTokens += count;
+		}
+		this.featureTokens = featureTokens;
 		this.numTypes = numTypes;
 		this.numClasses = o.getNumClasses();
+		this.numThreads = Math.max(1, Math.min(o.getNumThreads(), numTypes));
+		this.m = new MathsUtils(new XoroshiroRandom(chainSeed(o.getSeed(), chain)));
+		this.generateDistributions = o.generateDistributions();
+		this.checkpointInterval = o.getCheckpointInterval();
+		this.checkpointFile = chainFile(o.getCheckpointFile(), chain, o.getNumChains());
+		this.logPrefix = (o.getNumChains() > 1) ? "Chain " + chain + ": " : "";
+		this.verbose = o.getNumChains() <= 1;
+		this.convergenceTol = o.getConvergenceTol();
+		this.convergenceChangeRate = o.getConvergenceChangeRate();
+		this.convergenceWindow = o.getConvergenceWindow();
+		if (!Arrays.asList("dense", "sparse", "alias").contains(o.getSampler()))
+			throw new IllegalArgumentException("Unknown sampler: " + o.getSampler() + " (available: dense, sparse, alias)");
+		if (!o.getSampler().equals("dense") && (generateDistributions || o.averagePosteriors())) {
+			System.err.println("Warning: the " + o.getSampler() + " sampler does not compute the class distributions; " +
+					"using the dense sampler");
+			this.samplerType = "dense";
+		}
+		else this.samplerType = o.getSampler();
+		this.typeGroups = samplerType.equals("sparse") ? BucketSampler.typeGroups(this.features, numTypes, numClasses) : null;
+		this.mhSteps = Math.max(1, o.getMHSteps());
+		this.aliasRebuild = (o.getAliasRebuild() > 0) ? o.getAliasRebuild() : numTypes;
+		this.best = new BestState(numTypes, numClasses, generateDistributions, o.getDistrTopK());
+		this.posteriors = o.averagePosteriors() ?
+				new PosteriorCollector(numTypes, Math.max(1, Math.min(o.getPosteriorTopK(), numClasses))) : null;
+		this.posteriorBurnIn = o.getPosteriorBurnIn();
+		this.posteriorThinning = Math.max(1, o.getPosteriorThinning());
+	}
+
+	/**
+	 * @return A new cluster sampler (of the configured type) for a set of counts, or null for the dense sampler
+	 */
+	private ClusterSampler newClusterSampler() {
+		switch (samplerType) {
+			case "sparse": return new BucketSampler(features, numClasses, typeGroups);
+			case "alias": return new AliasSampler(features, numClasses, mhSteps, aliasRebuild);
+			default: return null;
+		}
+	}
+
+	/**
+	 * @return The seed of a chain: the configured seed for the first chain, and the successive outputs
+	 * of a generator seeded with it for the others
+	 */
+	static long chainSeed(long seed, int chain) {
+		if (chain == 0) return seed;
+		XoroshiroRandom seeds = new XoroshiroRandom(seed);
+		long chainSeed = seed;
+		for (int i = 0; i < chain; i++) chainSeed = seeds.nextLong();
+		return chainSeed;
+	}
+
+	/**
+	 * @return The name of a per-chain file (e.g. a checkpoint): unchanged for single-chain runs,
+	 * and with a <code>.chain&lt;n&gt;</code> suffix otherwise
+	 */
+	static String chainFile(String file, int chain, int numChains) {
+		if (file == null || numChains <= 1) return file;
+		return file + ".chain" + chain;
 	}
 
 	/**
@@ -61,53 +216,160 @@ public class GibbsSampler {
 	 * @param numClusters number of clusters
 	 */
 	public void initialise(int numClusters) {
-		typesPerClass = new int[numClusters];
-		featuresPerClass = new HashMap<>();
-		sumClassFeatures = new HashMap<>();
-
-		for (String featType:features.keySet()){
-			int[][] temp = new int[numClusters][features.get(featType)[0].length];
-			featuresPerClass.put(featType, temp);
-			int[] temp2 = new int[numClusters];
-			sumClassFeatures.put(featType, temp2);
-		}
+		counts = new ClusterCounts(features, numClusters, !samplerType.equals("dense"));
+		clusterSampler = newClusterSampler();
+		countHistograms = new CountHistogram[features.length];
+		for (int f = 0; f < features.length; f++) countHistograms[f] = new CountHistogram();
 
 		z = new int[numTypes];
-        classDistributions = new double[numTypes][numClasses];
+		scratch = new double[numClasses];
+		if (generateDistributions) classDistributions = new double[numTypes][numClasses];
 		//For every word type
 		int cluster;
 		for (int type = 0; type < numTypes; type++) {
-			cluster = (int) (Math.random() * numClusters);
+			cluster = m.randInt(numClusters);
 			z[type] = cluster;
 
-			//Total number of words assigned to cluster j.
-			typesPerClass[cluster]++;
-
-			for (String featType:features.keySet()){
-				int clustSum = 0;
-				for (int feature = 0; feature < features.get(featType)[0].length; feature++){
-					int sum = features.get(featType)[type][feature];
-					featuresPerClass.get(featType)[cluster][feature] += sum;
-					clustSum += sum;
-				}
-				sumClassFeatures.get(featType)[cluster] += clustSum;
-			}
+			//Total number of words and feature tokens assigned to cluster j.
+			counts.add(type, cluster);
 		}
 	}
 
 	public void setRunParameters(int iters){
 		//Initialise betas
-		hyperFeats = new HashMap<>();
-		for (String feat:features.keySet()) hyperFeats.put(feat, 0.1);
+		hyperFeats = new double[features.length];
+		Arrays.fill(hyperFeats, 0.1);
+		hyperAccepted = new int[features.length + 1];
+		featLogGamma = new LogGammaCache[features.length];
+		totLogGamma = new LogGammaCache[features.length];
+		for (int f = 0; f < features.length; f++) updateLogGammaCache(f);
 		//Initialise alpha
 		this.hyperClass = 0.1;
 		this.ITERATIONS = iters;
 		//Create the temperature schedule
 		createTempSchedule();
+		logPosteriors = new double[ITERATIONS + 1];
+		Arrays.fill(logPosteriors, Double.NaN);
+		changeRates = new double[ITERATIONS + 1];
+		if (numThreads > 1) createWorkers();
+	}
+
+	/**
+	 * Restores the state saved in a checkpoint, so that {@link #gibbs()} continues the interrupted run
+	 * (and its annealing schedule) from the next iteration. Must be called after {@link #setRunParameters(int)}.
+	 * @param file The checkpoint file
+	 * @throws IOException If the checkpoint cannot be read or was written for a different model
+	 */
+	public void restore(String file) throws IOException {
+		SamplerCheckpoint checkpoint = SamplerCheckpoint.read(file);
+		if (checkpoint.numTypes != numTypes || checkpoint.numClasses != numClasses ||
+				checkpoint.iterations != ITERATIONS || !Arrays.equals(checkpoint.featTypes, featTypes))
+			throw new IOException("Checkpoint " + file + " does not match the current corpus/options (" +
+					checkpoint.numTypes + " types, " + checkpoint.numClasses + " classes, " +
+					checkpoint.iterations + " iterations, features " + Arrays.toString(checkpoint.featTypes) + ")");
+		//Rebuild the counts from the assignments
+		z = checkpoint.z;
+		counts = new ClusterCounts(features, numClasses, !samplerType.equals("dense"));
+		for (int type = 0; type < numTypes; type++) counts.add(type, z[type]);
+		if (clusterSampler != null) clusterSampler.invalidate();
+		best.restore(checkpoint.bestZ, checkpoint.distrWidth, checkpoint.bestClasses, checkpoint.bestDistributions);
+		bestClassLogP = checkpoint.bestClassLogP;
+		if (posteriors != null && checkpoint.posteriorClasses != null) {
+			if (checkpoint.posteriorTopK == posteriors.getTopK())
+				posteriors.restore(checkpoint.posteriorSamples, checkpoint.posteriorClasses, checkpoint.posteriorMass);
+			else System.err.println("Warning: the averaged posteriors of the checkpoint have a different top-k; discarding them");
+		}
+		hyperClass = checkpoint.hyperClass;
+		hyperFeats = checkpoint.hyperFeats;
+		for (int f = 0; f < features.length; f++) updateLogGammaCache(f);
+		m.getRandom().setState(checkpoint.randomState);
+		if (workers != null && workers.size() == checkpoint.workerRandomStates.length) {
+			for (int i = 0; i < workers.size(); i++)
+				workers.get(i).localMaths.getRandom().setState(checkpoint.workerRandomStates[i]);
+		}
+		else if (workers != null || checkpoint.workerRandomStates.length > 0)
+			System.err.println("Warning: resuming with a different number of threads; the run will not be reproducible");
+		startIter = checkpoint.iteration;
+		convergedIter = checkpoint.convergedIter;
+		System.arraycopy(checkpoint.logPosteriors, 0, logPosteriors, 0, startIter + 1);
+		System.arraycopy(checkpoint.changeRates, 0, changeRates, 0, startIter + 1);
+		System.out.println(logPrefix + "Resuming from iteration " + startIter + " of " + ITERATIONS);
+	}
+
+	/**
+	 * Saves the current state (after <code>iteration</code> completed iterations)
+	 */
+	private void writeCheckpoint(int iteration) throws IOException {
+		SamplerCheckpoint checkpoint = new SamplerCheckpoint();
+		checkpoint.numTypes = numTypes;
+		checkpoint.numClasses = numClasses;
+		checkpoint.iterations = ITERATIONS;
+		checkpoint.iteration = iteration;
+		checkpoint.featTypes = featTypes;
+		checkpoint.hyperClass = hyperClass;
+		checkpoint.hyperFeats = hyperFeats;
+		checkpoint.bestClassLogP = bestClassLogP;
+		checkpoint.convergedIter = convergedIter;
+		checkpoint.logPosteriors = Arrays.copyOf(logPosteriors, iteration + 1);
+		checkpoint.changeRates = Arrays.copyOf(changeRates, iteration + 1);
+		checkpoint.z = z;
+		checkpoint.bestZ = best.getAssignment();
+		checkpoint.randomState = m.getRandom().getState();
+		int numWorkers = (workers == null) ? 0 : workers.size();
+		checkpoint.workerRandomStates = new long[numWorkers][];
+		for (int i = 0; i < numWorkers; i++)
+			checkpoint.workerRandomStates[i] = workers.get(i).localMaths.getRandom().getState();
+		if (posteriors != null) {
+			checkpoint.posteriorTopK = posteriors.getTopK();
+			checkpoint.posteriorSamples = posteriors.getNumSamples();
+			checkpoint.posteriorClasses = posteriors.getClasses();
+			checkpoint.posteriorMass = posteriors.getMass();
+		}
+		if (best.hasDistributions()) {
+			checkpoint.distrWidth = best.getWidth();
+			checkpoint.bestClasses = best.getClasses();
+			checkpoint.bestDistributions = best.getDistributions();
+		}
+		checkpoint.write(checkpointFile);
+	}
+
+	/**
+	 * Splits the word types into one contiguous shard per thread, balancing the number
+	 * of non-zero features (the cost of sampling a type) across the shards.
+	 */
+	private void createWorkers() {
+		long totalCost = 0;
+		for (int type = 0; type < numTypes; type++) totalCost += typeCost(type);
+		workers = new ArrayList<>();
+		int from = 0;
+		long cost = 0;
+		for (int type = 0; type < numTypes; type++) {
+			cost += typeCost(type);
+			if (cost * numThreads >= totalCost * (workers.size() + 1) || type == numTypes - 1) {
+				workers.add(new SweepWorker(from, type + 1, m.getRandom().split()));
+				from = type + 1;
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the log-gamma tables of a feature type (needed whenever its beta changes)
+	 */
+	private void updateLogGammaCache(int f) {
+		int size = (int) Math.min(LOG_GAMMA_TABLE_SIZE, features[f].getTotalCount() + 1);
+		featLogGamma[f] = new LogGammaCache(hyperFeats[f], size);
+		totLogGamma[f] = new LogGammaCache(features[f].getNumFeatures() * hyperFeats[f], size);
+	}
+
+	private long typeCost(int type) {
+		long cost = 1;
+		for (SparseFeatures feats : features)
+			cost += feats.getOffsets()[type + 1] - feats.getOffsets()[type];
+		return cost;
 	}
 
 	private void createTempSchedule() {
-		double annealIters = ITERATIONS-(Math.round(ITERATIONS*0.5));
+		annealIters = (int) (ITERATIONS-(Math.round(ITERATIONS*0.5)));
 		double annealStartTemp = 2;
 		double annealStopTemp = 1;
 		double annealA = 10;
@@ -115,7 +377,7 @@ public class GibbsSampler {
 		temperatures = new double[ITERATIONS];
 		Arrays.fill(temperatures, 1);
 		for (int i = 0; i < annealIters; i++){
-			double x = i/annealIters;
+			double x = i/(double) annealIters;
 			double s = 1/(1+Math.exp(annealA*(x-annealB)));
 			double s0 = 1/(1+Math.exp(annealA*(0-annealB)));
 			double s1 = 1/(1+Math.exp(annealA*(1-annealB)));
@@ -131,6 +393,7 @@ public class GibbsSampler {
 		int tempIndex = 0;
 		int iterIncrements = ITERATIONS / tempIncrements;
 		int start = ITERATIONS - (4 * iterIncrements);
+		coolingStart = start;
 		for (int i = start; i < ITERATIONS; i++){
 			if (i % iterIncrements == 0) temperatures[i] = annealTemps[tempIndex++];
 			else temperatures[i] = temperatures[i-1];
@@ -147,43 +410,230 @@ public class GibbsSampler {
 	 */
 	public void gibbs() throws IOException {
 		double temperature;
-		int tempIndex = 0;
 
 		int iter;
 		String spaces = "";
 		for (int i = 0; i < Integer.toString(ITERATIONS).length(); i++) spaces += " ";
-		System.out.print("Iter: " + spaces + "0/" + ITERATIONS);
-		for (iter = 1; iter <= ITERATIONS; iter++) {
-			temperature = temperatures[tempIndex++];
+		String iterStr = spaces + startIter + "/" + ITERATIONS;
+		if (verbose) System.out.print("Iter: " + iterStr);
+		long totalSweepTime = 0;
+		ExecutorService executor = (numThreads > 1) ? Executors.newFixedThreadPool(numThreads, daemonThreads) : null;
+		int burnIn = (posteriorBurnIn > 0) ? posteriorBurnIn : annealIters;
+		for (iter = startIter + 1; iter <= lastIteration(); iter++) {
+			temperature = temperatures[scheduleIndex(iter)];
+			//Only the sweeps at temperature 1 sample from the posterior
+			collecting = posteriors != null && iter > burnIn && temperature == 1 && (iter - burnIn) % posteriorThinning == 0;
+			long sweepStart = System.nanoTime();
 
 			//**Main Loop**
-			for (int type = 0; type < z.length; type++) {
-				//Sample a new cluster
-				z[type] = sampleCluster(type, temperature);
-				//Add newly estimated z_i to count variables
-				typesPerClass[z[type]]++;
-			}
+			int typesChanged;
+			if (executor != null) typesChanged = parallelSweep(executor, temperature);
+			else typesChanged = sweep(temperature);
 			//END:**Main Loop**
+			if (collecting) posteriors.sampleDone();
+			long sweepNanos = System.nanoTime() - sweepStart;
+			long sweepTime = sweepNanos / 1000000;
+			totalSweepTime += sweepTime;
+			changeRates[iter] = (double) typesChanged / numTypes;
+			if (!listeners.isEmpty()) {
+				SweepStats stats = new SweepStats(iter, lastIteration(), temperature, sweepNanos, typesChanged, numTypes,
+						featureTokens, counts.typesPerClass.clone());
+				for (SamplerListener listener : listeners) listener.sweepCompleted(stats);
+			}
 
 			// Do the hyperparameter sampling every 5 iterations
 			if (iter % 5 == 0) {
-				//Calculate the log posterior
+				//Calculate the log posterior (keeping the per-feature-type terms for the hyperparameter sampling)
 				double prior = totalLogPrior(hyperClass);
-				double classLikelihood = totalLogLikelihood(hyperFeats);
-				double classPosterior = prior + classLikelihood;
+				double[] featLikelihoods = new double[features.length];
+				double classPosterior = prior;
+				for (int f = 0; f < features.length; f++) {
+					countHistograms[f].build(counts.featuresPerClass[f]);
+					featLikelihoods[f] = featLogLikelihood(f, hyperFeats[f]);
+					classPosterior += featLikelihoods[f];
+				}
 				//Check if we increased the logProb and if so, store this model
-				if (classPosterior > bestClassLogP) {
+				logPosteriors[iter] = classPosterior;
+				boolean newBest = classPosterior > bestClassLogP;
+				if (newBest) {
 					bestClassLogP = classPosterior;
-					bestZ = new int[z.length];
-                    bestClassDistributions = new double[numTypes][numClasses];
-					System.arraycopy(z, 0, bestZ, 0, z.length);
-					System.arraycopy(classDistributions, 0, bestClassDistributions, 0, classDistributions.length);
+					//The rows of the distributions are overwritten in place by later sweeps, so their contents are copied
+					best.update(z, classDistributions);
 				}
 				//Sample for class/feature hyperparameters
-				sampleHyper(temperature, classPosterior);
+				sampleHyper(temperature, prior, featLikelihoods);
+				if (!listeners.isEmpty()) fireHyperSampled(iter, prior, classPosterior - prior, newBest);
 			}
-			String iterStr = iter + "/" + ITERATIONS;
-			System.out.print(StringUtils.del(iterStr.length()) + iterStr);
+			if (convergedIter == 0 && hasConverged(iter)) {
+				convergedIter = iter;
+				System.out.println((verbose ? StringUtils.del(iterStr.length()) : logPrefix) + "Converged at iteration " + iter +
+						"; finishing with the cooling schedule at iteration " + lastIteration());
+				iterStr = "";
+			}
+			if (checkpointInterval > 0 && iter % checkpointInterval == 0 && iter < lastIteration())
+				writeCheckpoint(iter);
+			String prevIterStr = iterStr;
+			iterStr = iter + "/" + lastIteration() + " (" + sweepTime + "ms/sweep)";
+			if (verbose) System.out.print(StringUtils.del(prevIterStr.length()) + iterStr);
+		}
+		collecting = false;
+		if (executor != null) executor.shutdown();
+		for (SamplerListener listener : listeners) listener.samplingFinished();
+		if (verbose) System.out.println();
+		System.out.println(logPrefix + "Average sweep time: " + (totalSweepTime / Math.max(1, lastIteration() - startIter)) + "ms (" + numThreads + " thread" +
+				((numThreads > 1) ? "s, approximate parallel sampling)" : ")"));
+	}
+
+	/**
+	 * @return The last iteration of the run: the end of the schedule, or (after early stopping)
+	 * the end of the cooling phase that follows the iteration at which the run converged
+	 */
+	int lastIteration() {
+		if (convergedIter == 0) return ITERATIONS;
+		return convergedIter + (ITERATIONS - coolingStart);
+	}
+
+	/**
+	 * @return The position of an iteration (1-based) in the temperature schedule; after early stopping the
+	 * rest of the constant-temperature phase is skipped and the cooling phase follows immediately
+	 */
+	private int scheduleIndex(int iter) {
+		if (convergedIter == 0 || iter <= convergedIter) return iter - 1;
+		return coolingStart + (iter - convergedIter - 1);
+	}
+
+	/**
+	 * Checks the early stopping criteria at the end of an iteration. These are only checked once the
+	 * annealing phase (and a full window after it) is complete and before the cooling phase starts.
+	 * The log posterior is compared with the one computed a window earlier, so with that criterion
+	 * the check is only made at the iterations where the log posterior is computed.
+	 */
+	private boolean hasConverged(int iter) {
+		if (convergenceTol <= 0 && convergenceChangeRate <= 0) return false;
+		int windowStart = iter - convergenceWindow;
+		if (windowStart < annealIters || iter >= coolingStart) return false;
+		if (convergenceTol > 0) {
+			if (Double.isNaN(logPosteriors[iter])) return false;
+			//The last log posterior computed at least a window earlier (but after the annealing phase)
+			int prev = windowStart;
+			while (prev > annealIters && Double.isNaN(logPosteriors[prev])) prev--;
+			if (Double.isNaN(logPosteriors[prev])) return false;
+			double change = Math.abs(logPosteriors[iter] - logPosteriors[prev]) / Math.abs(logPosteriors[prev]);
+			if (change >= convergenceTol) return false;
+		}
+		if (convergenceChangeRate > 0) {
+			double meanChangeRate = 0;
+			for (int i = windowStart + 1; i <= iter; i++) meanChangeRate += changeRates[i];
+			meanChangeRate /= convergenceWindow;
+			if (meanChangeRate >= convergenceChangeRate) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * One (sequential) sweep over all the word types
+	 * @return The number of word types that changed cluster
+	 */
+	int sweep(double temperature) {
+		int changed = 0;
+		if (clusterSampler != null) clusterSampler.setHyperparameters(hyperClass, featLogGamma, totLogGamma);
+		for (int type = 0; type < z.length; type++) {
+			//Sample a new cluster (and add newly estimated z_i to count variables)
+			int cluster = sampleCluster(type, temperature, counts, m, scratch, clusterSampler);
+			if (cluster != z[type]) changed++;
+			z[type] = cluster;
+		}
+		return changed;
+	}
+
+	/**
+	 * Resamples the cluster of a single word type (against the global counts)
+	 * @return The new cluster
+	 */
+	int sampleCluster(int type, double temperature) {
+		if (clusterSampler != null) clusterSampler.setHyperparameters(hyperClass, featLogGamma, totLogGamma);
+		z[type] = sampleCluster(type, temperature, counts, m, scratch, clusterSampler);
+		return z[type];
+	}
+
+	/**
+	 * The conditional distribution of the cluster of a word type given the other assignments (and the current
+	 * hyperparameters), computed as the dense sampler does or from the buckets of the sparse sampler
+	 * @return The normalised probabilities
+	 */
+	double[] clusterProbabilities(int type, double temperature, boolean fromBuckets) {
+		counts.remove(type, z[type]);
+		double[] p = new double[numClasses];
+		if (fromBuckets) {
+			BucketSampler buckets = (BucketSampler) clusterSampler;
+			buckets.setHyperparameters(hyperClass, featLogGamma, totLogGamma);
+			p = buckets.probabilities(type, temperature, counts);
+			buckets.invalidate();
+		}
+		else {
+			for (int cluster = 0; cluster < numClasses; cluster++)
+				p[cluster] = temperature * (Math.log(counts.typesPerClass[cluster] + hyperClass) + logLikelihood(cluster, type, counts));
+			double max = Double.NEGATIVE_INFINITY, total = 0;
+			for (double logP : p) max = Math.max(max, logP);
+			for (int cluster = 0; cluster < numClasses; cluster++) total += p[cluster] = Math.exp(p[cluster] - max);
+			for (int cluster = 0; cluster < numClasses; cluster++) p[cluster] /= total;
+		}
+		counts.add(type, z[type]);
+		return p;
+	}
+
+	/**
+	 * Approximate distributed (AD-LDA style) sweep: every worker samples its shard of word types against
+	 * its own snapshot of the counts taken at the start of the sweep. The count deltas of the types that
+	 * changed cluster are merged into the global counts once all the workers have finished.
+	 */
+	private int parallelSweep(ExecutorService executor, double temperature) throws IOException {
+		int[] prevZ = z.clone();
+		for (SweepWorker worker : workers) worker.temperature = temperature;
+		try {
+			for (Future<Void> future : executor.invokeAll(workers)) future.get();
+		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Parallel sweep failed", e);
+		}
+		//Merge the deltas into the global counts
+		int changed = 0;
+		for (int type = 0; type < numTypes; type++) {
+			if (z[type] == prevZ[type]) continue;
+			counts.remove(type, prevZ[type]);
+			counts.add(type, z[type]);
+			changed++;
+		}
+		return changed;
+	}
+
+	/**
+	 * Samples a contiguous shard of word types against a private snapshot of the counts.
+	 */
+	private class SweepWorker implements Callable<Void> {
+		private final int from, to;
+		private final ClusterCounts localCounts = new ClusterCounts(features, numClasses, !samplerType.equals("dense"));
+		private final ClusterSampler localSampler = newClusterSampler();
+		private final MathsUtils localMaths;
+		private final double[] localScratch = new double[numClasses];
+		private double temperature;
+
+		SweepWorker(int from, int to, RandomSource random) {
+			this.from = from;
+			this.to = to;
+			this.localMaths = new MathsUtils(random);
+		}
+
+		@Override
+		public Void call() {
+			localCounts.copyFrom(counts);
+			if (localSampler != null) {
+				localSampler.setHyperparameters(hyperClass, featLogGamma, totLogGamma);
+				localSampler.invalidate();
+			}
+			for (int type = from; type < to; type++)
+				z[type] = sampleCluster(type, temperature, localCounts, localMaths, localScratch, localSampler);
+			return null;
 		}
 	}
 
@@ -194,26 +644,21 @@ public class GibbsSampler {
 	 * different values.
 	 * @param type Word type index
 	 * @param temperature The current annealing temperature
+	 * @param counts The counts to sample against (updated with the new assignment)
+	 * @param m The source of randomness
+	 * @param p Scratch buffer (of size numClasses) for the class probabilities
+	 * @param sampler The (sparse or alias) sampler of the counts, or null for the dense sampler
 	 * @return Cluster number
 	 */
-	private int sampleCluster(int type, double temperature) {
+	private int sampleCluster(int type, double temperature, ClusterCounts counts, MathsUtils m, double[] p,
+							  ClusterSampler sampler) {
+		if (sampler != null) return sampler.sample(type, z[type], temperature, counts, m);
 		int cluster = z[type];
-		//Discount type counts
-		typesPerClass[cluster]--;
-
-		//Discount feature token counts
-		for (String featType:features.keySet()){
-			int clustSum = 0;
-			for (int feature = 0; feature < features.get(featType)[0].length; feature++){
-				int sum = features.get(featType)[type][feature];
-				featuresPerClass.get(featType)[cluster][feature] -= sum;
-				clustSum += sum;
-			}
-			sumClassFeatures.get(featType)[cluster] -= clustSum;
-		}
+		//Discount type and feature token counts
+		counts.remove(type, cluster);
+		int[] typesPerClass = counts.typesPerClass;
 
 		//Do multinomial sampling via cumulative method:
-		double[] p = new double[numClasses];
 		//For every cluster
 		for (cluster = 0; cluster < numClasses; cluster++) {
 			//Calculate the cluster selection probability (the prior)
@@ -221,27 +666,21 @@ public class GibbsSampler {
 			p[cluster] = Math.log(clusterProb);
 
 			//Calculate the feature emission probability (the features likelihood)
-			p[cluster] += logLikelihood(cluster, type, hyperFeats);
+			p[cluster] += logLikelihood(cluster, type, counts);
 		}
+		if (collecting) posteriors.add(type, p);
 
 		//Perform annealing (since we're in log space we multiply)
 		for (cluster = 0; cluster < numClasses; cluster++)
 			p[cluster] *= temperature;
 
-        classDistributions[type] = p;
+		if (classDistributions != null)
+			System.arraycopy(p, 0, classDistributions[type], 0, numClasses);
 
 		//Draw a cluster from the multinomial p
 		cluster = m.multSampleLog(p);
 
-		for (String featType:features.keySet()){
-			int clustSum = 0;
-			for (int feature = 0; feature < features.get(featType)[0].length; feature++){
-				double sum = features.get(featType)[type][feature];
-				featuresPerClass.get(featType)[cluster][feature] += sum;
-				clustSum += sum;
-			}
-			sumClassFeatures.get(featType)[cluster] += clustSum;
-		}
+		counts.add(type, cluster);
 		return cluster;
 	}
 
@@ -249,134 +688,201 @@ public class GibbsSampler {
 	 * Hyperparameter sampling.<br>
 	 * Based on the Metropolis-Hastings sampler of Goldwater & Griffiths (2007)<br>
 	 * Sample more than once for better results.
+	 * Each hyperparameter only affects its own term of the log posterior, so a proposal is evaluated by
+	 * recomputing that term alone (the count histograms must be up to date).
 	 * @param temperature The annealing temperature
+	 * @param prior The log prior at the current alpha
+	 * @param featLikelihoods The log likelihood of each feature type at the current betas (updated on acceptance)
 	 */
-	protected void sampleHyper(double temperature, double oldPosterior) {
+	protected void sampleHyper(double temperature, double prior, double[] featLikelihoods) {
+		boolean[] changedFeats = new boolean[hyperFeats.length];
+		Arrays.fill(hyperAccepted, 0);
 		for (int i = 0; i < HYPERSAMPLE_ITERATIONS; i++){
 			//SAMPLE ALPHAS (hyperClass)
 			double newHyper = m.randNormal(hyperClass, hyperClass * HYPERSAMPLING_RATIO);
-			if (acceptHyper(newHyper, hyperFeats, hyperClass, newHyper, oldPosterior, temperature))
+			double newPrior = (newHyper > 0) ? totalLogPrior(newHyper) : Double.NEGATIVE_INFINITY;
+			if (acceptHyper(prior, newPrior, hyperClass, newHyper, temperature)) {
 				hyperClass = newHyper;
+				prior = newPrior;
+				hyperAccepted[0]++;
+			}
 
 			//SAMPLE BETAS (hyperFeats)
-			for (String feat:hyperFeats.keySet()){
-				Map<String, Double> newHyperFeats = new HashMap<>(hyperFeats);
-				double hyperFeat = hyperFeats.get(feat);
+			for (int f = 0; f < hyperFeats.length; f++){
+				double hyperFeat = hyperFeats[f];
 				double newHyperFeat = m.randNormal(hyperFeat, hyperFeat * HYPERSAMPLING_RATIO);
-				newHyperFeats.put(feat, newHyperFeat);
-				if (acceptHyper(hyperClass, newHyperFeats, hyperFeat, newHyperFeat, oldPosterior, temperature))
-					hyperFeats.put(feat, newHyperFeat);
+				double newLikelihood = (newHyperFeat > 0) ? featLogLikelihood(f, newHyperFeat) : Double.NEGATIVE_INFINITY;
+				if (acceptHyper(featLikelihoods[f], newLikelihood, hyperFeat, newHyperFeat, temperature)) {
+					hyperFeats[f] = newHyperFeat;
+					featLikelihoods[f] = newLikelihood;
+					changedFeats[f] = true;
+					hyperAccepted[f + 1]++;
+				}
 			}
 		}
+		//The cached log-gamma tables are only valid for the old betas
+		for (int f = 0; f < hyperFeats.length; f++)
+			if (changedFeats[f]) updateLogGammaCache(f);
 	}
-	private boolean acceptHyper(double hyperCl, Map<String, Double> hyperFeats,
-								double oldHyper, double newHyper, double oldP, double temp){
-		double newP = totalLogPrior(hyperCl)+ totalLogLikelihood(hyperFeats);
+
+	private void fireHyperSampled(int iter, double prior, double likelihood, boolean newBest) {
+		double[] featAcceptRates = new double[hyperFeats.length];
+		for (int f = 0; f < hyperFeats.length; f++)
+			featAcceptRates[f] = (double) hyperAccepted[f + 1] / HYPERSAMPLE_ITERATIONS;
+		HyperStats stats = new HyperStats(iter, prior, likelihood, bestClassLogP, newBest, hyperClass, featTypes.clone(),
+				hyperFeats.clone(), (double) hyperAccepted[0] / HYPERSAMPLE_ITERATIONS, featAcceptRates);
+		for (SamplerListener listener : listeners) listener.hyperSampled(stats);
+	}
+
+	private boolean acceptHyper(double oldP, double newP, double oldHyper, double newHyper, double temp){
 		double r = Math.exp(newP-oldP)*
 				m.densityNorm(oldHyper, newHyper, newHyper * HYPERSAMPLING_RATIO) /
 				m.densityNorm(newHyper, oldHyper, oldHyper * HYPERSAMPLING_RATIO);
 		r = Math.pow(r, temp);
-		return (r >= 1) || (r >= Math.random());
+		return (r >= 1) || (r >= m.randUniform());
 	}
 
 	/**
-	 * Returns the log of the prior probability given the new assignments.<br>
-	 * P(z_i)=P(z_1)*P(z_2|z_1)*P(z_3|z_2,z_1)...*P(z_i|z_1,...,z_{i-1})
+	 * Returns the log of the prior probability given the current assignments.<br>
+	 * P(z)=P(z_1)*P(z_2|z_1)*P(z_3|z_2,z_1)...*P(z_i|z_1,...,z_{i-1}), which (being exchangeable)
+	 * is computed in closed form from the class counts:
+	 * Gamma(K*alpha)/Gamma(M+K*alpha) * prod_k Gamma(n_k+alpha)/Gamma(alpha)
 	 * @param hyperClass The new value for the class hyperparameter
 	 * @return The log prior probability
 	 */
 	protected double totalLogPrior(double hyperClass){
-		double prior = 0;
-		int cumTotTypes = 0;
-		int[] cumTypesPerClass = new int[numClasses];
-		Arrays.fill(cumTypesPerClass, 0);
-		for (int wordType = 0; wordType < numTypes; wordType++) {
-			int cluster = z[wordType];
-			cumTypesPerClass[cluster]++;
-			cumTotTypes++;
-			prior += Math.log((cumTypesPerClass[cluster] + hyperClass) / ((cumTotTypes) + numClasses*hyperClass));
+		double prior = MathsUtils.logGamma(numClasses * hyperClass) - MathsUtils.logGamma(numTypes + numClasses * hyperClass);
+		double logGammaHyper = MathsUtils.logGamma(hyperClass);
+		for (int typesInClass : counts.typesPerClass) {
+			if (typesInClass > 0) prior += MathsUtils.logGamma(typesInClass + hyperClass) - logGammaHyper;
 		}
 		return prior;
 	}
 
 	/**
-	 * Returns the log of the likelihood given the assignments so far.<br>
-	 * P(f|z_i)=P(f|z_1)*P(f|z_1,z_2)*...*P(f|z_1,...,z_{i-1}).<br>
+	 * Returns the log of the likelihood given the current assignments.<br>
+	 * P(f|z)=P(f_1|z_1)*P(f_2|z_1,z_2)*...*P(f_i|z_1,...,z_i), computed in closed form from the class counts.
 	 * @param hyperFeats The new value for the features hyperparameter
 	 * @return The log likelihood
 	 */
-	protected double totalLogLikelihood(Map<String, Double> hyperFeats){
+	protected double totalLogLikelihood(double[] hyperFeats){
 		double likelihood = 0;
-		Map<String, int[][]> cumClassTokens = new HashMap<>();
-		Map<String, int[]> cumTotClassTokens =  new HashMap<>();
-		//Initialise the cumulative count maps
-		for (String featType:features.keySet()){
-			int classTokens[][] = new int[numClasses][features.get(featType)[0].length];
-			cumClassTokens.put(featType, classTokens);
-			int[] temp = new int[numClasses];
-			cumTotClassTokens.put(featType, temp);
+		for (int f = 0; f < features.length; f++){
+			countHistograms[f].build(counts.featuresPerClass[f]);
+			likelihood += featLogLikelihood(f, hyperFeats[f]);
 		}
+		return likelihood;
+	}
 
-		//Calculate the likelihood
-		//XXX Using tied betas for all features
-		for (int wordType = 0; wordType < numTypes; wordType++){
-			int cluster = z[wordType];
-			for (String featType:features.keySet()){
-				for (int feat:features.get(featType)[wordType]) {
-					cumTotClassTokens.get(featType)[cluster]+=feat;
-				}
-				int numFeatures = features.get(featType)[0].length;
-				int totFeatTokens = 0;
-				for (int feature = 0; feature < numFeatures; feature++){
-					int countWordTypeTokens = features.get(featType)[wordType][feature];
-					if (countWordTypeTokens==0) continue;
-					cumClassTokens.get(featType)[cluster][feature]+=countWordTypeTokens;
-					double featProb;
-					for (int featureToken = 0; featureToken < countWordTypeTokens; featureToken++){
-						featProb = (cumClassTokens.get(featType)[cluster][feature] + featureToken + hyperFeats.get(featType))/
-								(cumTotClassTokens.get(featType)[cluster] + totFeatTokens++ + numFeatures* hyperFeats.get(featType));
-						likelihood += Math.log(featProb);
-					}
-				}
-			}
+	/**
+	 * The (collapsed Dirichlet-multinomial) log likelihood of a single feature type:
+	 * prod_k [Gamma(F*beta)/Gamma(N_k+F*beta) * prod_f Gamma(n_kf+beta)/Gamma(beta)].
+	 * Costs O(distinct count values + K); the count histogram of the feature type must be up to date.
+	 */
+	private double featLogLikelihood(int f, double hyperFeat) {
+		double likelihood = countHistograms[f].sumLogRising(hyperFeat);
+		double totHyper = features[f].getNumFeatures() * hyperFeat;
+		double logGammaTotHyper = MathsUtils.logGamma(totHyper);
+		for (int classTokens : counts.sumClassFeatures[f]) {
+			if (classTokens > 0) likelihood -= MathsUtils.logGamma(classTokens + totHyper) - logGammaTotHyper;
 		}
-
 		return likelihood;
 	}
 
-	private double logLikelihood(int cluster, int type, Map<String, Double> hyperFeats) {
+	/**
+	 * The log probability of the features of a word type given a cluster: for every feature type,
+	 * the product of rising factorials (n_kf+beta)^(c_f) over the type's non-zero features, divided by
+	 * the rising factorial (N_k+F*beta)^(C) of the cluster total. Computed with the cached log-gamma tables.
+	 */
+	private double logLikelihood(int cluster, int type, ClusterCounts counts) {
 		double likelihood = 0;
-		for (String featType:features.keySet()){
-			int numFeatures = features.get(featType)[0].length;
-			int countTotClassTokens = sumClassFeatures.get(featType)[cluster];
-			int totFeatTokens = 0;
-			//For every feature token of every non-zero feature type
-			for (int feature = 0; feature < numFeatures; feature++){
-				int featCounts = features.get(featType)[type][feature];
-				if (featCounts==0) continue;
-				double featProb;
-				for (int featureToken = 0; featureToken < featCounts; featureToken++){
-					//Count tokens of context word given class (context matrix column)
-					int countClassTokens = featuresPerClass.get(featType)[cluster][feature];
-					//Calculate the feature selection probability
-					featProb = (countClassTokens + featureToken + hyperFeats.get(featType))/
-							(countTotClassTokens + totFeatTokens++ + numFeatures* hyperFeats.get(featType));
-					likelihood += Math.log(featProb);
-				}
-			}
+		for (int f = 0; f < features.length; f++){
+			int[] offsets = features[f].getOffsets();
+			int[] indices = features[f].getIndices();
+			int[] typeCounts = features[f].getCounts();
+			int[] classCounts = counts.featuresPerClass[f][cluster];
+			LogGammaCache featCache = featLogGamma[f];
+			//For every non-zero feature of the type
+			for (int i = offsets[type]; i < offsets[type + 1]; i++)
+				likelihood += featCache.logRising(classCounts[indices[i]], typeCounts[i]);
+			likelihood -= totLogGamma[f].logRising(counts.sumClassFeatures[f][cluster], features[f].getTypeTotal(type));
 		}
 		return likelihood;
 	}
 
+	/**
+	 * The log probability of the features of a word type given a cluster (with the current counts)
+	 */
+	double logLikelihood(int cluster, int type) {
+		return logLikelihood(cluster, type, counts);
+	}
+
+	/**
+	 * Prefixes the messages of this sampler (and disables the iteration counter),
+	 * for when several samplers share the console
+	 */
+	void setLogPrefix(String logPrefix) {
+		this.logPrefix = logPrefix;
+		verbose = false;
+	}
+
+	/**
+	 * Registers a listener to be notified of the progress of {@link #gibbs()}
+	 */
+	public void addListener(SamplerListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @return The iteration at which the run converged (0 if it did not stop early)
+	 */
+	public int getConvergedIteration() {
+		return convergedIter;
+	}
+
 	public int[] getFinalAssignment() {
-		return bestZ;
+		return best.getAssignment();
+	}
+
+	int[] getCurrentAssignment() {
+		return z;
+	}
+
+	ClusterCounts getCounts() {
+		return counts;
+	}
+
+	String[] getFeatTypes() {
+		return featTypes;
+	}
+
+	SparseFeatures[] getFeatures() {
+		return features;
+	}
+
+	double getHyperClass() {
+		return hyperClass;
+	}
+
+	double[] getHyperFeats() {
+		return hyperFeats;
 	}
 
 	public double getBestClassLogP() {
 		return bestClassLogP;
 	}
 
-    public double[][] getBestClassDistributions() {
-        return bestClassDistributions;
-    }
+	/**
+	 * @return The best assignment and class distributions (if generated)
+	 */
+	BestState getBestState() {
+		return best;
+	}
+
+	/**
+	 * @return The posterior cluster distributions averaged over the sweeps after the burn-in (null if not requested)
+	 */
+	PosteriorCollector getPosteriors() {
+		return posteriors;
+	}
 }
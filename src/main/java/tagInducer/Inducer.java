@@ -2,17 +2,31 @@ package tagInducer;
 
 import tagInducer.corpus.CCGJSONCorpus;
 import tagInducer.corpus.Corpus;
+import tagInducer.corpus.CorpusCache;
 import tagInducer.features.*;
+import tagInducer.monitor.JsonLinesListener;
+import tagInducer.monitor.SamplerMonitor;
 import tagInducer.utils.CollectionUtils;
 import tagInducer.utils.FileUtils;
 import tagInducer.utils.NotificationSender;
+import tagInducer.utils.StringUtils;
 
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.management.JMException;
 
 /**
  * The entry-point class.
@@ -21,7 +35,10 @@ import java.util.Map;
 public class Inducer{
 	private Corpus corpus;
 	private Options o;
+	/** The chain whose model is output (the best one when running multiple chains) */
 	private GibbsSampler sampler;
+	/** Independent chains over the same features */
+	private List<GibbsSampler> chains;
 
 
 	public Inducer(String[] args) throws IOException{
@@ -32,85 +49,234 @@ public class Inducer{
 			System.exit(1);
 		}
 		System.out.println(o);
-		List<String> featureTypes = o.getFeatureTypes();
+		if (!o.getOutputFormat().equals("text") && !o.getOutputFormat().equals("npy"))
+			throw new IllegalArgumentException("Unknown output format: " + o.getOutputFormat() + " (available: text, npy)");
 
-		if (o.getCorpusFileName().contains("json"))
-			corpus = new CCGJSONCorpus(o);
-		else corpus = new Corpus(o);
+		Map<String, SparseFeatures> featureVectors;
+		File cacheFile = (o.getCacheDir() != null) ? CorpusCache.cacheFile(o) : null;
+		if (cacheFile != null && cacheFile.exists()) {
+			System.out.println("Loading the corpus and features from " + cacheFile);
+			CorpusCache cache = CorpusCache.load(cacheFile, o);
+			corpus = cache.getCorpus();
+			featureVectors = cache.getFeatures();
+		}
+		else {
+			if (o.getCorpusFileName().contains("json"))
+				corpus = new CCGJSONCorpus(o);
+			else corpus = new Corpus(o);
+			featureVectors = extractFeatures(corpus, o);
+			if (cacheFile != null) {
+				CorpusCache.write(cacheFile, corpus, featureVectors);
+				System.out.println("Cached the corpus and features in " + cacheFile);
+			}
+		}
 
 		System.out.println("Corpus:\t" + corpus.getNumSentences() + " sents\t" +
 				corpus.getNumTokens() + " tokens\t" + corpus.getNumTypes() + " types.");
 
-		// A map of feature vectors per word type.
-		// String will contain the feature type and
-		// int[][] is a MxF array of features per type.
-		Map<String, int[][]> featureVectors = new HashMap<>();
+		for (String feat : featureVectors.keySet()) {
+			System.out.println(feat + "\t" + featureVectors.get(feat).getNumFeatures() +
+					"\t(" + featureVectors.get(feat).getNumNonZero() + " non-zero)");
+		}
+
+		//Construct and configure the samplers (one per chain, all sharing the read-only features)
+		int numChains = Math.max(1, o.getNumChains());
+		chains = new ArrayList<>();
+		List<SamplerMonitor> monitors = new ArrayList<>();
+		for (int chain = 0; chain < numChains; chain++) {
+			GibbsSampler chainSampler = new GibbsSampler(featureVectors, corpus.getNumTypes(), o, chain);
+			chainSampler.initialise(o.getNumClasses());
+			//A resumed run adds to the telemetry of the interrupted one
+			if (o.getTelemetryFile() != null)
+				chainSampler.addListener(new JsonLinesListener(GibbsSampler.chainFile(o.getTelemetryFile(), chain, numChains),
+						o.getResumeFile() != null));
+			if (o.isJMX()) {
+				String name = new File(o.getCorpusFileName()).getName() + ((numChains > 1) ? "-chain" + chain : "");
+				try {
+					SamplerMonitor monitor = new SamplerMonitor(name);
+					monitor.register();
+					chainSampler.addListener(monitor);
+					monitors.add(monitor);
+				}
+				catch (JMException e) {
+					System.err.println("Cannot register the JMX monitor: " + e.getMessage());
+				}
+			}
+			chains.add(chainSampler);
+		}
+
+		long runTime = runInducer(o.getIters());
+		System.out.println("Clustering took " + (runTime / 60000) + " minutes");
+		for (SamplerMonitor monitor : monitors) {
+			try {
+				monitor.unregister();
+			}
+			catch (JMException e) {
+				System.err.println("Cannot unregister the JMX monitor: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Extracts the requested types of features from the corpus, concurrently: one task per type of features
+	 * (each of which also counts chunks of the corpus in parallel with its share of the threads), with the morphology file read first
+	 * so that its I/O overlaps with the other extractors. The features do not depend on the number of threads.
+	 * @return A map of feature vectors per word type.
+	 * String will contain the feature type and
+	 * SparseFeatures is a (compressed) MxF array of features per type.
+	 * The PARG and CCG category features are built sparse; the context, dependency and morphology extractors build
+	 * a dense matrix, which is compressed right away, and only one task at a time does so (while the others count),
+	 * so that only one dense matrix is ever held in memory.
+	 */
+	public static Map<String, SparseFeatures> extractFeatures(final Corpus corpus, final Options o) throws IOException {
+		List<String> featureTypes = o.getFeatureTypes();
+		int numThreads = (o.getFeatureThreads() > 0) ? o.getFeatureThreads() : Runtime.getRuntime().availableProcessors();
+		//The threads are shared between the tasks, each of which splits its counting over its share
+		int numTasks = 0;
+		for (String featType : Arrays.asList(FeatureNames.CONTEXT, FeatureNames.DEPS, FeatureNames.MORPH,
+				FeatureNames.PARG, FeatureNames.CCGCATS))
+			if (featureTypes.contains(featType)) numTasks++;
+		final int chunkThreads = Math.max(1, numThreads / Math.max(1, numTasks));
+		//The tasks in the order of the feature types in the map (the morphology task is submitted first)
+		Map<String, Callable<Map<String, SparseFeatures>>> tasks = new LinkedHashMap<>();
 
 		if (featureTypes.contains(FeatureNames.CONTEXT)) {
-			Features features = new ContextFeatures(corpus);
-			featureVectors.put(FeatureNames.CONTEXT, features.getFeatures());
+			tasks.put(FeatureNames.CONTEXT, new FeatureTask(FeatureNames.CONTEXT) {
+				@Override
+				void extract() throws IOException {
+					putDense(FeatureNames.CONTEXT, new ContextFeatures(corpus, chunkThreads));
+				}
+			});
 		}
 		if (featureTypes.contains(FeatureNames.DEPS)) {
-			Features features = new DepFeatures(corpus, o.isUndirDeps());
-			featureVectors.put(FeatureNames.DEPS, features.getFeatures());
+			tasks.put(FeatureNames.DEPS, new FeatureTask(FeatureNames.DEPS) {
+				@Override
+				void extract() {
+					putDense(FeatureNames.DEPS, new DepFeatures(corpus, o.isUndirDeps()));
+				}
+			});
 		}
 		if (featureTypes.contains(FeatureNames.MORPH)) {
-			Features features = new MorfFeatures(corpus, o.getMorphFile(), o.isExtendedMorph());
-			featureVectors.put(FeatureNames.MORPH, features.getFeatures());
+			tasks.put(FeatureNames.MORPH, new FeatureTask(FeatureNames.MORPH) {
+				@Override
+				void extract() throws IOException {
+					putDense(FeatureNames.MORPH, new MorfFeatures(corpus, o.getMorphFile(), o.isExtendedMorph(), chunkThreads));
+				}
+			});
 		}
 		if (featureTypes.contains(FeatureNames.ALIGNS)) {
 			System.err.println("Alignment features are not currently supported");
 			System.exit(-1);
 		}
 		if (featureTypes.contains(FeatureNames.PARG)) {
-			String type = (o.getPargFeatType() == null) ? "all" : o.getPargFeatType();
-            // Special case where the features are broken into 3 categories
-            PargFeatures features = new PargFeatures(corpus);
-            switch (type) {
-				case "all":
-					featureVectors.put(FeatureNames.PARG + ":cat", features.getCatFeatures());
-					featureVectors.put(FeatureNames.PARG + ":headCat", features.getHeadCatFeatures());
-					featureVectors.put(FeatureNames.PARG + ":context", features.getContextFeatures());
-					break;
-				case "cat":
-					featureVectors.put(FeatureNames.PARG + ":cat", features.getCatFeatures());
-					break;
-				case "headcat":
-					featureVectors.put(FeatureNames.PARG + ":headCat", features.getHeadCatFeatures());
-					break;
-				case "context":
-					featureVectors.put(FeatureNames.PARG + ":context", features.getContextFeatures());
-					break;
-				default:
-					System.err.println("Wrong PARG feature type: " + type + ". " +
-							"Available types: cat, headcat, context, all");
-					System.exit(-1);
+			final String type = (o.getPargFeatType() == null) ? "all" : o.getPargFeatType();
+			if (!Arrays.asList("all", "cat", "headcat", "context").contains(type)) {
+				System.err.println("Wrong PARG feature type: " + type + ". " +
+						"Available types: cat, headcat, context, all");
+				System.exit(-1);
 			}
+			tasks.put(FeatureNames.PARG, new FeatureTask(FeatureNames.PARG) {
+				@Override
+				void extract() throws IOException {
+					// Special case where the features are broken into 3 categories
+					PargFeatures features = new PargFeatures(corpus, chunkThreads);
+					if (type.equals("all") || type.equals("cat"))
+						put(FeatureNames.PARG + ":cat", features.getCatFeatures());
+					if (type.equals("all") || type.equals("headcat"))
+						put(FeatureNames.PARG + ":headCat", features.getHeadCatFeatures());
+					if (type.equals("all") || type.equals("context"))
+						put(FeatureNames.PARG + ":context", features.getContextFeatures());
+				}
+			});
 		}
 		if (featureTypes.contains(FeatureNames.CCGCATS)) {
-			Features features = new CCGCatFeatures(corpus);
-			featureVectors.put(FeatureNames.CCGCATS, features.getFeatures());
+			tasks.put(FeatureNames.CCGCATS, new FeatureTask(FeatureNames.CCGCATS) {
+				@Override
+				void extract() throws IOException {
+					put(FeatureNames.CCGCATS, new CCGCatFeatures(corpus, chunkThreads).getSparseFeatures());
+				}
+			});
 		}
 
-		for (String feat : featureVectors.keySet()) {
-			System.out.println(feat + "\t" + featureVectors.get(feat)[0].length);
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, tasks.size())));
+		Map<String, Future<Map<String, SparseFeatures>>> futures = new HashMap<>();
+		if (tasks.containsKey(FeatureNames.MORPH))
+			futures.put(FeatureNames.MORPH, executor.submit(tasks.get(FeatureNames.MORPH)));
+		for (String featType : tasks.keySet())
+			if (!futures.containsKey(featType)) futures.put(featType, executor.submit(tasks.get(featType)));
+		Map<String, SparseFeatures> featureVectors = new HashMap<>();
+		try {
+			for (String featType : tasks.keySet())
+				for (Map.Entry<String, SparseFeatures> entry : futures.get(featType).get().entrySet())
+					featureVectors.put(entry.getKey(), entry.getValue());
+		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Feature extraction failed", e);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		String timings = "";
+		for (Callable<Map<String, SparseFeatures>> task : tasks.values())
+			timings += ((timings.isEmpty()) ? "" : ", ") + task;
+		System.out.println("Feature extraction took " + (System.currentTimeMillis() - start) + "ms (" + timings + ")");
+
+		return featureVectors;
+	}
+
+	/**
+	 * Extracts (and compresses) the features of one type, and times the extraction
+	 */
+	private static abstract class FeatureTask implements Callable<Map<String, SparseFeatures>> {
+		/** Held while building (and compressing) a dense matrix */
+		private static final Object DENSE_LOCK = new Object();
+
+		private final String name;
+		private final Map<String, SparseFeatures> features = new LinkedHashMap<>();
+		private long time;
+
+		FeatureTask(String name) {
+			this.name = name;
 		}
 
-		//Construct and configure the sampler
-		sampler = new GibbsSampler(featureVectors, corpus.getNumTypes(), o);
-		sampler.initialise(o.getNumClasses());
+		abstract void extract() throws IOException;
 
-		long runTime = runInducer(o.getIters());
-		System.out.println("Clustering took " + (runTime / 60000) + " minutes");
+		/**
+		 * Builds the dense features of an extractor and compresses them, one task at a time
+		 */
+		void putDense(String featType, Features extractor) {
+			synchronized (DENSE_LOCK) {
+				features.put(featType, SparseFeatures.fromDense(extractor.getFeatures()));
+			}
+		}
+
+		void put(String featType, SparseFeatures sparse) {
+			features.put(featType, sparse);
+		}
+
+		@Override
+		public Map<String, SparseFeatures> call() throws IOException {
+			long start = System.currentTimeMillis();
+			extract();
+			time = System.currentTimeMillis() - start;
+			return features;
+		}
+
+		@Override
+		public String toString() {
+			return name + ": " + time + "ms";
+		}
 	}
 
 	private long runInducer(int iters) throws IOException{
-		//Set the parameters for the current run
-		sampler.setRunParameters(iters);
-
 		//**Run the sampler!**
 		long start = System.currentTimeMillis();
-		sampler.gibbs();
+		if (chains.size() == 1) {
+			runChain(0, iters);
+			sampler = chains.get(0);
+		}
+		else sampler = runChains(iters);
 		long end = System.currentTimeMillis();
 
 		corpus.setCorpusClusters(sampler.getFinalAssignment());
@@ -130,16 +296,38 @@ public class Inducer{
 		//Output the tagged file
 		corpus.writeTagged(o.getOutFile());
 
-        if (o.generateDistributions()) {
-            //TODO Create a more sophisticated output file
-            BufferedWriter out = FileUtils.createOut(o.getOutFile() + ".distr");
-            double[][] array = sampler.getBestClassDistributions();
-            for (int wordType = 0; wordType < array.length; wordType++) {
-                double[] anArray = array[wordType];
-                String distr = Arrays.toString(anArray);
-                out.write(corpus.getWordString(wordType) + "\t" + distr.substring(1, distr.length()-1) + "\n");
+		//Output the model, for tagging new text
+		if (o.getModelFile() != null) {
+			Model.fromSampler(sampler, corpus, o).write(o.getModelFile());
+			System.out.println("Model written to " + o.getModelFile());
+		}
+
+        //Output the distributions, as text or as NumPy arrays (with the vocabulary and the class counts)
+        boolean npy = o.getOutputFormat().equals("npy");
+        if (npy) {
+            BinaryExport.writeVocabulary(corpus, o.getOutFile() + ".vocab");
+            BinaryExport.writeCounts(sampler, o.getNumClasses(), o.getOutFile() + ".counts");
+        }
+        BestState best = sampler.getBestState();
+        if (o.generateDistributions() && best.hasDistributions()) {
+            if (npy) BinaryExport.writeDistributions(best, corpus.getNumTypes(), o.getOutFile() + ".distr");
+            else {
+                BufferedWriter out = FileUtils.createOut(o.getOutFile() + ".distr");
+                for (int wordType = 0; wordType < corpus.getNumTypes(); wordType++)
+                    out.write(corpus.getWordString(wordType) + "\t" + best.toString(wordType) + "\n");
+                out.close();
             }
-            out.close();
+        }
+        if (o.averagePosteriors()) {
+            PosteriorCollector posteriors = sampler.getPosteriors();
+            if (npy) BinaryExport.writePosteriors(posteriors, corpus.getNumTypes(), o.getOutFile() + ".posterior");
+            else {
+                BufferedWriter out = FileUtils.createOut(o.getOutFile() + ".posterior");
+                for (int wordType = 0; wordType < corpus.getNumTypes(); wordType++)
+                    out.write(corpus.getWordString(wordType) + "\t" + posteriors.toString(wordType) + "\n");
+                out.close();
+            }
+            System.out.println("Posteriors averaged over " + posteriors.getNumSamples() + " sweeps");
         }
 
 		//Send a notification to android (if configured)
@@ -153,6 +341,93 @@ public class Inducer{
 		return (end - start);
 	}
 
+	private void runChain(int chain, int iters) throws IOException {
+		GibbsSampler chainSampler = chains.get(chain);
+		//Set the parameters for the current run
+		chainSampler.setRunParameters(iters);
+		if (o.getResumeFile() != null)
+			chainSampler.restore(GibbsSampler.chainFile(o.getResumeFile(), chain, chains.size()));
+		chainSampler.gibbs();
+	}
+
+	/**
+	 * Runs all the chains concurrently (one thread each)
+	 * @return The chain with the highest log posterior
+	 */
+	private GibbsSampler runChains(final int iters) throws IOException {
+		System.out.println("Running " + chains.size() + " chains");
+		ExecutorService executor = Executors.newFixedThreadPool(chains.size());
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int chain = 0; chain < chains.size(); chain++) {
+			final int chainIndex = chain;
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					runChain(chainIndex, iters);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Sampling chain failed", e);
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		int best = 0;
+		for (int chain = 0; chain < chains.size(); chain++) {
+			System.out.println("Chain " + chain + " LL: " + chains.get(chain).getBestClassLogP());
+			if (chains.get(chain).getBestClassLogP() > chains.get(best).getBestClassLogP()) best = chain;
+		}
+		System.out.println("Keeping chain " + best);
+		if (o.isChainAgreement()) System.out.println(chainAgreement(best));
+		return chains.get(best);
+	}
+
+	/**
+	 * Compares the (token-level) clusterings of the chains with each other
+	 * @return A summary of the mean pairwise agreement and of the agreement of each chain with the best one
+	 */
+	private String chainAgreement(int best) {
+		int[][] tokenClusters = new int[chains.size()][];
+		for (int chain = 0; chain < chains.size(); chain++)
+			tokenClusters[chain] = tokenClusters(chains.get(chain).getFinalAssignment());
+		double sumVM = 0, sumVI = 0;
+		int numPairs = 0;
+		String summary = "Cross-chain agreement:\n";
+		for (int chain = 0; chain < chains.size(); chain++) {
+			for (int other = chain + 1; other < chains.size(); other++) {
+				Evaluator eval = new Evaluator(tokenClusters[chain], tokenClusters[other]);
+				sumVM += eval.VMeasure()[0];
+				sumVI += eval.VI();
+				numPairs++;
+			}
+			if (chain != best) {
+				Evaluator eval = new Evaluator(tokenClusters[chain], tokenClusters[best]);
+				summary += "Chain " + chain + " vs best:\tVM " + StringUtils.twoDecimal(eval.VMeasure()[0]) +
+						"\tVI " + StringUtils.twoDecimal(eval.VI()) + "\n";
+			}
+		}
+		summary += "Mean pairwise:\tVM " + StringUtils.twoDecimal(sumVM / numPairs) +
+				"\tVI " + StringUtils.twoDecimal(sumVI / numPairs);
+		return summary;
+	}
+
+	/**
+	 * @return The cluster of every token of the corpus, given the cluster of every word type
+	 */
+	private int[] tokenClusters(int[] typeClusters) {
+		int[] clusters = new int[corpus.getNumTokens()];
+		int token = 0;
+		for (int[] sent : corpus.getCorpusProcessedSents())
+			for (int wordType : sent) clusters[token++] = typeClusters[wordType];
+		return clusters;
+	}
+
 	public static void main(String[] args) {
 		try{new Inducer(args);}
 		catch(IOException e){e.printStackTrace();}
@@ -0,0 +1,320 @@
+package tagInducer;
+
+import tagInducer.corpus.Corpus;
+import tagInducer.features.FeatureNames;
+import tagInducer.features.MorfFeatures;
+import tagInducer.features.SparseFeatures;
+import tagInducer.utils.ChannelReader;
+import tagInducer.utils.FileUtils;
+import tagInducer.utils.LogGammaCache;
+import tagInducer.utils.StringCoder;
+import tagInducer.utils.StringUtils;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * A trained model: everything needed to assign clusters to the word types of new text (see {@link Tagger})
+ * without retraining. That is the vocabulary and the cluster of every word type, the feature alphabets
+ * (frequent context words and suffixes), the class counts of the final assignment and the hyperparameters.
+ * <br>
+ * The file is a flat big-endian stream of ints, doubles and length-prefixed UTF-8 strings, read through a
+ * {@link ChannelReader} (as the corpus cache). The vocabulary and the context words are stored as
+ * {@link StringCoder}s, and the feature counts of every class as sparse rows.
+ */
+public class Model {
+	private static final int MAGIC = 0x424d4d44;
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Size of the log-gamma tables of the conditionals */
+	private static final int LOG_GAMMA_CACHE_SIZE = 256;
+
+	/** The pre-processing options of the training corpus */
+	final boolean lowercase, ignorePunct;
+	final boolean extendedMorph;
+	final String[] featTypes;
+	final int[] numFeatures;
+	final int numClasses;
+	final double hyperClass;
+	final double[] hyperFeats;
+	/** The (pre-processed) word types of the training corpus */
+	final StringCoder vocabulary;
+	/** The cluster of every word type of the vocabulary */
+	final int[] typeClusters;
+	/** The frequent (context) words, in the order of their features (null without context features) */
+	final StringCoder contextWords;
+	/** The suffixes, in the order of their features (null without morphological features) */
+	final String[] suffixes;
+	/** The counts of the final assignment (see {@link ClusterCounts}) */
+	final int[] typesPerClass;
+	final int[][][] featuresPerClass;
+	final int[][] sumClassFeatures;
+
+	private final LogGammaCache[] featLogGamma, totLogGamma;
+
+	private Model(boolean lowercase, boolean ignorePunct, boolean extendedMorph, String[] featTypes, int[] numFeatures,
+				  int numClasses, double hyperClass, double[] hyperFeats, StringCoder vocabulary, int[] typeClusters,
+				  StringCoder contextWords, String[] suffixes, int[] typesPerClass, int[][][] featuresPerClass,
+				  int[][] sumClassFeatures) {
+		this.lowercase = lowercase;
+		this.ignorePunct = ignorePunct;
+		this.extendedMorph = extendedMorph;
+		this.featTypes = featTypes;
+		this.numFeatures = numFeatures;
+		this.numClasses = numClasses;
+		this.hyperClass = hyperClass;
+		this.hyperFeats = hyperFeats;
+		this.vocabulary = vocabulary;
+		this.typeClusters = typeClusters;
+		this.contextWords = contextWords;
+		this.suffixes = suffixes;
+		this.typesPerClass = typesPerClass;
+		this.featuresPerClass = featuresPerClass;
+		this.sumClassFeatures = sumClassFeatures;
+		featLogGamma = new LogGammaCache[featTypes.length];
+		totLogGamma = new LogGammaCache[featTypes.length];
+		for (int f = 0; f < featTypes.length; f++) {
+			featLogGamma[f] = new LogGammaCache(hyperFeats[f], LOG_GAMMA_CACHE_SIZE);
+			totLogGamma[f] = new LogGammaCache(numFeatures[f] * hyperFeats[f], LOG_GAMMA_CACHE_SIZE);
+		}
+	}
+
+	/**
+	 * Collects the model of a finished run: the counts of its final assignment and its current hyperparameters
+	 * @param sampler The sampler (after {@link GibbsSampler#gibbs()})
+	 * @param corpus The training corpus
+	 * @param o The configuration object of the run
+	 */
+	public static Model fromSampler(GibbsSampler sampler, Corpus corpus, Options o) throws IOException {
+		String[] featTypes = sampler.getFeatTypes();
+		SparseFeatures[] features = sampler.getFeatures();
+		int[] z = sampler.getFinalAssignment();
+		int numClasses = o.getNumClasses();
+		ClusterCounts counts = new ClusterCounts(features, numClasses);
+		for (int type = 0; type < z.length; type++) counts.add(type, z[type]);
+
+		int[] numFeatures = new int[features.length];
+		for (int f = 0; f < features.length; f++) numFeatures[f] = features[f].getNumFeatures();
+		StringCoder vocabulary = new StringCoder();
+		for (int type = 0; type < corpus.getNumTypes(); type++) vocabulary.encode(corpus.getWordString(type));
+		vocabulary.freeze();
+		StringCoder contextWords = null;
+		if (o.getFeatureTypes().contains(FeatureNames.CONTEXT)) {
+			contextWords = new StringCoder();
+			for (int word : corpus.getFrequentWordList()) contextWords.encode(corpus.getWordString(word));
+			contextWords.freeze();
+		}
+		String[] suffixes = null;
+		if (o.getFeatureTypes().contains(FeatureNames.MORPH)) {
+			// Read in the same order as when the features were extracted
+			List<String> suffixList = new MorfFeatures(null, o.getMorphFile(), o.isExtendedMorph()).getSuffixes();
+			suffixes = suffixList.toArray(new String[suffixList.size()]);
+		}
+		return new Model(o.isLowercase(), o.isIgnorePunct(), o.isExtendedMorph(), featTypes.clone(), numFeatures,
+				numClasses, sampler.getHyperClass(), sampler.getHyperFeats().clone(), vocabulary, z.clone(),
+				contextWords, suffixes, counts.typesPerClass, counts.featuresPerClass, counts.sumClassFeatures);
+	}
+
+	/**
+	 * Process a word the same way as the training corpus (see {@link Corpus#preProcessWord(String)})
+	 */
+	public String preProcessWord(String rawWord) {
+		if (ignorePunct && StringUtils.isPunct(rawWord))
+			return ".";
+		if (lowercase)
+			return rawWord.toLowerCase();
+		return rawWord;
+	}
+
+	/**
+	 * @return Whether the tokens of a word are left unclustered (as the punctuation of the training corpus)
+	 */
+	public boolean isIgnored(String rawWord) {
+		return ignorePunct && StringUtils.isPunct(rawWord);
+	}
+
+	/**
+	 * @return The cluster of a word type of the training corpus, or -1 if the type is unseen
+	 */
+	public int getCluster(String word) {
+		int type = vocabulary.getId(word);
+		return (type < 0) ? -1 : typeClusters[type];
+	}
+
+	/**
+	 * The (unnormalised) log conditional of every cluster for a word type that is not part of the counts
+	 * @param features The features of the word type (one matrix per feature type of the model, in the same order)
+	 * @param logP The log conditionals (output)
+	 */
+	void logConditionals(SparseFeatures[] features, int type, double[] logP) {
+		for (int cluster = 0; cluster < numClasses; cluster++) {
+			double logWeight = Math.log(typesPerClass[cluster] + hyperClass);
+			for (int f = 0; f < features.length; f++) {
+				int[] offsets = features[f].getOffsets();
+				int[] indices = features[f].getIndices();
+				int[] counts = features[f].getCounts();
+				int[] classCounts = featuresPerClass[f][cluster];
+				for (int i = offsets[type]; i < offsets[type + 1]; i++)
+					logWeight += featLogGamma[f].logRising(classCounts[indices[i]], counts[i]);
+				logWeight -= totLogGamma[f].logRising(sumClassFeatures[f][cluster], features[f].getTypeTotal(type));
+			}
+			logP[cluster] = logWeight;
+		}
+	}
+
+	/**
+	 * @return The most probable cluster for a word type that is not part of the counts
+	 * (see {@link #logConditionals(SparseFeatures[], int, double[])})
+	 */
+	int mostProbableCluster(SparseFeatures[] features, int type, double[] scratch) {
+		logConditionals(features, type, scratch);
+		int best = 0;
+		for (int cluster = 1; cluster < numClasses; cluster++)
+			if (scratch[cluster] > scratch[best]) best = cluster;
+		return best;
+	}
+
+	public int getNumClasses() {
+		return numClasses;
+	}
+
+	public int getNumTypes() {
+		return typeClusters.length;
+	}
+
+	/**
+	 * Writes the model (atomically, so that a crash never leaves a truncated model behind)
+	 */
+	public void write(String file) throws IOException {
+		File target = new File(file);
+		File tmp = new File(file + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(lowercase);
+			out.writeBoolean(ignorePunct);
+			out.writeBoolean(extendedMorph);
+			out.writeInt(numClasses);
+			out.writeDouble(hyperClass);
+			out.writeInt(featTypes.length);
+			for (int f = 0; f < featTypes.length; f++) {
+				writeString(out, featTypes[f]);
+				out.writeInt(numFeatures[f]);
+				out.writeDouble(hyperFeats[f]);
+			}
+			vocabulary.write(out);
+			writeInts(out, typeClusters);
+			out.writeBoolean(contextWords != null);
+			if (contextWords != null) contextWords.write(out);
+			out.writeInt((suffixes == null) ? -1 : suffixes.length);
+			if (suffixes != null)
+				for (String suffix : suffixes) writeString(out, suffix);
+			writeInts(out, typesPerClass);
+			for (int f = 0; f < featTypes.length; f++) {
+				writeInts(out, sumClassFeatures[f]);
+				for (int[] classCounts : featuresPerClass[f]) writeSparse(out, classCounts);
+			}
+		}
+		catch (IOException e) {
+			if (!tmp.delete()) tmp.deleteOnExit();
+			throw e;
+		}
+		FileUtils.moveAtomically(tmp, target);
+	}
+
+	/**
+	 * Reads a model written by {@link #write(String)}
+	 */
+	public static Model read(String file) throws IOException {
+		try (ChannelReader in = new ChannelReader(new File(file))) {
+			return read(in, file);
+		}
+	}
+
+	static Model read(ChannelReader in, String file) throws IOException {
+		if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException(file + " is not a (compatible) model file");
+		boolean lowercase = in.getBoolean();
+		boolean ignorePunct = in.getBoolean();
+		boolean extendedMorph = in.getBoolean();
+		int numClasses = in.getInt();
+		double hyperClass = in.getDouble();
+		int numFeatTypes = in.getInt();
+		String[] featTypes = new String[numFeatTypes];
+		int[] numFeatures = new int[numFeatTypes];
+		double[] hyperFeats = new double[numFeatTypes];
+		for (int f = 0; f < numFeatTypes; f++) {
+			featTypes[f] = readString(in);
+			numFeatures[f] = in.getInt();
+			hyperFeats[f] = in.getDouble();
+		}
+		StringCoder vocabulary = StringCoder.read(in);
+		int[] typeClusters = readInts(in);
+		StringCoder contextWords = in.getBoolean() ? StringCoder.read(in) : null;
+		int numSuffixes = in.getInt();
+		String[] suffixes = null;
+		if (numSuffixes >= 0) {
+			suffixes = new String[numSuffixes];
+			for (int i = 0; i < numSuffixes; i++) suffixes[i] = readString(in);
+		}
+		int[] typesPerClass = readInts(in);
+		int[][][] featuresPerClass = new int[numFeatTypes][numClasses][];
+		int[][] sumClassFeatures = new int[numFeatTypes][];
+		for (int f = 0; f < numFeatTypes; f++) {
+			sumClassFeatures[f] = readInts(in);
+			for (int cluster = 0; cluster < numClasses; cluster++)
+				featuresPerClass[f][cluster] = readSparse(in, numFeatures[f]);
+		}
+		return new Model(lowercase, ignorePunct, extendedMorph, featTypes, numFeatures, numClasses, hyperClass,
+				hyperFeats, vocabulary, typeClusters, contextWords, suffixes, typesPerClass, featuresPerClass,
+				sumClassFeatures);
+	}
+
+	private static void writeString(DataOutput out, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ChannelReader in) throws IOException {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeInts(DataOutput out, int[] array) throws IOException {
+		out.writeInt(array.length);
+		for (int value : array) out.writeInt(value);
+	}
+
+	private static int[] readInts(ChannelReader in) throws IOException {
+		int[] array = new int[in.getInt()];
+		in.getInts(array);
+		return array;
+	}
+
+	/**
+	 * Writes the non-zero entries of an array, as the number of entries followed by (index, value) pairs
+	 */
+	private static void writeSparse(DataOutput out, int[] array) throws IOException {
+		int nnz = 0;
+		for (int value : array) if (value != 0) nnz++;
+		out.writeInt(nnz);
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == 0) continue;
+			out.writeInt(i);
+			out.writeInt(array[i]);
+		}
+	}
+
+	private static int[] readSparse(ChannelReader in, int length) throws IOException {
+		int[] array = new int[length];
+		int nnz = in.getInt();
+		for (int entry = 0; entry < nnz; entry++) {
+			int i = in.getInt();
+			array[i] = in.getInt();
+		}
+		return array;
+	}
+}
@@ -13,24 +13,27 @@ import java.util.Properties;
  * @author Christos Christodoulopoulos
  */
 public class Options {
-	private static Properties config = new Properties();
-	protected int numClasses, numContextFeats, numIters, maxLength;
-	protected boolean extendedMorph, ignorePunct, lowercase, undirDeps, generateDistributions;
-	protected String morphFile, pargFeatType, jsonFileName, outFile, apiKeyFile;
+	protected int numClasses, numContextFeats, numIters, maxLength, numThreads, featureThreads, numChains, checkpointInterval, convergenceWindow, mhSteps, aliasRebuild,
+			distrTopK, posteriorBurnIn, posteriorThinning, posteriorTopK;
+	protected long seed;
+	protected double convergenceTol, convergenceChangeRate;
+	protected boolean extendedMorph, ignorePunct, lowercase, undirDeps, generateDistributions, jmx, chainAgreement,
+			averagePosteriors;
+	protected String morphFile, pargFeatType, jsonFileName, outFile, apiKeyFile, checkpointFile, resumeFile, cacheDir, telemetryFile, sampler, modelFile,
+			outputFormat;
 	protected List<String> featureTypes = new ArrayList<>();
 	
 	public Options(){}
 
 	public Options(String configFile){
+		this(load(configFile));
+	}
+
+	/**
+	 * @param config The configuration properties (with the same keys as the configuration file)
+	 */
+	public Options(Properties config){
 		String temp;
-		try {
-			FileInputStream in = new FileInputStream(configFile);
-			config.load(in); 
-		}
-		catch (IOException  e) {
-			System.err.println("Cannot read configuration file " + configFile);
-			System.exit(1);
-		}
 		outFile = config.getProperty("OUT_FILE");
 		jsonFileName = config.getProperty("CORPUS");
 		numClasses = Integer.parseInt(config.getProperty("NUM_CLUSTERS"));
@@ -68,8 +71,73 @@ public class Options {
 
         // Whether to generate a per-class distribution for each type
         generateDistributions = Boolean.parseBoolean(config.getProperty("GENERATE_DISTR", "false"));
+        // Number of most probable classes kept per type (default = 0, all the classes)
+        distrTopK = Integer.parseInt(config.getProperty("DISTR_TOP_K", "0"));
+        // Format of the distributions (and class counts): 'text' or 'npy' (NumPy arrays, with a vocabulary file)
+        outputFormat = config.getProperty("OUTPUT_FORMAT", "text");
+        // Whether to average the posterior class distributions of each type over the sweeps after a burn-in
+        // (0 = the annealing phase), every POSTERIOR_THIN sweeps, keeping the POSTERIOR_TOP_K most probable classes
+        averagePosteriors = Boolean.parseBoolean(config.getProperty("POSTERIOR", "false"));
+        posteriorBurnIn = Integer.parseInt(config.getProperty("POSTERIOR_BURN_IN", "0"));
+        posteriorThinning = Integer.parseInt(config.getProperty("POSTERIOR_THIN", "5"));
+        posteriorTopK = Integer.parseInt(config.getProperty("POSTERIOR_TOP_K", "10"));
+
+		// Number of threads for (approximate) parallel sampling sweeps (default = 1, exact sampling)
+		numThreads = Integer.parseInt(config.getProperty("NUM_THREADS", "1"));
+		// Number of threads for the feature extraction (default = 0, every available processor)
+		featureThreads = Integer.parseInt(config.getProperty("FEATURE_THREADS", "0"));
+
+		// Cluster sampler: 'dense' (every cluster for every type), 'sparse' (bucketed, for large numbers of clusters)
+		// or 'alias' (Metropolis-Hastings with stale alias tables, for very large numbers of clusters)
+		sampler = config.getProperty("SAMPLER", "dense");
+		// Alias sampler: MH steps per type, and word types sampled between rebuilds of the tables (0 = every sweep)
+		mhSteps = Integer.parseInt(config.getProperty("MH_STEPS", "2"));
+		aliasRebuild = Integer.parseInt(config.getProperty("ALIAS_REBUILD", "0"));
+
+		// Number of independent chains, run concurrently over the same features (default = 1); the best one is kept
+		numChains = Integer.parseInt(config.getProperty("NUM_CHAINS", "1"));
+		chainAgreement = Boolean.parseBoolean(config.getProperty("CHAIN_AGREEMENT", "false"));
+
+		// Random seed (a fixed seed gives identical reruns; default = a new seed for every run)
+		temp = config.getProperty("SEED");
+		seed = (temp != null) ? Long.parseLong(temp) : System.nanoTime();
+
+		// Checkpointing (default = no checkpoints; the file defaults to the output file + .ckpt)
+		checkpointInterval = Integer.parseInt(config.getProperty("CHECKPOINT_INTERVAL", "0"));
+		checkpointFile = config.getProperty("CHECKPOINT_FILE");
+		resumeFile = config.getProperty("RESUME");
+
+		// Early stopping once converged after the annealing phase (default = always run all the iterations)
+		convergenceTol = Double.parseDouble(config.getProperty("CONVERGENCE_TOL", "0"));
+		convergenceChangeRate = Double.parseDouble(config.getProperty("CONVERGENCE_CHANGE_RATE", "0"));
+		convergenceWindow = Integer.parseInt(config.getProperty("CONVERGENCE_WINDOW", "25"));
+
+		// Directory for the compiled corpus/feature caches (default = no caching)
+		cacheDir = config.getProperty("CORPUS_CACHE");
+
+		// The model file: written after sampling, and read by the Tagger (default = no model is written)
+		modelFile = config.getProperty("MODEL_FILE");
+
+		// Sampler telemetry: per-iteration statistics as JSON lines and/or a JMX MBean (default = neither)
+		telemetryFile = config.getProperty("TELEMETRY_FILE");
+		jmx = Boolean.parseBoolean(config.getProperty("JMX", "false"));
 	}
 	
+	/**
+	 * Reads a configuration file (exits if it cannot be read)
+	 */
+	public static Properties load(String configFile) {
+		Properties config = new Properties();
+		try (FileInputStream in = new FileInputStream(configFile)) {
+			config.load(in);
+		}
+		catch (IOException  e) {
+			System.err.println("Cannot read configuration file " + configFile);
+			System.exit(1);
+		}
+		return config;
+	}
+
 	public int getNumClasses() {return numClasses;}
 	public int getNumContextFeats() {return numContextFeats;}
 	public boolean isExtendedMorph() {return extendedMorph;}
@@ -85,6 +153,30 @@ public class Options {
 	public String getAPIKeyFile(){return apiKeyFile;}
     public int getMaxLength() {return maxLength;}
     public boolean generateDistributions() {return generateDistributions;}
+    public int getDistrTopK() {return distrTopK;}
+    public boolean averagePosteriors() {return averagePosteriors;}
+    public String getOutputFormat() {return outputFormat;}
+    public int getPosteriorBurnIn() {return posteriorBurnIn;}
+    public int getPosteriorThinning() {return posteriorThinning;}
+    public int getPosteriorTopK() {return posteriorTopK;}
+	public int getNumThreads() {return numThreads;}
+	public int getFeatureThreads() {return featureThreads;}
+	public int getNumChains() {return numChains;}
+	public String getSampler() {return sampler;}
+	public String getModelFile() {return modelFile;}
+	public int getMHSteps() {return mhSteps;}
+	public int getAliasRebuild() {return aliasRebuild;}
+	public boolean isChainAgreement() {return chainAgreement;}
+	public long getSeed() {return seed;}
+	public int getCheckpointInterval() {return checkpointInterval;}
+	public String getCheckpointFile() {return (checkpointFile != null) ? checkpointFile : outFile + ".ckpt";}
+	public String getResumeFile() {return resumeFile;}
+	public String getCacheDir() {return cacheDir;}
+	public double getConvergenceTol() {return convergenceTol;}
+	public double getConvergenceChangeRate() {return convergenceChangeRate;}
+	public int getConvergenceWindow() {return convergenceWindow;}
+	public String getTelemetryFile() {return telemetryFile;}
+	public boolean isJMX() {return jmx;}
 
     public void setLowercase(boolean lowercase) {
 		this.lowercase = lowercase;
@@ -114,6 +206,48 @@ public class Options {
 		str += "\n";
 		str += "Num Classes:\t"+numClasses;
 		str += "\n";
+		str += "Num Threads:\t"+numThreads;
+		str += "\n";
+		str += "Sampler:\t"+sampler;
+		str += "\n";
+		if (sampler.equals("alias")) {
+			str += "MH Steps:\t" + mhSteps + " (tables rebuilt every " +
+					((aliasRebuild > 0) ? aliasRebuild + " types" : "sweep") + ")";
+			str += "\n";
+		}
+		if (numChains > 1) {
+			str += "Num Chains:\t" + numChains;
+			str += "\n";
+		}
+		str += "Random Seed:\t"+seed;
+		str += "\n";
+		if (checkpointInterval > 0) {
+			str += "Checkpoint:\tevery " + checkpointInterval + " iters to " + getCheckpointFile();
+			str += "\n";
+		}
+		if (convergenceTol > 0 || convergenceChangeRate > 0) {
+			str += "Early Stopping:\t";
+			if (convergenceTol > 0) str += "log posterior change < " + convergenceTol + " ";
+			if (convergenceChangeRate > 0) str += "changed types < " + convergenceChangeRate + " ";
+			str += "over " + convergenceWindow + " iters";
+			str += "\n";
+		}
+		if (cacheDir != null) {
+			str += "Corpus Cache:\t" + cacheDir;
+			str += "\n";
+		}
+		if (modelFile != null) {
+			str += "Model File:\t" + modelFile;
+			str += "\n";
+		}
+		if (resumeFile != null) {
+			str += "Resuming from:\t" + resumeFile;
+			str += "\n";
+		}
+		if (telemetryFile != null) {
+			str += "Telemetry:\t" + telemetryFile;
+			str += "\n";
+		}
         str += "Max Sent. Length:\t" + ((maxLength == Integer.MAX_VALUE)? "Infinity": maxLength);
         str += "\n";
 		str += "Ignore Punct.:\t"+ignorePunct;
@@ -121,7 +255,16 @@ public class Options {
 		str += "Lowercasing:\t"+lowercase;
 		str += "\n";
         if (generateDistributions) {
-            str += "Generating per-type class distributions";
+            str += "Generating per-type class distributions" + ((distrTopK > 0) ? " (top " + distrTopK + ")" : "");
+            str += "\n";
+        }
+        if (outputFormat.equals("npy")) {
+            str += "Output format:\tnpy";
+            str += "\n";
+        }
+        if (averagePosteriors) {
+            str += "Averaged posteriors:\tburn-in " + ((posteriorBurnIn > 0) ? posteriorBurnIn : "annealing") +
+                    ", thinning " + posteriorThinning + ", top " + posteriorTopK;
             str += "\n";
         }
 		if (featureTypes.contains(FeatureNames.CONTEXT)) {
@@ -26,6 +26,60 @@ public class OptionsCmdLine extends Options{
 				case "-classes":
 					if (!checkNext(args, i)) numClasses = Integer.parseInt(args[++i]);
 					break;
+				case "-threads":
+					if (!checkNext(args, i)) numThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-feature-threads":
+					if (!checkNext(args, i)) featureThreads = Integer.parseInt(args[++i]);
+					break;
+				case "-sampler":
+					if (!checkNext(args, i)) sampler = args[++i];
+					break;
+				case "-mh-steps":
+					if (!checkNext(args, i)) mhSteps = Integer.parseInt(args[++i]);
+					break;
+				case "-alias-rebuild":
+					if (!checkNext(args, i)) aliasRebuild = Integer.parseInt(args[++i]);
+					break;
+				case "-chains":
+					if (!checkNext(args, i)) numChains = Integer.parseInt(args[++i]);
+					break;
+				case "-chain-agreement":
+					chainAgreement = true;
+					break;
+				case "-seed":
+					if (!checkNext(args, i)) seed = Long.parseLong(args[++i]);
+					break;
+				case "-checkpoint":
+					if (!checkNext(args, i)) checkpointInterval = Integer.parseInt(args[++i]);
+					break;
+				case "-checkpoint-file":
+					if (!checkNext(args, i)) checkpointFile = args[++i];
+					break;
+				case "-cache":
+					if (!checkNext(args, i)) cacheDir = args[++i];
+					break;
+				case "-resume":
+					if (!checkNext(args, i)) resumeFile = args[++i];
+					break;
+				case "-converge-tol":
+					if (!checkNext(args, i)) convergenceTol = Double.parseDouble(args[++i]);
+					break;
+				case "-converge-changes":
+					if (!checkNext(args, i)) convergenceChangeRate = Double.parseDouble(args[++i]);
+					break;
+				case "-converge-window":
+					if (!checkNext(args, i)) convergenceWindow = Integer.parseInt(args[++i]);
+					break;
+				case "-model":
+					if (!checkNext(args, i)) modelFile = args[++i];
+					break;
+				case "-telemetry":
+					if (!checkNext(args, i)) telemetryFile = args[++i];
+					break;
+				case "-jmx":
+					jmx = true;
+					break;
                 case "-maxLength":
                     if (!checkNext(args, i)) maxLength = Integer.parseInt(args[++i]);
                     break;
@@ -58,6 +112,24 @@ public class OptionsCmdLine extends Options{
 					break;
                 case "-genDistr":
                     generateDistributions = true;
+                    break;
+                case "-distr-topk":
+                    if (!checkNext(args, i)) distrTopK = Integer.parseInt(args[++i]);
+                    break;
+                case "-output-format":
+                    if (!checkNext(args, i)) outputFormat = args[++i];
+                    break;
+                case "-posterior":
+                    averagePosteriors = true;
+                    break;
+                case "-posterior-burnin":
+                    if (!checkNext(args, i)) posteriorBurnIn = Integer.parseInt(args[++i]);
+                    break;
+                case "-posterior-thin":
+                    if (!checkNext(args, i)) posteriorThinning = Integer.parseInt(args[++i]);
+                    break;
+                case "-posterior-topk":
+                    if (!checkNext(args, i)) posteriorTopK = Integer.parseInt(args[++i]);
                     break;
 				case "-api-key":
 					if (!checkNext(args, i)) apiKeyFile = args[++i];
@@ -70,6 +142,20 @@ public class OptionsCmdLine extends Options{
 		numClasses = 45;
 		numContextFeats = 100;
 		numIters = 500;
+		numThreads = 1;
+		featureThreads = 0;
+		numChains = 1;
+		sampler = "dense";
+		mhSteps = 2;
+		aliasRebuild = 0;
+		distrTopK = 0;
+		outputFormat = "text";
+		posteriorBurnIn = 0;
+		posteriorThinning = 5;
+		posteriorTopK = 10;
+		seed = System.nanoTime();
+		checkpointInterval = 0;
+		convergenceWindow = 25;
 		ignorePunct = false;
 		lowercase = false;
 		undirDeps = false;
@@ -95,6 +181,42 @@ public class OptionsCmdLine extends Options{
 		usage += "\n\t";
 		usage += "-classes <num>:\tNumber of classes (default=45)";
 		usage += "\n\t";
+		usage += "-threads <num>:\tSample in parallel (approximate AD-LDA style sweeps) with this many threads (default=1)";
+		usage += "\n\t";
+		usage += "-feature-threads <num>:\tExtract the features with this many threads (default=0, all the processors)";
+		usage += "\n\t";
+		usage += "-sampler <dense|sparse|alias>:\tSample every cluster (dense), only the clusters sharing features with a type plus a cached smoothing bucket (sparse, faster for many classes) or with Metropolis-Hastings proposals from stale alias tables (alias, for very many classes) (default=dense)";
+		usage += "\n\t";
+		usage += "-mh-steps <num>:\tNumber of Metropolis-Hastings steps per word type of the alias sampler (default=2)";
+		usage += "\n\t";
+		usage += "-alias-rebuild <num>:\tRebuild the alias tables after this many word types (default=0, every sweep)";
+		usage += "\n\t";
+		usage += "-chains <num>:\tRun this many independent chains concurrently and keep the best one (default=1)";
+		usage += "\n\t";
+		usage += "-chain-agreement:\tReport the agreement (VM, VI) between the chains";
+		usage += "\n\t";
+		usage += "-seed <num>:\tRandom seed, for reproducible runs (default=random)";
+		usage += "\n\t";
+		usage += "-checkpoint <num>:\tSave the sampler state every <num> iterations (default=0, never)";
+		usage += "\n\t";
+		usage += "-checkpoint-file <file>:\tThe checkpoint file (default=<out>.ckpt)";
+		usage += "\n\t";
+		usage += "-resume <file>:\tResume an interrupted run from a checkpoint (use the same corpus and options)";
+		usage += "\n\t";
+		usage += "-model <file>:\tWrite the model (vocabulary, feature alphabets, class counts and hyperparameters) to this file, for the Tagger";
+		usage += "\n\t";
+		usage += "-cache <dir>:\tStore/load the pre-processed corpus and features in this directory (default=no caching)";
+		usage += "\n\t";
+		usage += "-converge-tol <num>:\tStop early when the relative change of the log posterior over a window is below <num> (default=0, never)";
+		usage += "\n\t";
+		usage += "-converge-changes <num>:\tStop early when the mean fraction of types changing cluster over a window is below <num> (default=0, never)";
+		usage += "\n\t";
+		usage += "-converge-window <num>:\tThe window (in iterations) of the early stopping criteria (default=25)";
+		usage += "\n\t";
+		usage += "-telemetry <file>:\tWrite per-iteration sampler statistics to this file (as JSON lines)";
+		usage += "\n\t";
+		usage += "-jmx:\tExpose the live sampler statistics as a JMX MBean (default=false)";
+		usage += "\n\t";
 		usage += "-ignorePunct:\tUse cluster ID -1 for all punctuation marks (default=false)";
 		usage += "\n\t";
 		usage += "-lowercase:\tLowercase the word types to be clustered, but not the actual corpus (default=false)";
@@ -120,6 +242,15 @@ public class OptionsCmdLine extends Options{
 		usage += "-noContext:\tDo *not* use context features";
 		usage += "\n\t";
         usage += "-genDistr:\tGenerate the distributions over classes for each type";
+        usage += "\n\t";
+        usage += "[-distr-topk <k>:\tOnly keep the k most probable classes of each type (default=0, all)]";
+        usage += "\n\t";
+        usage += "[-output-format <text|npy>:\tWrite the distributions and class counts as NumPy arrays (default=text)]";
+        usage += "\n\t";
+        usage += "-posterior:\tAverage the posterior class distributions of each type over the sweeps after the burn-in";
+        usage += "\n\t";
+        usage += "[-posterior-burnin <n> -posterior-thin <n> -posterior-topk <k>:\tBurn-in (default=0, the annealing phase), " +
+                "thinning (default=5) and classes kept per type (default=10)]";
         usage += "\n\t";
 		return usage;
 	}
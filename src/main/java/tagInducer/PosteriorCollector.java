@@ -0,0 +1,135 @@
+package tagInducer;
+
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of the posterior cluster distribution of every word type, averaged over the sweeps of a run.
+ * Each collected sweep adds the normalised conditional p(z_t = k | z_-t) of every type, as computed when the type
+ * is sampled (a Rao-Blackwellised estimate, with a lower variance than counting the sampled clusters).
+ * <br>
+ * Only the <code>topK</code> clusters with the largest accumulated mass are kept per type, in flat arrays of
+ * <code>topK</code> slots per type. A cluster that is not stored takes the slot with the smallest mass once its
+ * probability in a single sweep exceeds that mass, so the stored masses are lower bounds for clusters that enter
+ * (or leave) the top-k during the run. Different types can be added concurrently.
+ */
+class PosteriorCollector {
+	private final int topK;
+	/** The cluster of every slot (-1 for empty slots, which always follow the full ones) */
+	private int[] classes;
+	/** The accumulated probability of every slot */
+	private float[] mass;
+	/** Number of collected sweeps */
+	private int numSamples;
+
+	PosteriorCollector(int numTypes, int topK) {
+		this.topK = topK;
+		classes = new int[numTypes * topK];
+		mass = new float[numTypes * topK];
+		Arrays.fill(classes, -1);
+	}
+
+	/**
+	 * Adds the conditional distribution of a type in the current sweep
+	 * @param logP The (unnormalised) log probability of every cluster
+	 */
+	void add(int type, double[] logP) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double lp : logP) if (lp > max) max = lp;
+		double total = 0;
+		for (double lp : logP) total += Math.exp(lp - max);
+
+		int offset = type * topK;
+		for (int cluster = 0; cluster < logP.length; cluster++) {
+			float p = (float) (Math.exp(logP[cluster] - max) / total);
+			int slot = -1, min = offset;
+			for (int i = offset; i < offset + topK; i++) {
+				if (classes[i] == cluster || classes[i] < 0) {
+					slot = i;
+					break;
+				}
+				if (mass[i] < mass[min]) min = i;
+			}
+			if (slot < 0) {
+				//Replace the smallest slot
+				if (p <= mass[min]) continue;
+				slot = min;
+				mass[slot] = 0;
+			}
+			classes[slot] = cluster;
+			mass[slot] += p;
+		}
+	}
+
+	/**
+	 * Marks the end of a collected sweep
+	 */
+	void sampleDone() {
+		numSamples++;
+	}
+
+	int getNumSamples() {
+		return numSamples;
+	}
+
+	int getTopK() {
+		return topK;
+	}
+
+	int[] getClasses() {
+		return classes;
+	}
+
+	float[] getMass() {
+		return mass;
+	}
+
+	/**
+	 * Sets the collected statistics from a checkpoint
+	 */
+	void restore(int numSamples, int[] classes, float[] mass) {
+		this.numSamples = numSamples;
+		this.classes = classes;
+		this.mass = mass;
+	}
+
+	/**
+	 * Copies the estimated posterior of a type, most probable cluster first
+	 * @param clusters The clusters (output, of size topK; -1 after the stored clusters)
+	 * @param probabilities Their probabilities (output, of size topK; 0 after the stored clusters)
+	 * @return Number of stored clusters
+	 */
+	int getPosterior(int type, int[] clusters, float[] probabilities) {
+		int offset = type * topK;
+		int size = 0;
+		for (; size < topK && classes[offset + size] >= 0; size++) {
+			float p = mass[offset + size] / Math.max(1, numSamples);
+			//Insertion into the sorted prefix
+			int i = size;
+			while (i > 0 && probabilities[i - 1] < p) {
+				clusters[i] = clusters[i - 1];
+				probabilities[i] = probabilities[i - 1];
+				i--;
+			}
+			clusters[i] = classes[offset + size];
+			probabilities[i] = p;
+		}
+		Arrays.fill(clusters, size, topK, -1);
+		Arrays.fill(probabilities, size, topK, 0);
+		return size;
+	}
+
+	/**
+	 * @return The estimated posterior of a type as <code>cluster:probability</code> pairs, most probable first
+	 */
+	String toString(int type) {
+		int[] clusters = new int[topK];
+		float[] probabilities = new float[topK];
+		int size = getPosterior(type, clusters, probabilities);
+		StringBuilder str = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (i > 0) str.append(", ");
+			str.append(clusters[i]).append(':').append(probabilities[i]);
+		}
+		return str.toString();
+	}
+}
@@ -0,0 +1,172 @@
+package tagInducer;
+
+import tagInducer.utils.FileUtils;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A snapshot of the sampler state, from which a long run can be resumed exactly:
+ * the assignments, the best model found so far, the averaged posteriors, the hyperparameters, the state of every random
+ * stream and the number of completed iterations (which, with the iteration at which the run converged,
+ * fixes the position in the annealing schedule).
+ * The count tables are not stored since they are rebuilt from the assignments.
+ * <br>
+ * The file is a gzipped binary stream; the assignments are written as variable-length ints.
+ */
+class SamplerCheckpoint {
+	private static final int MAGIC = 0x424d434b;
+	private static final int VERSION = 4;
+
+	int numTypes, numClasses, iterations;
+	/** Number of completed iterations */
+	int iteration;
+	String[] featTypes;
+	double hyperClass;
+	double[] hyperFeats;
+	double bestClassLogP;
+	/** The iteration at which the run converged (0 = not converged) */
+	int convergedIter;
+	/** The log posterior and fraction of changed types of every completed iteration (for early stopping) */
+	double[] logPosteriors, changeRates;
+	int[] z, bestZ;
+	/** The state of the main random stream */
+	long[] randomState;
+	/** The state of the random stream of each parallel worker (empty for sequential runs) */
+	long[][] workerRandomStates;
+	/** The best (log) class distributions, distrWidth per type (only if the sampler generates them) */
+	float[] bestDistributions;
+	int distrWidth;
+	/** The classes of the best distributions (only if the top-k classes are stored) */
+	int[] bestClasses;
+	/** The averaged posteriors: number of collected sweeps, and topK slots of classes and mass per type */
+	int posteriorSamples, posteriorTopK;
+	int[] posteriorClasses;
+	float[] posteriorMass;
+
+	/**
+	 * Writes the checkpoint to a temporary file which then replaces the target file,
+	 * so that a crash while writing never leaves a truncated checkpoint behind.
+	 */
+	void write(String file) throws IOException {
+		File target = new File(file);
+		File tmp = new File(file + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(tmp), 1 << 16)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numTypes);
+			out.writeInt(numClasses);
+			out.writeInt(iterations);
+			out.writeInt(iteration);
+			out.writeInt(featTypes.length);
+			for (int f = 0; f < featTypes.length; f++) {
+				out.writeUTF(featTypes[f]);
+				out.writeDouble(hyperFeats[f]);
+			}
+			out.writeDouble(hyperClass);
+			out.writeDouble(bestClassLogP);
+			out.writeInt(convergedIter);
+			for (int i = 0; i <= iteration; i++) {
+				out.writeDouble(logPosteriors[i]);
+				out.writeDouble(changeRates[i]);
+			}
+			writeState(out, randomState);
+			out.writeInt(workerRandomStates.length);
+			for (long[] state : workerRandomStates) writeState(out, state);
+			writeAssignment(out, z);
+			out.writeBoolean(bestZ != null);
+			if (bestZ != null) writeAssignment(out, bestZ);
+			out.writeBoolean(bestDistributions != null);
+			if (bestDistributions != null) {
+				out.writeInt(distrWidth);
+				out.writeBoolean(bestClasses != null);
+				if (bestClasses != null) writeAssignment(out, bestClasses);
+				for (float p : bestDistributions) out.writeFloat(p);
+			}
+			out.writeBoolean(posteriorClasses != null);
+			if (posteriorClasses != null) {
+				out.writeInt(posteriorTopK);
+				out.writeInt(posteriorSamples);
+				//Empty slots (-1) are shifted to be written as variable-length ints
+				for (int cluster : posteriorClasses) FileUtils.writeVarInt(out, cluster + 1);
+				for (float mass : posteriorMass) out.writeFloat(mass);
+			}
+		}
+		FileUtils.moveAtomically(tmp, target);
+	}
+
+	static SamplerCheckpoint read(String file) throws IOException {
+		SamplerCheckpoint checkpoint = new SamplerCheckpoint();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file), 1 << 16)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(file + " is not a (compatible) sampler checkpoint");
+			checkpoint.numTypes = in.readInt();
+			checkpoint.numClasses = in.readInt();
+			checkpoint.iterations = in.readInt();
+			checkpoint.iteration = in.readInt();
+			int numFeatTypes = in.readInt();
+			checkpoint.featTypes = new String[numFeatTypes];
+			checkpoint.hyperFeats = new double[numFeatTypes];
+			for (int f = 0; f < numFeatTypes; f++) {
+				checkpoint.featTypes[f] = in.readUTF();
+				checkpoint.hyperFeats[f] = in.readDouble();
+			}
+			checkpoint.hyperClass = in.readDouble();
+			checkpoint.bestClassLogP = in.readDouble();
+			checkpoint.convergedIter = in.readInt();
+			checkpoint.logPosteriors = new double[checkpoint.iteration + 1];
+			checkpoint.changeRates = new double[checkpoint.iteration + 1];
+			for (int i = 0; i <= checkpoint.iteration; i++) {
+				checkpoint.logPosteriors[i] = in.readDouble();
+				checkpoint.changeRates[i] = in.readDouble();
+			}
+			checkpoint.randomState = readState(in);
+			checkpoint.workerRandomStates = new long[in.readInt()][];
+			for (int i = 0; i < checkpoint.workerRandomStates.length; i++)
+				checkpoint.workerRandomStates[i] = readState(in);
+			checkpoint.z = readAssignment(in, checkpoint.numTypes);
+			if (in.readBoolean()) checkpoint.bestZ = readAssignment(in, checkpoint.numTypes);
+			if (in.readBoolean()) {
+				checkpoint.distrWidth = in.readInt();
+				int size = checkpoint.numTypes * checkpoint.distrWidth;
+				if (in.readBoolean()) checkpoint.bestClasses = readAssignment(in, size);
+				checkpoint.bestDistributions = new float[size];
+				for (int i = 0; i < size; i++) checkpoint.bestDistributions[i] = in.readFloat();
+			}
+			if (in.readBoolean()) {
+				checkpoint.posteriorTopK = in.readInt();
+				checkpoint.posteriorSamples = in.readInt();
+				int size = checkpoint.numTypes * checkpoint.posteriorTopK;
+				checkpoint.posteriorClasses = new int[size];
+				checkpoint.posteriorMass = new float[size];
+				for (int i = 0; i < size; i++) checkpoint.posteriorClasses[i] = FileUtils.readVarInt(in) - 1;
+				for (int i = 0; i < size; i++) checkpoint.posteriorMass[i] = in.readFloat();
+			}
+		}
+		return checkpoint;
+	}
+
+	private static void writeState(DataOutput out, long[] state) throws IOException {
+		out.writeInt(state.length);
+		for (long word : state) out.writeLong(word);
+	}
+
+	private static long[] readState(DataInput in) throws IOException {
+		long[] state = new long[in.readInt()];
+		for (int i = 0; i < state.length; i++) state[i] = in.readLong();
+		return state;
+	}
+
+	private static void writeAssignment(DataOutput out, int[] assignment) throws IOException {
+		for (int cluster : assignment) FileUtils.writeVarInt(out, cluster);
+	}
+
+	private static int[] readAssignment(DataInput in, int numTypes) throws IOException {
+		int[] assignment = new int[numTypes];
+		for (int type = 0; type < numTypes; type++) assignment[type] = FileUtils.readVarInt(in);
+		return assignment;
+	}
+}
@@ -0,0 +1,234 @@
+package tagInducer;
+
+import tagInducer.corpus.CCGJSONCorpus;
+import tagInducer.corpus.Corpus;
+import tagInducer.corpus.CorpusCache;
+import tagInducer.features.FeatureNames;
+import tagInducer.features.SparseFeatures;
+import tagInducer.utils.FileUtils;
+import tagInducer.utils.StringUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a grid of sampler configurations in a single JVM, reading every corpus once and extracting the
+ * features once per distinct feature setting, and writes one tab-separated result row per configuration.
+ * <br>
+ * The configuration file has the same keys as the inducer's, plus:
+ * <ul>
+ *     <li><code>SWEEP.&lt;KEY&gt; v1 | v2 | ...</code>: the values of a swept option
+ *     (the grid is the cartesian product of all the swept options)</li>
+ *     <li><code>SWEEP_THREADS</code>: number of configurations sampled concurrently (default = 1)</li>
+ *     <li><code>SWEEP_OUT</code>: the results file (default = sweep.tsv)</li>
+ * </ul>
+ * Checkpoints, telemetry and multiple chains are disabled for the swept runs, and no tagged output is written.
+ */
+public class Sweep {
+	private static final String SWEEP_PREFIX = "SWEEP.";
+
+	private final Properties base;
+	private final List<String> sweptKeys = new ArrayList<>();
+	private final List<String[]> sweptValues = new ArrayList<>();
+	private final int numThreads;
+	private final String outFile;
+
+	/** The corpora by pre-processing setting (see {@link #corpusKey(Options)}) */
+	private final Map<String, Corpus> corpora = new HashMap<>();
+	/** The feature matrices by feature setting (see {@link #featuresKey(Options)}) */
+	private final Map<String, Map<String, SparseFeatures>> features = new HashMap<>();
+
+	private BufferedWriter out;
+
+	/**
+	 * @param config The sweep configuration (see above)
+	 */
+	public Sweep(Properties config) {
+		base = new Properties();
+		// Sorted, so the columns (and the grid order) do not depend on the hashing of the keys
+		for (String key : new TreeSet<>(config.stringPropertyNames())) {
+			if (key.startsWith(SWEEP_PREFIX)) {
+				sweptKeys.add(key.substring(SWEEP_PREFIX.length()));
+				sweptValues.add(config.getProperty(key).trim().split("\\s*\\|\\s*"));
+			}
+			else base.setProperty(key, config.getProperty(key));
+		}
+		numThreads = Integer.parseInt(base.getProperty("SWEEP_THREADS", "1"));
+		outFile = base.getProperty("SWEEP_OUT", "sweep.tsv");
+		// Settings that make no sense for concurrent runs sharing the output
+		base.setProperty("CHECKPOINT_INTERVAL", "0");
+		base.setProperty("NUM_CHAINS", "1");
+		base.setProperty("JMX", "false");
+		base.remove("RESUME");
+		base.remove("TELEMETRY_FILE");
+	}
+
+	/**
+	 * @return The configuration of every point of the grid (the base configuration plus the swept values)
+	 */
+	public List<Properties> configurations() {
+		List<Properties> configs = new ArrayList<>();
+		int[] index = new int[sweptKeys.size()];
+		while (true) {
+			Properties config = new Properties();
+			config.putAll(base);
+			for (int k = 0; k < index.length; k++) config.setProperty(sweptKeys.get(k), sweptValues.get(k)[index[k]]);
+			configs.add(config);
+			// Advance the (last key fastest) odometer
+			int k = index.length - 1;
+			while (k >= 0 && ++index[k] == sweptValues.get(k).length) index[k--] = 0;
+			if (k < 0) return configs;
+		}
+	}
+
+	/**
+	 * Extracts the features of every configuration and then samples the configurations concurrently
+	 */
+	public void run() throws IOException {
+		List<Properties> configs = configurations();
+		final List<Options> options = new ArrayList<>();
+		for (Properties config : configs) options.add(new Options(config));
+		System.out.println("Sweeping " + options.size() + " configurations of " + sweptKeys);
+
+		for (Options o : options) {
+			String key = featuresKey(o);
+			if (!features.containsKey(key)) {
+				System.out.println("Extracting features: " + key);
+				features.put(key, Inducer.extractFeatures(corpus(o), o));
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+		try {
+			out = FileUtils.createOut(outFile);
+			String header = "id";
+			for (String key : sweptKeys) header += "\t" + key;
+			header += "\tM-1\tVI\tVM\tVM-H\tVM-C\tLL\ttime_ms\tpeak_heap_mb";
+			writeRow(header);
+
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int id = 0; id < options.size(); id++) {
+				final int configId = id;
+				final Properties config = configs.get(id);
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						try {
+							writeRow(runConfiguration(configId, config, options.get(configId)));
+						}
+						catch (Exception e) {
+							System.err.println("Configuration " + configId + " failed: " + e);
+							e.printStackTrace();
+						}
+						return null;
+					}
+				});
+			}
+			for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+		}
+		catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Sweep failed", e);
+		}
+		finally {
+			executor.shutdown();
+			if (out != null) out.close();
+		}
+		System.out.println("Results written to " + outFile);
+	}
+
+	/**
+	 * Samples a single configuration
+	 * @return The result row of the configuration
+	 */
+	private String runConfiguration(int id, Properties config, Options o) throws IOException {
+		Corpus corpus = corpus(o);
+		long start = System.currentTimeMillis();
+		GibbsSampler sampler = new GibbsSampler(features.get(featuresKey(o)), corpus.getNumTypes(), o);
+		sampler.setLogPrefix("Config " + id + ": ");
+		sampler.initialise(o.getNumClasses());
+		sampler.setRunParameters(o.getIters());
+		sampler.gibbs();
+		long runTime = System.currentTimeMillis() - start;
+
+		String row = Integer.toString(id);
+		for (String key : sweptKeys) row += "\t" + config.getProperty(key);
+		if (corpus.hasTags()) {
+			Evaluator eval = new Evaluator(corpus, corpus.tokenClusters(sampler.getFinalAssignment()));
+			double[] vm = eval.VMeasure();
+			row += "\t" + StringUtils.twoDecimal(eval.manyToOne()) + "\t" + StringUtils.twoDecimal(eval.VI()) +
+					"\t" + StringUtils.twoDecimal(vm[0]) + "\t" + StringUtils.twoDecimal(vm[1]) +
+					"\t" + StringUtils.twoDecimal(vm[2]);
+		}
+		else row += "\t\t\t\t\t";
+		row += "\t" + sampler.getBestClassLogP() + "\t" + runTime + "\t" + peakHeapMB();
+		return row;
+	}
+
+	private synchronized void writeRow(String row) throws IOException {
+		out.write(row + "\n");
+		out.flush();
+	}
+
+	/**
+	 * @return The corpus of a configuration (read on first use and shared by every configuration
+	 * with the same pre-processing), viewed with the configuration's options
+	 */
+	private Corpus corpus(Options o) {
+		String key = corpusKey(o);
+		Corpus corpus;
+		synchronized (corpora) {
+			corpus = corpora.get(key);
+			if (corpus == null) {
+				System.out.println("Reading corpus: " + key);
+				corpus = o.getCorpusFileName().contains("json") ? new CCGJSONCorpus(o) : new Corpus(o);
+				corpora.put(key, corpus);
+			}
+		}
+		return corpus.withOptions(o);
+	}
+
+	/**
+	 * @return A description of the options that affect how the corpus is read
+	 */
+	private static String corpusKey(Options o) {
+		return o.getCorpusFileName() + " lowercase=" + o.isLowercase() + " ignorePunct=" + o.isIgnorePunct() +
+				" maxLength=" + o.getMaxLength() + " parg=" + o.getFeatureTypes().contains(FeatureNames.PARG);
+	}
+
+	private static String featuresKey(Options o) {
+		return o.getCorpusFileName() + " " + CorpusCache.featuresKey(o) + " morphFile=" + o.getMorphFile();
+	}
+
+	/**
+	 * @return The peak heap usage of the JVM so far (of all the concurrent runs, not just the last one)
+	 */
+	private static long peakHeapMB() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		return peak >> 20;
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.err.println("Usage: tagInducer.Sweep <sweep.properties>");
+			System.exit(1);
+		}
+		try {new Sweep(Options.load(args[0])).run();}
+		catch (IOException e) {e.printStackTrace();}
+	}
+}
@@ -0,0 +1,223 @@
+package tagInducer;
+
+import tagInducer.corpus.CCGJSONCorpus;
+import tagInducer.corpus.Corpus;
+import tagInducer.features.FeatureNames;
+import tagInducer.features.MorfFeatures;
+import tagInducer.features.SparseFeatures;
+import tagInducer.utils.StringCoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tags new text with a trained {@link Model}, without retraining. The word types of the training corpus keep
+ * their cluster; every unseen word type is assigned its most probable cluster given its features in the new text,
+ * computed against the (frozen) class counts of the model.
+ * <br>
+ * Only the context and morphological features are extracted for the unseen types: the dependency, PARG and
+ * CCG features depend on annotation that new text does not usually have, so they do not contribute to the
+ * conditionals of the unseen types.
+ */
+public class Tagger {
+	private final Model model;
+	/** The suffix features of every (pre-processed) word of the morphology file (null without morphological features) */
+	private final Map<String, List<Integer>> wordSuffixes;
+	/** Number of unseen word types in the last tagged text */
+	private int numUnseenTypes;
+
+	/**
+	 * @param morphFile The segmentations of the new words (null if the unseen types only get the NULL suffix)
+	 */
+	public Tagger(Model model, String morphFile) throws IOException {
+		this.model = model;
+		if (model.suffixes == null) wordSuffixes = null;
+		else {
+			wordSuffixes = new HashMap<>();
+			if (morphFile != null) {
+				MorfFeatures morph = new MorfFeatures(null, morphFile, model.extendedMorph);
+				// Suffixes that were not seen in training have no feature
+				for (int suffix = 0; suffix < model.suffixes.length; suffix++) {
+					for (String word : morph.getSuffixWords(model.suffixes[suffix])) {
+						String type = model.preProcessWord(word);
+						if (!wordSuffixes.containsKey(type)) wordSuffixes.put(type, new ArrayList<Integer>());
+						wordSuffixes.get(type).add(suffix);
+					}
+				}
+			}
+		}
+		for (String featType : model.featTypes)
+			if (!featType.equals(FeatureNames.CONTEXT) && !featType.equals(FeatureNames.MORPH))
+				System.err.println("Warning: " + featType + " features are not used for the unseen word types");
+	}
+
+	/**
+	 * @param sentences The (unprocessed) words of every sentence
+	 * @return The cluster of every token (-1 for ignored punctuation)
+	 */
+	public int[][] tag(String[][] sentences) {
+		return tag(sentences, null);
+	}
+
+	/**
+	 * @param sentences The (unprocessed) words of every sentence
+	 * @param posteriors If not null, filled with the cluster posterior of every token (output): the normalised
+	 * conditional for the unseen types, and all the mass on the trained cluster for the known ones
+	 * (null for ignored punctuation). The tokens of a word type share the same array.
+	 * @return The cluster of every token (-1 for ignored punctuation)
+	 */
+	public int[][] tag(String[][] sentences, double[][][] posteriors) {
+		// The unseen word types (coded in order of appearance) and the pre-processed sentences
+		StringCoder unseen = new StringCoder();
+		String[][] processed = new String[sentences.length][];
+		for (int s = 0; s < sentences.length; s++) {
+			processed[s] = new String[sentences[s].length];
+			for (int i = 0; i < sentences[s].length; i++) {
+				processed[s][i] = model.preProcessWord(sentences[s][i]);
+				if (model.getCluster(processed[s][i]) < 0) unseen.encode(processed[s][i]);
+			}
+		}
+		numUnseenTypes = unseen.size();
+
+		SparseFeatures[] features = new SparseFeatures[model.featTypes.length];
+		for (int f = 0; f < features.length; f++) {
+			switch (model.featTypes[f]) {
+				case FeatureNames.CONTEXT:
+					features[f] = SparseFeatures.fromDense(contextFeatures(processed, unseen));
+					break;
+				case FeatureNames.MORPH:
+					features[f] = SparseFeatures.fromDense(morphFeatures(sentences, processed, unseen));
+					break;
+				default:
+					features[f] = new SparseFeatures(model.numFeatures[f], new int[numUnseenTypes + 1], new int[0], new int[0]);
+			}
+		}
+		int[] unseenClusters = new int[numUnseenTypes];
+		double[][] unseenPosteriors = (posteriors != null) ? new double[numUnseenTypes][] : null;
+		double[] scratch = new double[model.numClasses];
+		for (int type = 0; type < numUnseenTypes; type++) {
+			unseenClusters[type] = model.mostProbableCluster(features, type, scratch);
+			if (posteriors != null) unseenPosteriors[type] = normalise(scratch, scratch[unseenClusters[type]]);
+		}
+		double[][] knownPosteriors = (posteriors != null) ? new double[model.numClasses][] : null;
+
+		int[][] clusters = new int[sentences.length][];
+		for (int s = 0; s < sentences.length; s++) {
+			clusters[s] = new int[sentences[s].length];
+			for (int i = 0; i < sentences[s].length; i++) {
+				if (model.isIgnored(sentences[s][i])) clusters[s][i] = -1;
+				else {
+					int cluster = model.getCluster(processed[s][i]);
+					clusters[s][i] = (cluster >= 0) ? cluster : unseenClusters[unseen.getId(processed[s][i])];
+				}
+			}
+			if (posteriors != null) {
+				posteriors[s] = new double[sentences[s].length][];
+				for (int i = 0; i < sentences[s].length; i++) {
+					int cluster = clusters[s][i];
+					if (cluster < 0) continue;
+					int type = unseen.getId(processed[s][i]);
+					if (type >= 0) posteriors[s][i] = unseenPosteriors[type];
+					else {
+						if (knownPosteriors[cluster] == null) {
+							knownPosteriors[cluster] = new double[model.numClasses];
+							knownPosteriors[cluster][cluster] = 1;
+						}
+						posteriors[s][i] = knownPosteriors[cluster];
+					}
+				}
+			}
+		}
+		return clusters;
+	}
+
+	/**
+	 * @param max The largest log probability
+	 * @return The normalised probabilities of a vector of log probabilities
+	 */
+	private static double[] normalise(double[] logP, double max) {
+		double[] p = new double[logP.length];
+		double total = 0;
+		for (int cluster = 0; cluster < logP.length; cluster++) total += p[cluster] = Math.exp(logP[cluster] - max);
+		for (int cluster = 0; cluster < logP.length; cluster++) p[cluster] /= total;
+		return p;
+	}
+
+	/**
+	 * The context features of the unseen types, with the same layout as {@link tagInducer.features.ContextFeatures}
+	 */
+	private int[][] contextFeatures(String[][] processed, StringCoder unseen) {
+		int numContextFeats = model.contextWords.size();
+		int rightOffset = numContextFeats + 1;
+		int[][] features = new int[unseen.size()][2 * numContextFeats + 2];
+		for (String[] sentence : processed) {
+			for (int pos = 0; pos < sentence.length; pos++) {
+				int type = unseen.getId(sentence[pos]);
+				if (type < 0) continue;
+				if (pos > 0) {
+					int prevContextWordIndex = model.contextWords.getId(sentence[pos - 1]);
+					if (prevContextWordIndex >= 0) features[type][prevContextWordIndex]++;
+					else features[type][numContextFeats]++;
+				}
+				if (pos + 1 < sentence.length) {
+					int nextContextWordIndex = model.contextWords.getId(sentence[pos + 1]);
+					if (nextContextWordIndex >= 0) features[type][rightOffset + nextContextWordIndex]++;
+					else features[type][rightOffset + numContextFeats]++;
+				}
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * The morphological features of the unseen types, with the same layout as {@link MorfFeatures}
+	 */
+	private int[][] morphFeatures(String[][] sentences, String[][] processed, StringCoder unseen) {
+		int numMorphFeats = model.suffixes.length + 1;
+		int[][] features = new int[unseen.size()][numMorphFeats + (model.extendedMorph ? MorfFeatures.NUM_EXTENDED_FEATS : 0)];
+		for (int type = 0; type < unseen.size(); type++) {
+			List<Integer> suffixes = wordSuffixes.get(unseen.decode(type));
+			if (suffixes == null) features[type][numMorphFeats - 1]++;
+			else for (int suffix : suffixes) features[type][suffix]++;
+		}
+		if (model.extendedMorph) {
+			for (int s = 0; s < sentences.length; s++) {
+				for (int i = 0; i < sentences[s].length; i++) {
+					int type = unseen.getId(processed[s][i]);
+					if (type >= 0) MorfFeatures.addExtendedFeatures(sentences[s][i], features[type], numMorphFeats);
+				}
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * @return Number of unseen word types in the last tagged text
+	 */
+	public int getNumUnseenTypes() {
+		return numUnseenTypes;
+	}
+
+	/**
+	 * Usage: Tagger -model &lt;file&gt; -in &lt;corpus&gt; -out &lt;file&gt; [-morph &lt;file&gt;]
+	 */
+	public static void main(String[] args) throws IOException {
+		Options o = new OptionsCmdLine(args);
+		if (o.getModelFile() == null || o.getCorpusFileName() == null || o.getOutFile() == null) {
+			System.err.println("Usage: tagInducer.Tagger -model <file> -in <corpus> -out <file> [-morph <file>]");
+			System.exit(1);
+		}
+		long start = System.currentTimeMillis();
+		Model model = Model.read(o.getModelFile());
+		Corpus corpus = o.getCorpusFileName().contains("json") ? new CCGJSONCorpus(o) : new Corpus(o);
+		Tagger tagger = new Tagger(model, o.getMorphFile());
+		corpus.setCorpusClusters(tagger.tag(corpus.getCorpusOriginalSents()));
+		System.out.println("Tagged " + corpus.getNumTokens() + " tokens (" + tagger.getNumUnseenTypes() +
+				" unseen types) in " + (System.currentTimeMillis() - start) + "ms");
+		if (corpus.hasTags()) System.out.println(new Evaluator(corpus).scoresSummary());
+		corpus.writeTagged(o.getOutFile());
+	}
+}
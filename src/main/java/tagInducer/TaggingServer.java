@@ -0,0 +1,379 @@
+package tagInducer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-running tagging service over HTTP: the model is loaded once, and the concurrent requests are
+ * tagged in batches by a single {@link Tagger} thread.
+ * <ul>
+ *     <li><code>POST /tag</code> with <code>{"sentences": [["The", "dog"], ...], "topK": 3}</code> returns
+ *     <code>{"clusters": [[4, 17], ...]}</code> and, if <code>topK</code> is positive, the most probable clusters of
+ *     every token, <code>"posteriors": [[[{"cluster": 4, "p": 0.93}, ...], ...], ...]</code>
+ *     (see {@link Tagger#tag(String[][], double[][][])});</li>
+ *     <li><code>GET /stats</code> returns the request, token and batch counters, the throughput and the latency
+ *     percentiles of the recent requests.</li>
+ * </ul>
+ * Every request of a batch is tagged on its own: the unseen word types of a request are tagged with their
+ * features over its own sentences, so its clusters do not depend on the other requests.
+ */
+public class TaggingServer {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** Number of recent request latencies kept for the percentiles */
+	private static final int LATENCY_WINDOW = 4096;
+
+	static {
+		// The responses are small: do not hold them back waiting for the acknowledgement of the headers (Nagle)
+		if (System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final Tagger tagger;
+	private final HttpServer server;
+	private final ExecutorService handlers;
+	private final Thread batcher;
+	private final Gson gson = new Gson();
+
+	/** The requests waiting to be tagged */
+	private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+	/** Maximum number of sentences per batch */
+	private final int maxBatchSentences;
+	/** Maximum time the first request of a batch waits for others (in microseconds) */
+	private final long maxDelayMicros;
+	private volatile boolean running;
+
+	private final long startTime = System.nanoTime();
+	/** The counters: requests are only counted once answered (successfully) */
+	private final AtomicLong numRequests = new AtomicLong(), numSentences = new AtomicLong(),
+			numTokens = new AtomicLong(), numBatches = new AtomicLong(), numErrors = new AtomicLong();
+	/** The latencies of the most recent requests (in nanoseconds), as a ring buffer */
+	private final long[] latencies = new long[LATENCY_WINDOW];
+	private long totalLatency, maxLatency;
+
+	/**
+	 * @param address The address to listen on (port 0 for any free port)
+	 * @param numHandlers Number of threads that parse the requests and wait for their batch
+	 * @param maxBatchSentences Maximum number of sentences per batch
+	 * @param maxDelayMicros Maximum time the first request of a batch waits for others (in microseconds)
+	 */
+	public TaggingServer(Tagger tagger, InetSocketAddress address, int numHandlers, int maxBatchSentences,
+						 long maxDelayMicros) throws IOException {
+		this.tagger = tagger;
+		this.maxBatchSentences = maxBatchSentences;
+		this.maxDelayMicros = maxDelayMicros;
+		server = HttpServer.create(address, 0);
+		server.createContext("/tag", new TagHandler());
+		server.createContext("/stats", new StatsHandler());
+		handlers = Executors.newFixedThreadPool(numHandlers);
+		server.setExecutor(handlers);
+		batcher = new Thread(new Batcher(), "tagging-batcher");
+		batcher.setDaemon(true);
+	}
+
+	public void start() {
+		running = true;
+		batcher.start();
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests, waiting (at most a second) for the ones in progress
+	 */
+	public void stop() {
+		server.stop(1);
+		running = false;
+		batcher.interrupt();
+		// Release the requests that will never be tagged
+		Request request;
+		while ((request = queue.poll()) != null) request.tagged.countDown();
+		handlers.shutdownNow();
+	}
+
+	/**
+	 * @return The port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * @return The counters of the server
+	 */
+	public JsonObject stats() {
+		JsonObject stats = new JsonObject();
+		double uptime = (System.nanoTime() - startTime) / 1e9;
+		long requests = numRequests.get(), batches = numBatches.get();
+		stats.addProperty("uptimeSeconds", uptime);
+		stats.addProperty("requests", requests);
+		stats.addProperty("errors", numErrors.get());
+		stats.addProperty("sentences", numSentences.get());
+		stats.addProperty("tokens", numTokens.get());
+		stats.addProperty("batches", batches);
+		stats.addProperty("meanBatchSentences", (batches == 0) ? 0 : (double) numSentences.get() / batches);
+		stats.addProperty("tokensPerSecond", numTokens.get() / uptime);
+		long[] recent;
+		double meanLatency, max;
+		synchronized (latencies) {
+			recent = Arrays.copyOf(latencies, (int) Math.min(requests, LATENCY_WINDOW));
+			meanLatency = (requests == 0) ? 0 : totalLatency / 1e6 / requests;
+			max = maxLatency / 1e6;
+		}
+		Arrays.sort(recent);
+		JsonObject latency = new JsonObject();
+		latency.addProperty("mean", meanLatency);
+		latency.addProperty("p50", percentile(recent, 0.5));
+		latency.addProperty("p95", percentile(recent, 0.95));
+		latency.addProperty("p99", percentile(recent, 0.99));
+		latency.addProperty("max", max);
+		stats.add("latencyMs", latency);
+		return stats;
+	}
+
+	private static double percentile(long[] sorted, double fraction) {
+		if (sorted.length == 0) return 0;
+		return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))] / 1e6;
+	}
+
+	private void recordLatency(long latency) {
+		synchronized (latencies) {
+			latencies[(int) (numRequests.get() % LATENCY_WINDOW)] = latency;
+			numRequests.incrementAndGet();
+			totalLatency += latency;
+			maxLatency = Math.max(maxLatency, latency);
+		}
+	}
+
+	/**
+	 * The sentences of a single request, and their clusters once tagged
+	 */
+	private static class Request {
+		final String[][] sentences;
+		final int topK;
+		final CountDownLatch tagged = new CountDownLatch(1);
+		int[][] clusters;
+		double[][][] posteriors;
+		RuntimeException error;
+
+		Request(String[][] sentences, int topK) {
+			this.sentences = sentences;
+			this.topK = topK;
+		}
+	}
+
+	/**
+	 * Takes the waiting requests off the queue and tags them in batches
+	 */
+	private class Batcher implements Runnable {
+		@Override
+		public void run() {
+			List<Request> batch = new ArrayList<>();
+			while (running) {
+				try {
+					Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (first == null) continue;
+					batch.add(first);
+					int batchSentences = first.sentences.length;
+					long deadline = System.nanoTime() + maxDelayMicros * 1000;
+					while (batchSentences < maxBatchSentences) {
+						Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+						if (next == null) break;
+						batch.add(next);
+						batchSentences += next.sentences.length;
+					}
+					tagBatch(batch);
+				}
+				catch (InterruptedException e) {
+					break;
+				}
+				finally {
+					for (Request request : batch) request.tagged.countDown();
+					batch.clear();
+				}
+			}
+		}
+
+		/**
+		 * Tags the requests of a batch one at a time (the batch only saves the handoffs between the threads)
+		 */
+		private void tagBatch(List<Request> batch) {
+			for (Request request : batch) {
+				double[][][] posteriors = (request.topK > 0) ? new double[request.sentences.length][][] : null;
+				try {
+					request.clusters = tagger.tag(request.sentences, posteriors);
+					request.posteriors = posteriors;
+				}
+				catch (RuntimeException e) {
+					request.error = e;
+				}
+			}
+			numBatches.incrementAndGet();
+		}
+	}
+
+	/**
+	 * The body of a tagging request
+	 */
+	private static class TagRequest {
+		String[][] sentences;
+		int topK;
+	}
+
+	private class TagHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			long start = System.nanoTime();
+			try {
+				if (!exchange.getRequestMethod().equals("POST")) {
+					respond(exchange, 405, error("Use POST"));
+					return;
+				}
+				TagRequest body;
+				try {
+					body = gson.fromJson(IOUtils.toString(exchange.getRequestBody(), UTF8), TagRequest.class);
+				}
+				catch (JsonParseException e) {
+					body = null;
+				}
+				if (body == null || body.sentences == null || hasNull(body.sentences)) {
+					numErrors.incrementAndGet();
+					respond(exchange, 400, error("Expected {\"sentences\": [[\"word\", ...], ...], \"topK\": k}"));
+					return;
+				}
+				Request request = new Request(body.sentences, body.topK);
+				queue.add(request);
+				request.tagged.await();
+				if (request.clusters == null) {
+					numErrors.incrementAndGet();
+					String message = (request.error != null) ? request.error.toString() : "The server is stopping";
+					respond(exchange, 500, error(message));
+					return;
+				}
+				numSentences.addAndGet(request.sentences.length);
+				for (String[] sentence : request.sentences) numTokens.addAndGet(sentence.length);
+				respond(exchange, 200, response(request));
+				recordLatency(System.nanoTime() - start);
+			}
+			catch (InterruptedException e) {
+				respond(exchange, 503, error("Interrupted"));
+			}
+		}
+
+		private boolean hasNull(String[][] sentences) {
+			for (String[] sentence : sentences) {
+				if (sentence == null) return true;
+				for (String word : sentence) if (word == null) return true;
+			}
+			return false;
+		}
+
+		private JsonObject response(Request request) {
+			JsonObject response = new JsonObject();
+			response.add("clusters", gson.toJsonTree(request.clusters));
+			if (request.topK > 0) {
+				JsonArray sentences = new JsonArray();
+				for (double[][] sentence : request.posteriors) {
+					JsonArray tokens = new JsonArray();
+					for (double[] posterior : sentence) tokens.add(topClusters(posterior, request.topK));
+					sentences.add(tokens);
+				}
+				response.add("posteriors", sentences);
+			}
+			return response;
+		}
+
+		/**
+		 * @return The k most probable clusters of a posterior, in decreasing order (empty for ignored tokens)
+		 */
+		private JsonArray topClusters(double[] posterior, int k) {
+			JsonArray top = new JsonArray();
+			if (posterior == null) return top;
+			boolean[] used = new boolean[posterior.length];
+			for (int rank = 0; rank < Math.min(k, posterior.length); rank++) {
+				int best = -1;
+				for (int cluster = 0; cluster < posterior.length; cluster++)
+					if (!used[cluster] && (best < 0 || posterior[cluster] > posterior[best])) best = cluster;
+				used[best] = true;
+				JsonObject entry = new JsonObject();
+				entry.addProperty("cluster", best);
+				entry.addProperty("p", posterior[best]);
+				top.add(entry);
+			}
+			return top;
+		}
+	}
+
+	private class StatsHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			respond(exchange, 200, stats());
+		}
+	}
+
+	private static JsonObject error(String message) {
+		JsonObject error = new JsonObject();
+		error.addProperty("error", message);
+		return error;
+	}
+
+	private void respond(HttpExchange exchange, int status, JsonObject body) throws IOException {
+		byte[] bytes = gson.toJson(body).getBytes(UTF8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Usage: TaggingServer -model &lt;file&gt; [-port &lt;num&gt;] [-morph &lt;file&gt;] [-threads &lt;num&gt;]
+	 * [-batch &lt;sentences&gt;] [-batch-delay &lt;microseconds&gt;]
+	 */
+	public static void main(String[] args) throws IOException {
+		String modelFile = null, morphFile = null;
+		int port = 8080, numHandlers = 16, maxBatch = 256;
+		long maxDelay = 2000;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "-model": modelFile = args[i + 1]; break;
+				case "-morph": morphFile = args[i + 1]; break;
+				case "-port": port = Integer.parseInt(args[i + 1]); break;
+				case "-threads": numHandlers = Integer.parseInt(args[i + 1]); break;
+				case "-batch": maxBatch = Integer.parseInt(args[i + 1]); break;
+				case "-batch-delay": maxDelay = Long.parseLong(args[i + 1]); break;
+				default: modelFile = null; i = args.length;
+			}
+		}
+		if (modelFile == null) {
+			System.err.println("Usage: tagInducer.TaggingServer -model <file> [-port <num>] [-morph <file>] " +
+					"[-threads <num>] [-batch <sentences>] [-batch-delay <microseconds>]");
+			System.exit(1);
+		}
+		Model model = Model.read(modelFile);
+		TaggingServer server = new TaggingServer(new Tagger(model, morphFile), new InetSocketAddress(port),
+				numHandlers, maxBatch, maxDelay);
+		server.start();
+		System.out.println("Tagging with " + modelFile + " (" + model.getNumTypes() + " types, " +
+				model.getNumClasses() + " classes) on port " + server.getPort());
+	}
+}
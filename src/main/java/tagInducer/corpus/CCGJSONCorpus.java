@@ -2,15 +2,21 @@ package tagInducer.corpus;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import tagInducer.Options;
+import tagInducer.corpus.json.CoNLLDep;
+import tagInducer.corpus.json.PARGDep;
 import tagInducer.corpus.json.SentenceObj;
-import tagInducer.utils.CollectionUtils;
+import tagInducer.features.FeatureNames;
 import tagInducer.utils.FileUtils;
+import tagInducer.utils.StringCoder;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -25,7 +31,14 @@ public class CCGJSONCorpus extends Corpus {
     public static final GsonBuilder gsonBuilder = new GsonBuilder();
     private static final Gson gsonReader = new Gson();
 
-    private static List<SentenceObj> sentences;
+    /**
+     * The PARG dependencies of the first parse of each sentence, packed as
+     * (dependent index, head index, category code) triples (only read if PARG features are requested).
+     * NB: these are assigned while the superclass constructor reads the corpus, so they have no initialisers.
+     */
+    private int[][] pargDeps;
+    /** Map from integers to PARG dependency categories */
+    private StringCoder pargCategoryCoder;
 
     /**
      * Extracts a corpus from input
@@ -38,40 +51,207 @@ public class CCGJSONCorpus extends Corpus {
         HAS_TAGS = true;
     }
 
+    /**
+     * An empty corpus to be filled in by {@link CorpusCache}.
+     * NB: the PARG dependencies are not cached, so {@link #getPargDeps()} is not available.
+     */
+    CCGJSONCorpus(Options o, StringCoder wordTypeCoder) {
+        super(o, wordTypeCoder);
+    }
+
+    @Override
+    public Corpus withOptions(Options o) {
+        CCGJSONCorpus view = new CCGJSONCorpus(o, getWordTypeCoder());
+        copyTo(view);
+        view.pargDeps = pargDeps;
+        view.pargCategoryCoder = pargCategoryCoder;
+        return view;
+    }
+
+    /**
+     * Streams through the JSON file (one sentence object per line), keeping only the per-token
+     * fields and (if needed) the PARG dependencies, instead of materialising every sentence object.
+     */
     @Override
     public void readCorpus() {
-        List<List<String>> corpusSentsList = new ArrayList<>();
-        List<List<String>> corpusTagsList = new ArrayList<>();
-        List<List<Integer>> corpusDepsList = new ArrayList<>();
-        List<List<String>> corpusUPosList = new ArrayList<>();
-        List<List<String>> corpusCCGCatList = new ArrayList<>();
-        List<List<Integer>> corpusClustersList = new ArrayList<>();
-        try {
-            sentences = readJSON(o.getCorpusFileName());
-            for (SentenceObj sent : sentences) {
-                if (sent.lengthNoPunctuation() <= o.getMaxLength()) {
-                    corpusSentsList.add(new ArrayList<>(sent.getWords()));
-                    corpusTagsList.add(new ArrayList<>(sent.getGoldTags()));
-                    corpusUPosList.add(new ArrayList<>(sent.getUPOSs()));
-                    corpusCCGCatList.add(new ArrayList<>(sent.getCCGCats()));
-                    corpusDepsList.add(new ArrayList<>(sent.getCoNLLHeads()));
-                    corpusClustersList.add(new ArrayList<>(sent.getClusters()));
+        boolean readParg = o.getFeatureTypes().contains(FeatureNames.PARG);
+        List<String[]> corpusSentsList = new ArrayList<>();
+        List<String[]> corpusTagsList = new ArrayList<>();
+        List<int[]> corpusDepsList = new ArrayList<>();
+        List<String[]> corpusUPosList = new ArrayList<>();
+        List<String[]> corpusCCGCatList = new ArrayList<>();
+        List<int[]> corpusClustersList = new ArrayList<>();
+        List<int[]> pargDepsList = new ArrayList<>();
+        pargCategoryCoder = new StringCoder();
+        try (JsonReader reader = new JsonReader(FileUtils.createIn(o.getCorpusFileName()))) {
+            reader.setLenient(true);
+            SentenceReader sentence = new SentenceReader(readParg);
+            while (reader.peek() != JsonToken.END_DOCUMENT) {
+                sentence.read(reader);
+                if (sentence.lengthNoPunctuation() <= o.getMaxLength()) {
+                    corpusSentsList.add(sentence.words);
+                    corpusTagsList.add(sentence.tags);
+                    corpusUPosList.add(sentence.upos);
+                    corpusCCGCatList.add(sentence.cats);
+                    corpusDepsList.add(sentence.heads);
+                    corpusClustersList.add(sentence.clusters);
+                    if (readParg) pargDepsList.add(sentence.pargDeps);
                 }
             }
-            corpusOriginalSents = CollectionUtils.toStringArray2D(corpusSentsList);
-            corpusGoldTags = CollectionUtils.toStringArray2D(corpusTagsList);
-            corpusUPos = CollectionUtils.toStringArray2D(corpusUPosList);
-            corpusCCGCats = CollectionUtils.toStringArray2D(corpusCCGCatList);
-            corpusDeps = CollectionUtils.toArray2D(corpusDepsList);
-            corpusClusters = CollectionUtils.toArray2D(corpusClustersList);
-        } catch (IOException e) {
+            corpusOriginalSents = corpusSentsList.toArray(new String[corpusSentsList.size()][]);
+            corpusGoldTags = corpusTagsList.toArray(new String[corpusTagsList.size()][]);
+            corpusUPos = corpusUPosList.toArray(new String[corpusUPosList.size()][]);
+            corpusCCGCats = corpusCCGCatList.toArray(new String[corpusCCGCatList.size()][]);
+            corpusDeps = corpusDepsList.toArray(new int[corpusDepsList.size()][]);
+            corpusClusters = corpusClustersList.toArray(new int[corpusClustersList.size()][]);
+            if (readParg) pargDeps = pargDepsList.toArray(new int[pargDepsList.size()][]);
+        } catch (IOException | IllegalStateException e) {
             System.err.println("Error reading the corpus file.\n" + e.getMessage());
             System.exit(-1);
         }
     }
 
-    public List<SentenceObj> getSentences() {
-        return sentences;
+    /**
+     * @return The PARG dependencies of each sentence as (dependent, head, category code) triples,
+     * or null if the PARG features were not requested
+     */
+    public int[][] getPargDeps() {
+        return pargDeps;
+    }
+
+    public String getPargCategory(int code) {
+        return pargCategoryCoder.decode(code);
+    }
+
+    /**
+     * Reads the fields of one sentence object (see {@link SentenceObj}) that the corpus needs, skipping the rest.
+     * The arrays are replaced (not reused) for every sentence.
+     */
+    private class SentenceReader {
+        private final boolean readParg;
+        private final List<String> wordList = new ArrayList<>(), tagList = new ArrayList<>(),
+                uposList = new ArrayList<>(), catList = new ArrayList<>(), clusterList = new ArrayList<>();
+        private final List<Integer> depList = new ArrayList<>();
+        private String[] words, tags, upos, cats;
+        private int[] clusters, heads, pargDeps;
+        private List<int[]> conllDeps;
+
+        SentenceReader(boolean readParg) {
+            this.readParg = readParg;
+        }
+
+        void read(JsonReader reader) throws IOException {
+            wordList.clear(); tagList.clear(); uposList.clear(); catList.clear(); clusterList.clear();
+            depList.clear();
+            conllDeps = null;
+            boolean firstSynPar = true;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("words") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) readWord(reader);
+                    reader.endArray();
+                }
+                else if (name.equals("synPars") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        // Only the first (best) parse is used
+                        if (firstSynPar) readSynPar(reader);
+                        else reader.skipValue();
+                        firstSynPar = false;
+                    }
+                    reader.endArray();
+                }
+                else reader.skipValue();
+            }
+            reader.endObject();
+
+            int length = wordList.size();
+            words = wordList.toArray(new String[length]);
+            tags = tagList.toArray(new String[length]);
+            upos = uposList.toArray(new String[length]);
+            cats = new String[length];
+            clusters = new int[length];
+            for (int i = 0; i < length; i++) {
+                cats[i] = (catList.get(i) == null) ? "" : catList.get(i);
+                clusters[i] = (clusterList.get(i) == null) ? -1 : Integer.parseInt(clusterList.get(i));
+            }
+            heads = new int[length];
+            Arrays.fill(heads, -1);
+            // CoNLL indices start from 1
+            if (conllDeps != null) for (int[] dep : conllDeps) heads[dep[0] - 1] = dep[1];
+            pargDeps = new int[depList.size()];
+            for (int i = 0; i < pargDeps.length; i++) pargDeps[i] = depList.get(i);
+        }
+
+        private void readWord(JsonReader reader) throws IOException {
+            String word = null, tag = null, pos = null, cat = null, cluster = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.skipValue();
+                    continue;
+                }
+                switch (name) {
+                    case "word": word = reader.nextString(); break;
+                    case "pos": tag = reader.nextString(); break;
+                    case "upos": pos = reader.nextString(); break;
+                    case "cat": cat = reader.nextString(); break;
+                    case "cluster": cluster = reader.nextString(); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+            wordList.add(word);
+            tagList.add(tag);
+            uposList.add(pos);
+            catList.add(cat);
+            clusterList.add(cluster);
+        }
+
+        private void readSynPar(JsonReader reader) throws IOException {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                return;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("depParse") && readParg && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) readPargDep(reader);
+                    reader.endArray();
+                }
+                else if (name.equals("conllParse") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    conllDeps = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        CoNLLDep dep = gsonReader.fromJson(reader, CoNLLDep.class);
+                        conllDeps.add(new int[]{dep.index, dep.head});
+                    }
+                    reader.endArray();
+                }
+                else reader.skipValue();
+            }
+            reader.endObject();
+        }
+
+        private void readPargDep(JsonReader reader) throws IOException {
+            PARGDep dep = gsonReader.fromJson(reader, PARGDep.class);
+            depList.add(dep.dependent);
+            depList.add(dep.head);
+            depList.add(pargCategoryCoder.encode(dep.category));
+        }
+
+        int lengthNoPunctuation() {
+            int l = upos.length;
+            for (String pos : upos) {
+                if (pos != null && pos.equals(".")) l--;
+            }
+            return l;
+        }
     }
 
     /**
@@ -11,9 +11,8 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 public class Corpus {
 	protected int numTokens, numTypes, numClusters;
@@ -41,7 +40,7 @@ public class Corpus {
 	protected int[][] corpusClusters;
 
 	/** Map from integers to word types and reverse*/
-	private StringCoder wordTypeCoder = new StringCoder();
+	private final StringCoder wordTypeCoder;
 
 	/** Whether the corpus has gold-standard tag annotation */
 	protected boolean HAS_TAGS;
@@ -60,7 +59,7 @@ public class Corpus {
 	private static final int depIndex = 7;
 	private static final int depTypeIndex = 8;
 
-    private final List<Integer> frequentWordList;
+    protected List<Integer> frequentWordList;
 
     /**
 	 * Extracts a corpus from input
@@ -68,6 +67,7 @@ public class Corpus {
 	 */
 	public Corpus(Options o){
 		this.o = o;
+		this.wordTypeCoder = new StringCoder();
 
 		//Read the corpus
 		readCorpus();
@@ -84,21 +84,69 @@ public class Corpus {
 			}
 		}
 		numTypes = wordTypeCoder.size();
+		// No new word types can be added from now on
+		wordTypeCoder.freeze();
 		numClusters = CollectionUtils.countUnique(corpusClusters);
+		frequentWordList = selectFrequentWords();
+	}
 
-        //Create a list of feature words (N most frequent original words)
-        Map<Integer, Integer> wordFreq = new HashMap<>();
+	/**
+	 * Creates a list of feature words (N most frequent original words)
+	 */
+	private List<Integer> selectFrequentWords() {
+        int[] wordFreq = new int[numTypes];
         //Get the word counts
         for (int[] sent : getCorpusProcessedSents()) {
-            for (int word : sent) {
-                if (wordFreq.containsKey(word)) wordFreq.put(word, wordFreq.get(word) + 1);
-                else wordFreq.put(word, 1);
-            }
+            for (int word : sent) wordFreq[word]++;
         }
-        //Resort wrt frequency and prune
+        //Resort wrt frequency (ties by word type index) and prune
+        long[] sortKeys = new long[numTypes];
+        for (int word = 0; word < numTypes; word++) sortKeys[word] = ((long) -wordFreq[word] << 32) | word;
+        Arrays.sort(sortKeys);
         // Check in case we have less than numContextFeatWords in the corpus
-        int numContextWords = Math.min(o.getNumContextFeats(), wordFreq.size());
-        frequentWordList = CollectionUtils.sortByValueList(wordFreq).subList(0, numContextWords);
+        int numContextWords = Math.min(o.getNumContextFeats(), numTypes);
+        List<Integer> frequentWords = new ArrayList<>(numContextWords);
+        for (int i = 0; i < numContextWords; i++) frequentWords.add((int) sortKeys[i]);
+        return frequentWords;
+	}
+
+	/**
+	 * Creates an empty corpus around an existing vocabulary, whose contents are filled in
+	 * directly (by {@link CorpusCache}) instead of being read from the corpus file.
+	 * @param o The configuration object
+	 * @param wordTypeCoder The map from integers to word types
+	 */
+	protected Corpus(Options o, StringCoder wordTypeCoder) {
+		this.o = o;
+		this.wordTypeCoder = wordTypeCoder;
+	}
+
+	/**
+	 * Creates a view of the corpus for a different configuration, sharing all the (read-only) sentence arrays.
+	 * Only the list of frequent (context) words is recomputed, for the new number of context features;
+	 * the pre-processing options (lowercasing, punctuation, sentence length) remain those the corpus was read with.
+	 * @param o The configuration object of the view
+	 */
+	public Corpus withOptions(Options o) {
+		Corpus view = new Corpus(o, wordTypeCoder);
+		copyTo(view);
+		return view;
+	}
+
+	protected void copyTo(Corpus view) {
+		view.HAS_TAGS = HAS_TAGS;
+		view.numTokens = numTokens;
+		view.numTypes = numTypes;
+		view.numClusters = numClusters;
+		view.corpusOriginalSents = corpusOriginalSents;
+		view.corpusProcessedSents = corpusProcessedSents;
+		view.corpusGoldTags = corpusGoldTags;
+		view.corpusDeps = corpusDeps;
+		view.corpusUPos = corpusUPos;
+		view.corpusCCGCats = corpusCCGCats;
+		view.corpusClusters = corpusClusters;
+		view.frequentWordList = (view.o.getNumContextFeats() == o.getNumContextFeats()) ?
+				frequentWordList : view.selectFrequentWords();
 	}
 
 	protected void readCorpus() {
@@ -188,15 +236,25 @@ public class Corpus {
 	 * @param currentZ The 1D array containing the cluster assignments for each word type
 	 */
 	public void setCorpusClusters(int[] currentZ) {
+		setCorpusClusters(tokenClusters(currentZ));
+	}
+
+	/**
+	 * Computes the per-sentence and per-token clusters given the induced assignments (without changing the corpus)
+	 * @param currentZ The 1D array containing the cluster assignments for each word type
+	 */
+	public int[][] tokenClusters(int[] currentZ) {
+		int[][] clusters = new int[corpusProcessedSents.length][];
 		for (int i = 0; i < corpusProcessedSents.length; i++) {
+			clusters[i] = new int[corpusProcessedSents[i].length];
 			for (int j = 0; j < corpusProcessedSents[i].length; j++) {
 				String wordStr = corpusOriginalSents[i][j];
 				if (o.isIgnorePunct() && StringUtils.isPunct(wordStr))
-					corpusClusters[i][j] = -1;
-				else corpusClusters[i][j] = currentZ[corpusProcessedSents[i][j]];
+					clusters[i][j] = -1;
+				else clusters[i][j] = currentZ[corpusProcessedSents[i][j]];
 			}
 		}
-		numClusters = CollectionUtils.countUnique(corpusClusters);
+		return clusters;
 	}
 
 	public void setCorpusClusters(int[][] sentClusters) {
@@ -223,9 +281,7 @@ public class Corpus {
 
 	public int getWordType(String rawWord) {
 		String processWord = preProcessWord(rawWord);
-		if (wordTypeCoder.exists(processWord))
-			return wordTypeCoder.encode(processWord);
-		return -1;
+		return wordTypeCoder.getId(processWord);
 	}
 
 	public int getNumTypes(){
@@ -268,6 +324,10 @@ public class Corpus {
 		return wordTypeCoder.decode(i);
 	}
 
+	StringCoder getWordTypeCoder() {
+		return wordTypeCoder;
+	}
+
     public List<Integer> getFrequentWordList() {
         return frequentWordList;
     }
@@ -0,0 +1,251 @@
+package tagInducer.corpus;
+
+import tagInducer.Options;
+import tagInducer.features.FeatureNames;
+import tagInducer.features.SparseFeatures;
+import tagInducer.utils.ChannelReader;
+import tagInducer.utils.FileUtils;
+import tagInducer.utils.StringCoder;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled (binary) version of a pre-processed corpus and its feature matrices, so that repeated runs
+ * on the same corpus can skip the parsing and feature extraction.
+ * The cache file is named after a hash of the input files and of every option that affects the
+ * pre-processing or the features, so a change in either results in a new cache file.
+ * <br>
+ * The file is a flat big-endian stream of ints and length-prefixed UTF-8 strings, read in bulk through a
+ * {@link ChannelReader} (so there is no limit on its size). The string columns of the corpus (words, tags, categories) are stored as
+ * a table of distinct strings plus an int code per token.
+ */
+public class CorpusCache {
+	private static final int MAGIC = 0x424d4343;
+	private static final int VERSION = 3;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Corpus corpus;
+	private final Map<String, SparseFeatures> features;
+
+	private CorpusCache(Corpus corpus, Map<String, SparseFeatures> features) {
+		this.corpus = corpus;
+		this.features = features;
+	}
+
+	public Corpus getCorpus() {
+		return corpus;
+	}
+
+	public Map<String, SparseFeatures> getFeatures() {
+		return features;
+	}
+
+	/**
+	 * @param o The configuration object
+	 * @return The cache file for the corpus and feature options (which might not exist yet)
+	 */
+	public static File cacheFile(Options o) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		digest.update(featuresKey(o).getBytes(UTF8));
+		digestFile(digest, o.getCorpusFileName());
+		if (o.getMorphFile() != null && o.getFeatureTypes().contains(FeatureNames.MORPH))
+			digestFile(digest, o.getMorphFile());
+		StringBuilder hash = new StringBuilder();
+		byte[] bytes = digest.digest();
+		for (int i = 0; i < 8; i++) hash.append(String.format("%02x", bytes[i]));
+		String name = new File(o.getCorpusFileName()).getName();
+		return new File(o.getCacheDir(), name + "." + hash + ".bmc");
+	}
+
+	/**
+	 * @return A description of every option that affects the pre-processing or the features
+	 * (configurations with the same key and input files have the same corpus and features)
+	 */
+	public static String featuresKey(Options o) {
+		return "features=" + o.getFeatureTypes() + " lowercase=" + o.isLowercase() +
+				" ignorePunct=" + o.isIgnorePunct() + " maxLength=" + o.getMaxLength() +
+				" contextFeats=" + o.getNumContextFeats() + " undirDeps=" + o.isUndirDeps() +
+				" parg=" + o.getPargFeatType() + " extMorph=" + o.isExtendedMorph();
+	}
+
+	private static void digestFile(MessageDigest digest, String file) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		try (InputStream in = new FileInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) > 0) digest.update(buffer, 0, read);
+		}
+	}
+
+	/**
+	 * Writes a corpus and its features (atomically, so that concurrent runs never read a partial cache)
+	 */
+	public static void write(File file, Corpus corpus, Map<String, SparseFeatures> features) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Cannot create cache directory " + dir);
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(corpus instanceof CCGJSONCorpus);
+			out.writeBoolean(corpus.HAS_TAGS);
+			out.writeInt(corpus.numTokens);
+			out.writeInt(corpus.numTypes);
+			out.writeInt(corpus.numClusters);
+			corpus.getWordTypeCoder().write(out);
+			writeInts(out, toArray(corpus.frequentWordList));
+			writeStrings2D(out, corpus.corpusOriginalSents);
+			writeInts2D(out, corpus.corpusProcessedSents);
+			writeStrings2D(out, corpus.corpusGoldTags);
+			writeInts2D(out, corpus.corpusDeps);
+			writeStrings2D(out, corpus.corpusUPos);
+			writeStrings2D(out, corpus.corpusCCGCats);
+			writeInts2D(out, corpus.corpusClusters);
+			out.writeInt(features.size());
+			for (String featType : features.keySet()) {
+				SparseFeatures feats = features.get(featType);
+				writeString(out, featType);
+				out.writeInt(feats.getNumFeatures());
+				writeInts(out, feats.getOffsets());
+				writeInts(out, feats.getIndices());
+				writeInts(out, feats.getCounts());
+			}
+		}
+		catch (IOException e) {
+			if (!tmp.delete()) tmp.deleteOnExit();
+			throw e;
+		}
+		FileUtils.moveAtomically(tmp, file);
+	}
+
+	/**
+	 * Loads a corpus (and its features) written by {@link #write(File, Corpus, Map)}
+	 */
+	public static CorpusCache load(File file, Options o) throws IOException {
+		try (ChannelReader in = new ChannelReader(file)) {
+			return load(in, file, o);
+		}
+	}
+
+	static CorpusCache load(ChannelReader in, File file, Options o) throws IOException {
+		if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException(file + " is not a (compatible) corpus cache");
+		boolean isJSON = in.getBoolean();
+		boolean hasTags = in.getBoolean();
+		int numTokens = in.getInt();
+		int numTypes = in.getInt();
+		int numClusters = in.getInt();
+		StringCoder wordTypeCoder = StringCoder.read(in);
+
+		Corpus corpus = isJSON ? new CCGJSONCorpus(o, wordTypeCoder) : new Corpus(o, wordTypeCoder);
+		corpus.HAS_TAGS = hasTags;
+		corpus.numTokens = numTokens;
+		corpus.numTypes = numTypes;
+		corpus.numClusters = numClusters;
+		List<Integer> frequentWords = new ArrayList<>();
+		for (int word : readInts(in)) frequentWords.add(word);
+		corpus.frequentWordList = frequentWords;
+		corpus.corpusOriginalSents = readStrings2D(in);
+		corpus.corpusProcessedSents = readInts2D(in);
+		corpus.corpusGoldTags = readStrings2D(in);
+		corpus.corpusDeps = readInts2D(in);
+		corpus.corpusUPos = readStrings2D(in);
+		corpus.corpusCCGCats = readStrings2D(in);
+		corpus.corpusClusters = readInts2D(in);
+
+		// Same key insertion order as when written, so the (hash) map iterates in the same order
+		Map<String, SparseFeatures> features = new HashMap<>();
+		int numFeatTypes = in.getInt();
+		for (int f = 0; f < numFeatTypes; f++) {
+			String featType = readString(in);
+			int numFeatures = in.getInt();
+			int[] offsets = readInts(in);
+			int[] indices = readInts(in);
+			int[] counts = readInts(in);
+			features.put(featType, new SparseFeatures(numFeatures, offsets, indices, counts));
+		}
+		return new CorpusCache(corpus, features);
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) array[i] = list.get(i);
+		return array;
+	}
+
+	private static void writeString(DataOutput out, String string) throws IOException {
+		if (string == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = string.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ChannelReader in) throws IOException {
+		int length = in.getInt();
+		if (length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private static void writeInts(DataOutput out, int[] array) throws IOException {
+		out.writeInt(array.length);
+		for (int value : array) out.writeInt(value);
+	}
+
+	private static int[] readInts(ChannelReader in) throws IOException {
+		int[] array = new int[in.getInt()];
+		in.getInts(array);
+		return array;
+	}
+
+	private static void writeInts2D(DataOutput out, int[][] array) throws IOException {
+		out.writeInt(array.length);
+		for (int[] row : array) writeInts(out, row);
+	}
+
+	private static int[][] readInts2D(ChannelReader in) throws IOException {
+		int[][] array = new int[in.getInt()][];
+		for (int i = 0; i < array.length; i++) array[i] = readInts(in);
+		return array;
+	}
+
+	private static void writeStrings2D(DataOutput out, String[][] array) throws IOException {
+		StringCoder coder = new StringCoder();
+		int[][] codes = new int[array.length][];
+		for (int i = 0; i < array.length; i++) {
+			codes[i] = new int[array[i].length];
+			for (int j = 0; j < array[i].length; j++) codes[i][j] = coder.encode(array[i][j]);
+		}
+		out.writeInt(coder.size());
+		for (int code = 0; code < coder.size(); code++) writeString(out, coder.decode(code));
+		writeInts2D(out, codes);
+	}
+
+	private static String[][] readStrings2D(ChannelReader in) throws IOException {
+		String[] strings = new String[in.getInt()];
+		for (int code = 0; code < strings.length; code++) strings[code] = readString(in);
+		int[][] codes = readInts2D(in);
+		String[][] array = new String[codes.length][];
+		for (int i = 0; i < codes.length; i++) {
+			array[i] = new String[codes[i].length];
+			for (int j = 0; j < codes[i].length; j++) array[i][j] = strings[codes[i][j]];
+		}
+		return array;
+	}
+}
@@ -1,66 +1,85 @@
 package tagInducer.features;
 
 import tagInducer.corpus.Corpus;
+import tagInducer.utils.IntPairCounter;
 import tagInducer.utils.StringCoder;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * A set of features derived from the CCG categories for each word stored in the corpus file (6th column)
  */
 public class CCGCatFeatures implements Features {
 
-    private final Map<Integer, Map<Integer, Integer>> ccgCatFeatCounts;
+    /** The frequency of each (word type, CCG category) pair */
+    private final IntPairCounter ccgCatFeatCounts;
+    private final StringCoder ccgCatFeatCoder;
 
     private final Corpus corpus;
 
     public CCGCatFeatures(Corpus corpus) throws IOException {
+        this(corpus, 1);
+    }
+
+    /**
+     * @param corpus The corpus
+     * @param numThreads Number of threads counting (chunks of sentences); the features do not depend on it
+     */
+    public CCGCatFeatures(Corpus corpus, int numThreads) throws IOException {
         this.corpus = corpus;
-        // Read the features
-        // A map from parg feature type to word-type to count
-        ccgCatFeatCounts = readPargFeats();
+        // Read the features: every chunk of sentences is counted with its own coder, and the chunks are merged in order
+        final String[][] ccgCats = corpus.getCorpusCCGCats();
+        final int[] bounds = FeatureTasks.chunks(ccgCats.length, numThreads);
+        List<Callable<CatCounts>> tasks = new ArrayList<>();
+        for (int chunk = 0; chunk + 1 < bounds.length; chunk++) {
+            final int from = bounds[chunk], to = bounds[chunk + 1];
+            tasks.add(new Callable<CatCounts>() {
+                @Override
+                public CatCounts call() {
+                    return readPargFeats(ccgCats, from, to);
+                }
+            });
+        }
+        List<CatCounts> chunks = FeatureTasks.run(tasks, numThreads, "CCG category");
+        ccgCatFeatCounts = chunks.get(0).counts;
+        ccgCatFeatCoder = chunks.get(0).coder;
+        for (CatCounts chunk : chunks.subList(1, chunks.size()))
+            FeatureTasks.merge(chunk.counts, chunk.coder, ccgCatFeatCounts, ccgCatFeatCoder);
     }
 
     public int[][] getFeatures() {
         // TODO Add the NULL feature at the end
-        int[][] features = new int[corpus.getNumTypes()][ccgCatFeatCounts.size()+1];
+        return ccgCatFeatCounts.toDense(corpus.getNumTypes(), ccgCatFeatCoder.size()+1);
+    }
 
-        for (int pargFeat : ccgCatFeatCounts.keySet()){
-            Map<Integer, Integer> wordFeatCounts = ccgCatFeatCounts.get(pargFeat);
-            for (int word : wordFeatCounts.keySet()){
-                features[word][pargFeat] += wordFeatCounts.get(word);
-            }
-        }
-        return features;
+    /**
+     * @return The features of {@link #getFeatures()}, compressed without building the dense matrix
+     */
+    public SparseFeatures getSparseFeatures() {
+        return SparseFeatures.fromPairs(ccgCatFeatCounts, corpus.getNumTypes(), ccgCatFeatCoder.size()+1);
     }
 
-    private Map<Integer, Map<Integer, Integer>> readPargFeats() throws IOException {
-        Map<Integer, Map<Integer, Integer>> featMap = new HashMap<>();
-        StringCoder ccgCatFeatCoder = new StringCoder();
-        // The CCG categories for each sentence/word
-        String[][] ccgCats = corpus.getCorpusCCGCats();
+    /**
+     * Counts the CCG categories of the sentences in <code>[from, to)</code>
+     */
+    private CatCounts readPargFeats(String[][] ccgCats, int from, int to) {
+        CatCounts featCounts = new CatCounts();
         int[][] corpusSents = corpus.getCorpusProcessedSents();
-        for (int sentInd = 0; sentInd < ccgCats.length; sentInd++) {
+        for (int sentInd = from; sentInd < to; sentInd++) {
             for (int wordInd = 0; wordInd < ccgCats[sentInd].length; wordInd++) {
                 int wordType = corpusSents[sentInd][wordInd];
-                int feat = ccgCatFeatCoder.encode(ccgCats[sentInd][wordInd]);
-                Map<Integer, Integer> featCount;
-                if (featMap.containsKey(feat)) {
-                    featCount = featMap.get(feat);
-                    if (featCount.containsKey(wordType))
-                        featCount.put(wordType, featCount.get(wordType) + 1);
-                    else
-                        featCount.put(wordType, 1);
-                }
-                else {
-                    featCount = new HashMap<>();
-                    featCount.put(wordType, 1);
-                }
-                featMap.put(feat, featCount);
+                int feat = featCounts.coder.encode(ccgCats[sentInd][wordInd]);
+                featCounts.counts.increment(wordType, feat);
             }
         }
-        return featMap;
+        return featCounts;
+    }
+
+    private static class CatCounts {
+        final IntPairCounter counts = new IntPairCounter();
+        final StringCoder coder = new StringCoder();
     }
 }
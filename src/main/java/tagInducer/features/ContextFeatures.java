@@ -3,59 +3,120 @@ package tagInducer.features;
 import tagInducer.corpus.Corpus;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 public class ContextFeatures implements Features {
 	private final Corpus corpus;
-	private final List<Integer> frequentWordList;
+	private final int numContextFeats;
+	/** The index of each word type in the list of frequent (context) words, or -1 */
+	private final int[] typeToContextIndex;
+	private final int numThreads;
 
 	public ContextFeatures(Corpus corpus) throws IOException{
+		this(corpus, 1);
+	}
+
+	/**
+	 * @param corpus The corpus
+	 * @param numThreads Number of threads used for counting (the features do not depend on it)
+	 */
+	public ContextFeatures(Corpus corpus, int numThreads) throws IOException{
 		this.corpus = corpus;
-		frequentWordList = corpus.getFrequentWordList();
+		this.numThreads = Math.max(1, numThreads);
+		List<Integer> frequentWordList = corpus.getFrequentWordList();
+		numContextFeats = frequentWordList.size();
+		typeToContextIndex = new int[corpus.getNumTypes()];
+		Arrays.fill(typeToContextIndex, -1);
+		for (int i = 0; i < numContextFeats; i++) typeToContextIndex[frequentWordList.get(i)] = i;
 	}
 
 	@Override
 	public int[][] getFeatures() {
-		int numContextFeats = frequentWordList.size();
 		int numTypes = corpus.getNumTypes();
 		// Context features: +/- 1 word and two NULL features (no freq. context words on either side)
 		// (add two extra features to the array)
+		// The left features occupy [0, numContextFeats] and the right ones the rest
 		int totalFeatNum = (numContextFeats * 2) + 2;
 		int[][] features = new int[numTypes][totalFeatNum];
-		int[][] leftFeatures = new int[numTypes][numContextFeats + 1];
-		int[][] rightFeatures = new int[numTypes][numContextFeats + 1];
-		for (String[] sentence: corpus.getCorpusOriginalSents()) {
+		int[][] sentences = corpus.getCorpusProcessedSents();
+		if (numThreads == 1) {
+			countFeatures(sentences, features, 0, numTypes);
+			return features;
+		}
+
+		// Every thread counts the contexts of its own range of word types (so it owns its rows of the matrix),
+		// with the ranges balanced by the number of tokens
+		int[] typeFreq = new int[numTypes];
+		long numTokens = 0;
+		for (int[] sentence : sentences) {
+			for (int wordType : sentence) typeFreq[wordType]++;
+			numTokens += sentence.length;
+		}
+		List<Callable<Void>> tasks = new ArrayList<>();
+		int from = 0;
+		long tokens = 0;
+		for (int type = 0; type < numTypes; type++) {
+			tokens += typeFreq[type];
+			if (tokens * numThreads >= numTokens * (tasks.size() + 1) || type == numTypes - 1) {
+				tasks.add(new CountTask(sentences, features, from, type + 1));
+				from = type + 1;
+			}
+		}
+		FeatureTasks.run(tasks, numThreads, "Context");
+		return features;
+	}
+
+	/**
+	 * Counts the context features of the tokens whose word type is in <code>[fromType, toType)</code>
+	 */
+	private void countFeatures(int[][] sentences, int[][] features, int fromType, int toType) {
+		int rightOffset = numContextFeats + 1;
+		for (int[] sentence : sentences) {
 			//For every target word in the sentence
 			for (int pos = 0; pos < sentence.length; pos++) {
-				int wordType = corpus.getWordType(sentence[pos]);
+				int wordType = sentence[pos];
+				if (wordType < fromType || wordType >= toType) continue;
+				int[] typeFeatures = features[wordType];
 
-				int prevPosition = pos - 1;
 				//Add the previous context word
-				if (prevPosition >= 0) {
-					int prevWord = corpus.getWordType(sentence[prevPosition]);
-					int prevContextWordIndex = frequentWordList.indexOf(prevWord);
-					if (prevContextWordIndex > 0) leftFeatures[wordType][prevContextWordIndex]++;
-					// If no freq. context word to the right add NULL feature
+				if (pos > 0) {
+					int prevContextWordIndex = typeToContextIndex[sentence[pos - 1]];
+					if (prevContextWordIndex >= 0) typeFeatures[prevContextWordIndex]++;
+					// If no freq. context word to the left add NULL feature
 					// (first extra feature)
-					else leftFeatures[wordType][numContextFeats]++;
+					else typeFeatures[numContextFeats]++;
 				}
 
-				int nextPosition = pos + 1;
 				//Add the next context word
-				if (nextPosition < sentence.length) {
-					int nextWord = corpus.getWordType(sentence[nextPosition]);
-					int nextContextWordIndex = frequentWordList.indexOf(nextWord);
-					if (nextContextWordIndex > 0) rightFeatures[wordType][nextContextWordIndex]++;
+				if (pos + 1 < sentence.length) {
+					int nextContextWordIndex = typeToContextIndex[sentence[pos + 1]];
+					if (nextContextWordIndex >= 0) typeFeatures[rightOffset + nextContextWordIndex]++;
 					// If no freq. context word to the right add NULL feature
 					// (second extra feature)
-					else rightFeatures[wordType][numContextFeats]++;
+					else typeFeatures[rightOffset + numContextFeats]++;
 				}
 			}
 		}
-		for (int i = 0; i < leftFeatures.length; i++)
-			System.arraycopy(leftFeatures[i], 0, features[i], 0, leftFeatures[i].length);
-		for (int i = 0; i < rightFeatures.length; i++)
-			System.arraycopy(rightFeatures[i], 0, features[i], leftFeatures[i].length, rightFeatures[i].length);
-		return features;
+	}
+
+	private class CountTask implements Callable<Void> {
+		private final int[][] sentences, features;
+		private final int fromType, toType;
+
+		CountTask(int[][] sentences, int[][] features, int fromType, int toType) {
+			this.sentences = sentences;
+			this.features = features;
+			this.fromType = fromType;
+			this.toType = toType;
+		}
+
+		@Override
+		public Void call() {
+			countFeatures(sentences, features, fromType, toType);
+			return null;
+		}
 	}
 }
@@ -1,15 +1,13 @@
 package tagInducer.features;
 
 import tagInducer.corpus.Corpus;
-import tagInducer.utils.StringCoder;
-
-import java.util.HashMap;
-import java.util.Map;
+import tagInducer.utils.IntIntHashMap;
+import tagInducer.utils.IntPairCounter;
 
 public class DepFeatures implements Features {
 	
-	/** A map from word types to dependency heads (with frequency) */
-	private Map<Integer, Map<Integer, Integer>> headDepMap;
+	/** The frequency of each (word type, dependency head) pair */
+	private IntPairCounter headDepCounts;
 
 	private final Corpus corpus;
 
@@ -33,13 +31,14 @@ public class DepFeatures implements Features {
 		//For the case of PoS tags as features
 		//Number of features = #unsupervised clusters +1 for ROOT
 		int[][] features = new int[corpus.getNumTypes()][(corpus.getNumClusters())+1];
-		StringCoder headFreqMap = new StringCoder();
+		// The feature index of each head (in order of appearance)
+		IntIntHashMap headIndex = new IntIntHashMap();
 
-		for (int wordType : headDepMap.keySet()){
-			Map<Integer, Integer> heads = headDepMap.get(wordType);
-			for (int headType : heads.keySet()){
-				features[wordType][headFreqMap.encode(Integer.toString(headType))] += heads.get(headType);
-			}
+		for (int slot = 0; slot < headDepCounts.capacity(); slot++){
+			if (!headDepCounts.isUsed(slot)) continue;
+			int headType = headDepCounts.secondAt(slot);
+			if (!headIndex.containsKey(headType)) headIndex.put(headType, headIndex.size());
+			features[headDepCounts.firstAt(slot)][headIndex.get(headType)] += headDepCounts.valueAt(slot);
 		}
 		return features;
 	}
@@ -48,7 +47,7 @@ public class DepFeatures implements Features {
 	 * Reads dependency data directly from a CoNLL-style corpus
 	 */
 	private void readDepFeats() {
-		headDepMap = new HashMap<>();
+		headDepCounts = new IntPairCounter();
 		int[][] corpusSents = corpus.getCorpusProcessedSents();
 		int[][] corpusDeps = corpus.getCorpusDeps();
 		int[][] corpusClusters = corpus.getCorpusClusters();
@@ -71,16 +70,6 @@ public class DepFeatures implements Features {
 	}
 
 	private void addDep(int wordType, int head){
-		if (headDepMap.containsKey(wordType)){
-			Map<Integer, Integer> temp = headDepMap.get(wordType);
-			if (temp.containsKey(head)) temp.put(head, temp.get(head)+1);
-			else temp.put(head, 1);
-			headDepMap.put(wordType, temp);
-		}
-		else {
-			Map<Integer, Integer> temp = new HashMap<>();
-			temp.put(head, 1);
-			headDepMap.put(wordType, temp);
-		}
+		headDepCounts.increment(wordType, head);
 	}
 }
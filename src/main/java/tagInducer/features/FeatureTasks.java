@@ -0,0 +1,77 @@
+package tagInducer.features;
+
+import tagInducer.utils.IntPairCounter;
+import tagInducer.utils.StringCoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for splitting a feature extraction into tasks (e.g. over contiguous chunks of sentences) that run
+ * concurrently, while extracting exactly the features of a serial pass.
+ */
+final class FeatureTasks {
+	private FeatureTasks() {}
+
+	/**
+	 * @return The bounds of <code>numChunks</code> contiguous, (almost) equal chunks of <code>[0, size)</code>:
+	 * chunk <code>i</code> is <code>[bounds[i], bounds[i+1])</code>
+	 */
+	static int[] chunks(int size, int numChunks) {
+		numChunks = Math.max(1, Math.min(numChunks, size));
+		int[] bounds = new int[numChunks + 1];
+		for (int i = 0; i <= numChunks; i++) bounds[i] = (int) ((long) size * i / numChunks);
+		return bounds;
+	}
+
+	/**
+	 * Runs the tasks on up to <code>numThreads</code> threads (in the calling thread if there is only one)
+	 * @param name The name of the extraction (for the error message)
+	 * @return The results, in the order of the tasks
+	 */
+	static <T> List<T> run(List<Callable<T>> tasks, int numThreads, String name) {
+		List<T> results = new ArrayList<>();
+		try {
+			if (tasks.size() == 1 || numThreads <= 1) {
+				for (Callable<T> task : tasks) results.add(task.call());
+				return results;
+			}
+			ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, tasks.size()));
+			try {
+				for (Future<T> future : executor.invokeAll(tasks)) results.add(future.get());
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (ExecutionException e) {
+			throw new RuntimeException(name + " feature extraction failed", e.getCause());
+		}
+		catch (Exception e) {
+			throw new RuntimeException(name + " feature extraction failed", e);
+		}
+		return results;
+	}
+
+	/**
+	 * Adds the (word type, feature) counts of a chunk to the counts of the previous chunks, recoding its features.
+	 * Merging the chunks in order codes the features in order of first appearance, as a serial pass does.
+	 */
+	static void merge(IntPairCounter chunkCounts, StringCoder chunkCoder, IntPairCounter counts, StringCoder coder) {
+		int[] recode = new int[chunkCoder.size()];
+		for (int code = 0; code < recode.length; code++) recode[code] = coder.encode(chunkCoder.decode(code));
+		for (int slot = 0; slot < chunkCounts.capacity(); slot++) {
+			if (!chunkCounts.isUsed(slot)) continue;
+			counts.increment(IntPairCounter.pair(chunkCounts.firstAt(slot), recode[chunkCounts.secondAt(slot)]),
+					chunkCounts.valueAt(slot));
+		}
+	}
+}
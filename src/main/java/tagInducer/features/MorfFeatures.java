@@ -6,18 +6,43 @@ import tagInducer.utils.StringUtils;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
 public class MorfFeatures implements Features {
 
+	/** Number of orthographic features (when the extended features are used) */
+	public static final int NUM_EXTENDED_FEATS = 4;
+	private static final Pattern INITIAL_CAPITAL = Pattern.compile("^[A-Z].*");
+	private static final Pattern DIGIT = Pattern.compile(".*[0-9].*");
+	private static final Pattern NON_WORD = Pattern.compile(".*\\W.*");
+
 	private StringUtils s = new StringUtils();
 	private final Map<String, Map<String, Integer>> morphFeatCounts;
 	private final boolean extendedMorphFeats;
 	private final Corpus corpus;
+	private final int numThreads;
 
+	/**
+	 * @param corpus The corpus (null if only the segmentations are needed, see {@link #getSuffixes()})
+	 */
 	public MorfFeatures(Corpus corpus, String morphFile, boolean useExtendedMorphFeats) throws IOException {
+		this(corpus, morphFile, useExtendedMorphFeats, 1);
+	}
+
+	/**
+	 * @param numThreads Number of threads counting the extended features (over chunks of sentences);
+	 * the features do not depend on it
+	 */
+	public MorfFeatures(Corpus corpus, String morphFile, boolean useExtendedMorphFeats, int numThreads) throws IOException {
 		this.corpus = corpus;
+		this.numThreads = Math.max(1, numThreads);
 		extendedMorphFeats = useExtendedMorphFeats;
 		morphFeatCounts = readMorph(morphFile);
 	}
@@ -46,34 +71,73 @@ public class MorfFeatures implements Features {
 		}
 
 		if (extendedMorphFeats) {
-			//Indices:
-			//0: hasInitialCapital
-			//1: hasDigit
-			//2: hasHyphen
-			//3: hasPunctuation
-			int[][] extendedFeats = new int[numWordTypes][4];
-
-			for (String[] sent : corpus.getCorpusOriginalSents()) {
-				for (String word : sent) {
-					int wordIndex = corpus.getWordType(word);
-					if (wordIndex == -1) continue;
-
-					if (word.matches("^[A-Z].*")) extendedFeats[wordIndex][0]++;
-					if (word.matches(".*[0-9].*")) extendedFeats[wordIndex][1]++;
-					if (word.contains("-")) extendedFeats[wordIndex][2]++;
-					if (word.matches(".*\\W.*")) extendedFeats[wordIndex][3]++;
-				}
+			//Every chunk of sentences is counted separately (NUM_EXTENDED_FEATS per word type) and the counts summed
+			final String[][] sents = corpus.getCorpusOriginalSents();
+			final int[] bounds = FeatureTasks.chunks(sents.length, numThreads);
+			List<Callable<int[]>> tasks = new ArrayList<>();
+			for (int chunk = 0; chunk + 1 < bounds.length; chunk++) {
+				final int from = bounds[chunk], to = bounds[chunk + 1];
+				tasks.add(new Callable<int[]>() {
+					@Override
+					public int[] call() {
+						return extendedFeatures(sents, from, to);
+					}
+				});
 			}
-			int[][] newFeats = new int[numWordTypes][numMorphFeats + 4];
+			List<int[]> chunks = FeatureTasks.run(tasks, numThreads, "Morphological");
+			int[][] newFeats = new int[numWordTypes][numMorphFeats + NUM_EXTENDED_FEATS];
 			for (int i = 0; i < numWordTypes; i++){
 				System.arraycopy(morphFeats[i], 0, newFeats[i], 0, morphFeats[i].length);
-				System.arraycopy(extendedFeats[i], 0, newFeats[i], morphFeats[i].length, extendedFeats[i].length);
+				for (int[] extendedFeats : chunks)
+					for (int feat = 0; feat < NUM_EXTENDED_FEATS; feat++)
+						newFeats[i][numMorphFeats + feat] += extendedFeats[i * NUM_EXTENDED_FEATS + feat];
 			}
 			return newFeats;
 		}
 		return morphFeats;
 	}
 
+	/**
+	 * Counts the orthographic features of a word token, from <code>offset</code> onwards:
+	 * 0: hasInitialCapital, 1: hasDigit, 2: hasHyphen, 3: hasPunctuation
+	 */
+	public static void addExtendedFeatures(String word, int[] features, int offset) {
+		if (INITIAL_CAPITAL.matcher(word).matches()) features[offset]++;
+		if (DIGIT.matcher(word).matches()) features[offset + 1]++;
+		if (word.contains("-")) features[offset + 2]++;
+		if (NON_WORD.matcher(word).matches()) features[offset + 3]++;
+	}
+
+	/**
+	 * @return The extended features of the sentences in <code>[from, to)</code>, NUM_EXTENDED_FEATS per word type
+	 */
+	private int[] extendedFeatures(String[][] sents, int from, int to) {
+		int[] extendedFeats = new int[corpus.getNumTypes() * NUM_EXTENDED_FEATS];
+		for (int sentInd = from; sentInd < to; sentInd++) {
+			for (String word : sents[sentInd]) {
+				int wordIndex = corpus.getWordType(word);
+				if (wordIndex == -1) continue;
+				addExtendedFeatures(word, extendedFeats, wordIndex * NUM_EXTENDED_FEATS);
+			}
+		}
+		return extendedFeats;
+	}
+
+	/**
+	 * @return The suffixes, in the order of their features
+	 */
+	public List<String> getSuffixes() {
+		return new ArrayList<>(morphFeatCounts.keySet());
+	}
+
+	/**
+	 * @return The (unprocessed) words segmented with a suffix (empty if the suffix does not occur)
+	 */
+	public Set<String> getSuffixWords(String suffix) {
+		Map<String, Integer> words = morphFeatCounts.get(suffix);
+		return (words == null) ? Collections.<String>emptySet() : words.keySet();
+	}
+
 	private boolean isNull(int[] vector) {
 		for (int val:vector) if (val != 0) return false;
 		return true;
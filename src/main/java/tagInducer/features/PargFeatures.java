@@ -2,14 +2,15 @@ package tagInducer.features;
 
 import tagInducer.corpus.CCGJSONCorpus;
 import tagInducer.corpus.Corpus;
-import tagInducer.corpus.json.PARGDep;
-import tagInducer.corpus.json.SentenceObj;
+import tagInducer.utils.IntBitSet;
+import tagInducer.utils.IntPairCounter;
 import tagInducer.utils.StringCoder;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
 
 /**
  * A set of features derived from the predicate-argument output (.parg files) of the CCG parser.
@@ -17,28 +18,66 @@ import java.util.Map;
  */
 public class PargFeatures implements Features {
 
-    private Map<Integer, Map<Integer, Integer>> headCatFeatCounts;
-    private Map<Integer, Map<Integer, Integer>> catFeatCounts;
-    private Map<Integer, Map<Integer, Integer>> contextFeatCounts;
+    /** The frequency of each (word type, feature) pair, for each of the three kinds of features */
+    private final IntPairCounter headCatFeatCounts;
+    private final IntPairCounter catFeatCounts;
+    private final IntPairCounter contextFeatCounts;
 
     private final Corpus corpus;
+    private final StringCoder headCatCoder, catCoder, contextCoder;
 
     public PargFeatures(Corpus corpus) throws IOException {
+        this(corpus, 1);
+    }
+
+    /**
+     * @param corpus The corpus
+     * @param numThreads Number of threads counting (chunks of sentences); the features do not depend on it
+     */
+    public PargFeatures(Corpus corpus, int numThreads) throws IOException {
         this.corpus = corpus;
         // Read the features
-        // A map from parg feature type to word-type to count
         if (!(corpus instanceof CCGJSONCorpus)){
             System.err.println("Corpus needs to be in JSON format");
             System.exit(-1);
         }
-        List<SentenceObj> sentences = ((CCGJSONCorpus)corpus).getSentences();
-        List<Integer> freqWordsList = corpus.getFrequentWordList();
-
-        headCatFeatCounts = new HashMap<>();
-        catFeatCounts = new HashMap<>();
-        contextFeatCounts = new HashMap<>();
-
-        readFeatures(sentences, freqWordsList);
+        final CCGJSONCorpus jsonCorpus = (CCGJSONCorpus) corpus;
+        if (jsonCorpus.getPargDeps() == null) {
+            System.err.println("The PARG dependencies were not read from the corpus");
+            System.exit(-1);
+        }
+        final IntBitSet freqWords = new IntBitSet(corpus.getNumTypes());
+        for (int word : corpus.getFrequentWordList()) freqWords.set(word);
+
+        // Every chunk of sentences is counted with its own coders, and the chunks are merged in order
+        final int[][] pargDeps = jsonCorpus.getPargDeps();
+        final int[] bounds = FeatureTasks.chunks(pargDeps.length, numThreads);
+        List<Callable<PargCounts>> tasks = new ArrayList<>();
+        for (int chunk = 0; chunk + 1 < bounds.length; chunk++) {
+            final int from = bounds[chunk], to = bounds[chunk + 1];
+            tasks.add(new Callable<PargCounts>() {
+                @Override
+                public PargCounts call() {
+                    PargCounts counts = new PargCounts();
+                    for (int sentInd = from; sentInd < to; sentInd++)
+                        counts.addSentence(jsonCorpus, sentInd, pargDeps[sentInd], freqWords);
+                    return counts;
+                }
+            });
+        }
+        List<PargCounts> chunks = FeatureTasks.run(tasks, numThreads, "PARG");
+        PargCounts counts = chunks.get(0);
+        for (PargCounts chunk : chunks.subList(1, chunks.size())) {
+            FeatureTasks.merge(chunk.headCatFeatCounts, chunk.headCatCoder, counts.headCatFeatCounts, counts.headCatCoder);
+            FeatureTasks.merge(chunk.catFeatCounts, chunk.catCoder, counts.catFeatCounts, counts.catCoder);
+            FeatureTasks.merge(chunk.contextFeatCounts, chunk.contextCoder, counts.contextFeatCounts, counts.contextCoder);
+        }
+        headCatFeatCounts = counts.headCatFeatCounts;
+        catFeatCounts = counts.catFeatCounts;
+        contextFeatCounts = counts.contextFeatCounts;
+        headCatCoder = counts.headCatCoder;
+        catCoder = counts.catCoder;
+        contextCoder = counts.contextCoder;
     }
 
     @Override
@@ -46,86 +85,78 @@ public class PargFeatures implements Features {
         return null;
     }
 
-    public int[][] getCatFeatures() {
-        return populateFeatureMatrix(catFeatCounts);
+    public SparseFeatures getCatFeatures() {
+        return SparseFeatures.fromPairs(catFeatCounts, corpus.getNumTypes(), catCoder.size());
     }
 
-    public int[][] getHeadCatFeatures() {
-        return populateFeatureMatrix(headCatFeatCounts);
+    public SparseFeatures getHeadCatFeatures() {
+        return SparseFeatures.fromPairs(headCatFeatCounts, corpus.getNumTypes(), headCatCoder.size());
     }
 
-    public int[][] getContextFeatures() {
-        return populateFeatureMatrix(contextFeatCounts);
-    }
-
-    private int[][] populateFeatureMatrix(Map<Integer, Map<Integer, Integer>> featureMap) {
-        int[][] features = new int[corpus.getNumTypes()][featureMap.size()];
-        for (int pargFeat : featureMap.keySet()){
-            Map<Integer, Integer> wordFeatCounts = featureMap.get(pargFeat);
-            for (int word : wordFeatCounts.keySet()){
-                features[word][pargFeat] += wordFeatCounts.get(word);
-            }
-        }
-        return features;
+    public SparseFeatures getContextFeatures() {
+        return SparseFeatures.fromPairs(contextFeatCounts, corpus.getNumTypes(), contextCoder.size());
     }
 
     /**
-     * Takes in a JSON corpus and computes features of the form  dep: headCat
+     * The counts (and feature coders) of a chunk of sentences
      */
-    private void readFeatures(List<SentenceObj> sentences, List<Integer> freqWordList){
-        StringCoder headCatCoder = new StringCoder();
-        StringCoder catCoder = new StringCoder();
-        StringCoder contextCoder = new StringCoder();
-        for (SentenceObj sentence : sentences) {
-            if (sentence.synPars == null || sentence.synPars[0].depParse == null) continue;
-            for (PARGDep dep : sentence.synPars[0].depParse) {
-                String headCatFeat = dep.category;
-                String depCatFeat = sentence.words[dep.dependent].cat;
+    private class PargCounts {
+        final IntPairCounter headCatFeatCounts = new IntPairCounter();
+        final IntPairCounter catFeatCounts = new IntPairCounter();
+        final IntPairCounter contextFeatCounts = new IntPairCounter();
+        final StringCoder headCatCoder = new StringCoder(), catCoder = new StringCoder(), contextCoder = new StringCoder();
+        /** The (context) feature index of IsPredOf:word and IsArgOf:word for each word type (-1 if not yet seen) */
+        final int[] isPredOfFeats = new int[corpus.getNumTypes() + 1];
+        final int[] isArgOfFeats = new int[corpus.getNumTypes() + 1];
+
+        PargCounts() {
+            Arrays.fill(isPredOfFeats, -1);
+            Arrays.fill(isArgOfFeats, -1);
+        }
+
+        /**
+         * Adds the features of the PARG dependencies of a sentence, of the form  dep: headCat
+         * @param sentInd The index of the sentence in the corpus
+         * @param deps The (dependent, head, category code) triples of the sentence
+         */
+        void addSentence(CCGJSONCorpus corpus, int sentInd, int[] deps, IntBitSet freqWords) {
+            int[] sentence = corpus.getCorpusProcessedSents()[sentInd];
+            String[] cats = corpus.getCorpusCCGCats()[sentInd];
+            for (int i = 0; i < deps.length; i += 3) {
+                int dependent = deps[i], head = deps[i + 1];
+                String headCatFeat = corpus.getPargCategory(deps[i + 2]);
+                String depCatFeat = cats[dependent];
 
                 // Create two separate syntactic context features from each token's predicates, args
                 // (~= left, right) w.r.t to their frequency
-                String headWordStr = corpus.preProcessWord(sentence.words[dep.head].word);
-                String depWordStr = corpus.preProcessWord(sentence.words[dep.dependent].word);
-                int headInt = corpus.getWordType(headWordStr);
-                int depInt = corpus.getWordType(depWordStr);
+                int headInt = sentence[head];
+                int depInt = sentence[dependent];
                 // Add the dependent (argument) as a feature for the predicate
-                String featStr = "IsPredOf:";
-                if (freqWordList.contains(depInt))
-                    featStr += depWordStr;
-                else featStr += "NULL";
-                addFeatureToWord(headWordStr, featStr, contextFeatCounts, contextCoder);
+                contextFeatCounts.increment(headInt, contextFeature(isPredOfFeats, "IsPredOf:", depInt, freqWords));
                 // Add the head (predicate) as a feature for the argument
-                featStr = "IsArgOf:";
-                if (freqWordList.contains(headInt))
-                    featStr += headWordStr;
-                else featStr += "NULL";
-                addFeatureToWord(depWordStr, featStr, contextFeatCounts, contextCoder);
-
-                addFeatureToWord(depWordStr, headCatFeat, headCatFeatCounts, headCatCoder);
-                addFeatureToWord(depWordStr, depCatFeat, catFeatCounts, catCoder);
+                contextFeatCounts.increment(depInt, contextFeature(isArgOfFeats, "IsArgOf:", headInt, freqWords));
+
+                addFeatureToWord(depInt, headCatFeat, headCatFeatCounts, headCatCoder);
+                addFeatureToWord(depInt, depCatFeat, catFeatCounts, catCoder);
             }
         }
-    }
 
-    private void addFeatureToWord(String wordStr, String featStr, Map<Integer,Map<Integer,Integer>> featMap,
-                                  StringCoder pargFeatCoder) {
-        // Do not add features for words that don't exist
-        int word = corpus.getWordType(wordStr);
-        if (word == -1) return;
-
-        int feat = pargFeatCoder.encode(featStr);
-        Map<Integer, Integer> featCount;
-        if (featMap.containsKey(feat)) {
-            featCount = featMap.get(feat);
-            if (featCount.containsKey(word))
-                featCount.put(word, featCount.get(word) + 1);
-            else
-                featCount.put(word, 1);
+        /**
+         * @return The feature index of <code>prefix + word</code> (or <code>prefix + NULL</code> if the word is not
+         * frequent), memoised per word type to avoid building the feature string for every dependency
+         */
+        private int contextFeature(int[] featCache, String prefix, int word, IntBitSet freqWords) {
+            // The last cache entry holds the NULL feature
+            int cacheIndex = freqWords.get(word) ? word : featCache.length - 1;
+            if (featCache[cacheIndex] < 0) {
+                String featStr = prefix + ((cacheIndex == word) ? corpus.getWordString(word) : "NULL");
+                featCache[cacheIndex] = contextCoder.encode(featStr);
+            }
+            return featCache[cacheIndex];
         }
-        else {
-            featCount = new HashMap<>();
-            featCount.put(word, 1);
+
+        private void addFeatureToWord(int word, String featStr, IntPairCounter featCounts, StringCoder pargFeatCoder) {
+            featCounts.increment(word, pargFeatCoder.encode(featStr));
         }
-        featMap.put(feat, featCount);
     }
 }
@@ -0,0 +1,126 @@
+package tagInducer.features;
+
+import tagInducer.utils.IntPairCounter;
+
+import java.util.Arrays;
+
+/**
+ * A compressed sparse-row (CSR) store of the feature counts of a single feature type.
+ * For every word type only the non-zero features are kept, as a packed array of feature indices
+ * and a parallel array of counts. Row <code>type</code> occupies the positions
+ * <code>[getOffsets()[type], getOffsets()[type+1])</code> of both arrays.
+ */
+public class SparseFeatures {
+	private final int numTypes;
+	private final int numFeatures;
+	/** Start position of each word type's row (numTypes+1 entries) */
+	private final int[] offsets;
+	/** Feature index of every non-zero entry (sorted within each row) */
+	private final int[] indices;
+	/** Count of every non-zero entry */
+	private final int[] counts;
+	/** Total number of feature tokens of each word type (sum of the row) */
+	private final int[] typeTotals;
+	/** Total number of feature tokens (sum of the matrix) */
+	private final long totalCount;
+
+	public SparseFeatures(int numFeatures, int[] offsets, int[] indices, int[] counts) {
+		this.numTypes = offsets.length - 1;
+		this.numFeatures = numFeatures;
+		this.offsets = offsets;
+		this.indices = indices;
+		this.counts = counts;
+		typeTotals = new int[numTypes];
+		long total = 0;
+		for (int type = 0; type < numTypes; type++) {
+			for (int i = offsets[type]; i < offsets[type + 1]; i++)
+				typeTotals[type] += counts[i];
+			total += typeTotals[type];
+		}
+		totalCount = total;
+	}
+
+	/**
+	 * Compresses a dense MxF matrix of feature counts.
+	 * @param dense The feature counts for each word type
+	 * @return The CSR version of the matrix
+	 */
+	public static SparseFeatures fromDense(int[][] dense) {
+		int numFeatures = (dense.length == 0) ? 0 : dense[0].length;
+		int[] offsets = new int[dense.length + 1];
+		for (int type = 0; type < dense.length; type++) {
+			int nnz = 0;
+			for (int count : dense[type]) if (count != 0) nnz++;
+			offsets[type + 1] = offsets[type] + nnz;
+		}
+		int[] indices = new int[offsets[dense.length]];
+		int[] counts = new int[offsets[dense.length]];
+		for (int type = 0; type < dense.length; type++) {
+			int pos = offsets[type];
+			for (int feature = 0; feature < numFeatures; feature++) {
+				if (dense[type][feature] == 0) continue;
+				indices[pos] = feature;
+				counts[pos++] = dense[type][feature];
+			}
+		}
+		return new SparseFeatures(numFeatures, offsets, indices, counts);
+	}
+
+	/**
+	 * Builds the CSR matrix directly from sparse (word type, feature) counts, without a dense intermediate.
+	 * @param pairCounts The counts of the (row, column) pairs (which must be valid indices)
+	 * @return The CSR version of the counts
+	 */
+	public static SparseFeatures fromPairs(IntPairCounter pairCounts, int numTypes, int numFeatures) {
+		// The packed keys sort by row and then by column (both are non-negative)
+		long[] pairs = new long[pairCounts.size()];
+		int nnz = 0;
+		for (int slot = 0; slot < pairCounts.capacity(); slot++)
+			if (pairCounts.isUsed(slot) && pairCounts.valueAt(slot) != 0) pairs[nnz++] = pairCounts.keyAt(slot);
+		pairs = Arrays.copyOf(pairs, nnz);
+		Arrays.sort(pairs);
+		int[] offsets = new int[numTypes + 1];
+		int[] indices = new int[nnz];
+		int[] counts = new int[nnz];
+		for (int i = 0; i < nnz; i++) {
+			offsets[IntPairCounter.first(pairs[i]) + 1]++;
+			indices[i] = IntPairCounter.second(pairs[i]);
+			counts[i] = pairCounts.get(pairs[i]);
+		}
+		for (int type = 0; type < numTypes; type++) offsets[type + 1] += offsets[type];
+		return new SparseFeatures(numFeatures, offsets, indices, counts);
+	}
+
+	public int getNumTypes() {
+		return numTypes;
+	}
+
+	public int getNumFeatures() {
+		return numFeatures;
+	}
+
+	/** @return The number of non-zero (type, feature) entries */
+	public int getNumNonZero() {
+		return offsets[numTypes];
+	}
+
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	public int[] getIndices() {
+		return indices;
+	}
+
+	public int[] getCounts() {
+		return counts;
+	}
+
+	public int getTypeTotal(int type) {
+		return typeTotals[type];
+	}
+
+	public long getTotalCount() {
+		return totalCount;
+	}
+}
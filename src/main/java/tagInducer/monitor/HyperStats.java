@@ -0,0 +1,50 @@
+package tagInducer.monitor;
+
+/**
+ * The log posterior of the sampler state and the outcome of a round of (Metropolis-Hastings)
+ * hyperparameter sampling
+ */
+public class HyperStats {
+	private final int iteration;
+	private final double logPrior, logLikelihood, logPosterior, bestLogPosterior;
+	/** Whether the state is the best seen so far (and was stored as the final assignment) */
+	private final boolean newBest;
+	/** The hyperparameters after the sampling round */
+	private final double hyperClass;
+	private final String[] featTypes;
+	private final double[] hyperFeats;
+	/** The fraction of accepted proposals for the class hyperparameter and for each feature hyperparameter */
+	private final double classAcceptRate;
+	private final double[] featAcceptRates;
+	private final long timestamp;
+
+	public HyperStats(int iteration, double logPrior, double logLikelihood, double bestLogPosterior, boolean newBest,
+					  double hyperClass, String[] featTypes, double[] hyperFeats, double classAcceptRate,
+					  double[] featAcceptRates) {
+		this.iteration = iteration;
+		this.logPrior = logPrior;
+		this.logLikelihood = logLikelihood;
+		this.logPosterior = logPrior + logLikelihood;
+		this.bestLogPosterior = bestLogPosterior;
+		this.newBest = newBest;
+		this.hyperClass = hyperClass;
+		this.featTypes = featTypes;
+		this.hyperFeats = hyperFeats;
+		this.classAcceptRate = classAcceptRate;
+		this.featAcceptRates = featAcceptRates;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	public int getIteration() {return iteration;}
+	public double getLogPrior() {return logPrior;}
+	public double getLogLikelihood() {return logLikelihood;}
+	public double getLogPosterior() {return logPosterior;}
+	public double getBestLogPosterior() {return bestLogPosterior;}
+	public boolean isNewBest() {return newBest;}
+	public double getHyperClass() {return hyperClass;}
+	public String[] getFeatTypes() {return featTypes;}
+	public double[] getHyperFeats() {return hyperFeats;}
+	public double getClassAcceptRate() {return classAcceptRate;}
+	public double[] getFeatAcceptRates() {return featAcceptRates;}
+	public long getTimestamp() {return timestamp;}
+}
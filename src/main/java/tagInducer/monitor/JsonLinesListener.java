@@ -0,0 +1,71 @@
+package tagInducer.monitor;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import tagInducer.utils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes every sweep and hyperparameter sampling event as a JSON object on its own line
+ * (with an <code>event</code> field of <code>sweep</code>, <code>hyper</code> or <code>finished</code>).
+ * Every line is flushed, so the file can be followed while the sampler is running.
+ */
+public class JsonLinesListener implements SamplerListener {
+	private final Gson gson = new Gson();
+	private final BufferedWriter out;
+
+	public JsonLinesListener(String file) throws IOException {
+		this(file, false);
+	}
+
+	/**
+	 * @param append Whether to add to the events already in the file (e.g. when resuming from a checkpoint,
+	 * in which case the iterations after the checkpoint appear again, with the events of the resumed run last)
+	 */
+	public JsonLinesListener(String file, boolean append) throws IOException {
+		out = FileUtils.createOut(file, append);
+	}
+
+	@Override
+	public void sweepCompleted(SweepStats stats) {
+		write("sweep", gson.toJsonTree(stats).getAsJsonObject());
+	}
+
+	@Override
+	public void hyperSampled(HyperStats stats) {
+		write("hyper", gson.toJsonTree(stats).getAsJsonObject());
+	}
+
+	@Override
+	public void samplingFinished() {
+		JsonObject event = new JsonObject();
+		event.addProperty("timestamp", System.currentTimeMillis());
+		write("finished", event);
+		try {
+			out.close();
+		}
+		catch (IOException e) {
+			System.err.println("Cannot close the telemetry file: " + e.getMessage());
+		}
+	}
+
+	private void write(String type, JsonObject event) {
+		JsonObject line = new JsonObject();
+		line.addProperty("event", type);
+		for (Map.Entry<String, JsonElement> entry : event.entrySet())
+			line.add(entry.getKey(), entry.getValue());
+		try {
+			out.write(gson.toJson(line));
+			out.write("\n");
+			out.flush();
+		}
+		catch (IOException e) {
+			// Telemetry must never stop the sampler
+			System.err.println("Cannot write to the telemetry file: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package tagInducer.monitor;
+
+/**
+ * Receives the progress of a {@link tagInducer.GibbsSampler} run.
+ * The callbacks are made from the sampling thread, between sweeps, so they should return quickly.
+ */
+public interface SamplerListener {
+
+	/**
+	 * Called after every sweep over the word types
+	 */
+	void sweepCompleted(SweepStats stats);
+
+	/**
+	 * Called after every round of hyperparameter sampling (with the log posterior it was based on)
+	 */
+	void hyperSampled(HyperStats stats);
+
+	/**
+	 * Called once the last iteration has completed
+	 */
+	void samplingFinished();
+}
@@ -0,0 +1,164 @@
+package tagInducer.monitor;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Exposes the live state of a sampler run as a JMX MBean
+ * (registered as <code>tagInducer:type=GibbsSampler,name=&lt;name&gt;</code>).
+ */
+public class SamplerMonitor implements SamplerListener, SamplerMonitorMBean {
+	private final ObjectName objectName;
+	private final long created = System.currentTimeMillis();
+	private volatile SweepStats lastSweep;
+	private volatile HyperStats lastHyper;
+	private volatile boolean finished;
+	private double totalSweepMillis;
+	private int numSweeps;
+
+	public SamplerMonitor(String name) throws JMException {
+		objectName = new ObjectName("tagInducer:type=GibbsSampler,name=" + ObjectName.quote(name));
+	}
+
+	/**
+	 * Registers the MBean with the platform MBean server
+	 */
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+	}
+
+	public void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+	}
+
+	@Override
+	public synchronized void sweepCompleted(SweepStats stats) {
+		totalSweepMillis += stats.getSweepMillis();
+		numSweeps++;
+		lastSweep = stats;
+	}
+
+	@Override
+	public void hyperSampled(HyperStats stats) {
+		lastHyper = stats;
+	}
+
+	/**
+	 * Keeps the final values available (the MBean stays registered until {@link #unregister()})
+	 */
+	@Override
+	public void samplingFinished() {
+		finished = true;
+	}
+
+	@Override
+	public int getIteration() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? 0 : sweep.getIteration();
+	}
+
+	@Override
+	public int getTotalIterations() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? 0 : sweep.getTotalIterations();
+	}
+
+	@Override
+	public double getTemperature() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? Double.NaN : sweep.getTemperature();
+	}
+
+	@Override
+	public double getLastSweepMillis() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? 0 : sweep.getSweepMillis();
+	}
+
+	@Override
+	public synchronized double getAverageSweepMillis() {
+		return (numSweeps == 0) ? 0 : totalSweepMillis / numSweeps;
+	}
+
+	@Override
+	public long getMillisSinceLastSweep() {
+		SweepStats sweep = lastSweep;
+		return System.currentTimeMillis() - ((sweep == null) ? created : sweep.getTimestamp());
+	}
+
+	@Override
+	public double getTypesPerSecond() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? 0 : sweep.getTypesPerSecond();
+	}
+
+	@Override
+	public double getFeatureTokensPerSecond() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? 0 : sweep.getFeatureTokensPerSecond();
+	}
+
+	@Override
+	public int getTypesChanged() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? 0 : sweep.getTypesChanged();
+	}
+
+	@Override
+	public double getChangeRate() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? Double.NaN : sweep.getChangeRate();
+	}
+
+	@Override
+	public int[] getClusterSizes() {
+		SweepStats sweep = lastSweep;
+		return (sweep == null) ? new int[0] : sweep.getClusterSizes().clone();
+	}
+
+	@Override
+	public int getLargestCluster() {
+		int largest = 0;
+		for (int size : getClusterSizes()) largest = Math.max(largest, size);
+		return largest;
+	}
+
+	@Override
+	public int getEmptyClusters() {
+		int empty = 0;
+		for (int size : getClusterSizes()) if (size == 0) empty++;
+		return empty;
+	}
+
+	@Override
+	public double getLogPosterior() {
+		HyperStats hyper = lastHyper;
+		return (hyper == null) ? Double.NaN : hyper.getLogPosterior();
+	}
+
+	@Override
+	public double getBestLogPosterior() {
+		HyperStats hyper = lastHyper;
+		return (hyper == null) ? Double.NaN : hyper.getBestLogPosterior();
+	}
+
+	@Override
+	public double getHyperClass() {
+		HyperStats hyper = lastHyper;
+		return (hyper == null) ? Double.NaN : hyper.getHyperClass();
+	}
+
+	@Override
+	public double getClassAcceptRate() {
+		HyperStats hyper = lastHyper;
+		return (hyper == null) ? Double.NaN : hyper.getClassAcceptRate();
+	}
+
+	@Override
+	public boolean isFinished() {
+		return finished;
+	}
+}
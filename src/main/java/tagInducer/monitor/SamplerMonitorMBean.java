@@ -0,0 +1,26 @@
+package tagInducer.monitor;
+
+/**
+ * The JMX management interface of {@link SamplerMonitor}
+ */
+public interface SamplerMonitorMBean {
+	int getIteration();
+	int getTotalIterations();
+	double getTemperature();
+	double getLastSweepMillis();
+	double getAverageSweepMillis();
+	/** Time since the last sweep finished (or since the monitor was created), to detect stalled runs */
+	long getMillisSinceLastSweep();
+	double getTypesPerSecond();
+	double getFeatureTokensPerSecond();
+	int getTypesChanged();
+	double getChangeRate();
+	int[] getClusterSizes();
+	int getLargestCluster();
+	int getEmptyClusters();
+	double getLogPosterior();
+	double getBestLogPosterior();
+	double getHyperClass();
+	double getClassAcceptRate();
+	boolean isFinished();
+}
@@ -0,0 +1,52 @@
+package tagInducer.monitor;
+
+/**
+ * The statistics of a single sweep of the sampler
+ */
+public class SweepStats {
+	private final int iteration, totalIterations;
+	private final double temperature;
+	private final double sweepMillis;
+	/** Number of word types that were assigned a different cluster */
+	private final int typesChanged;
+	private final int numTypes;
+	/** Number of feature tokens (of all feature types) visited by the sweep */
+	private final long featureTokens;
+	private final double typesPerSecond, featureTokensPerSecond;
+	/** Number of word types in each cluster */
+	private final int[] clusterSizes;
+	private final long timestamp;
+
+	public SweepStats(int iteration, int totalIterations, double temperature, long sweepNanos, int typesChanged,
+					  int numTypes, long featureTokens, int[] clusterSizes) {
+		this.iteration = iteration;
+		this.totalIterations = totalIterations;
+		this.temperature = temperature;
+		this.sweepMillis = sweepNanos / 1e6;
+		this.typesChanged = typesChanged;
+		this.numTypes = numTypes;
+		this.featureTokens = featureTokens;
+		double seconds = Math.max(sweepNanos, 1) / 1e9;
+		this.typesPerSecond = numTypes / seconds;
+		this.featureTokensPerSecond = featureTokens / seconds;
+		this.clusterSizes = clusterSizes;
+		this.timestamp = System.currentTimeMillis();
+	}
+
+	public int getIteration() {return iteration;}
+	public int getTotalIterations() {return totalIterations;}
+	public double getTemperature() {return temperature;}
+	public double getSweepMillis() {return sweepMillis;}
+	public int getTypesChanged() {return typesChanged;}
+	public int getNumTypes() {return numTypes;}
+	public long getFeatureTokens() {return featureTokens;}
+	public double getTypesPerSecond() {return typesPerSecond;}
+	public double getFeatureTokensPerSecond() {return featureTokensPerSecond;}
+	public int[] getClusterSizes() {return clusterSizes;}
+	public long getTimestamp() {return timestamp;}
+
+	/** @return The fraction of word types that changed cluster */
+	public double getChangeRate() {
+		return (double) typesChanged / Math.max(numTypes, 1);
+	}
+}
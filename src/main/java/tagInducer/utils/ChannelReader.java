@@ -0,0 +1,94 @@
+package tagInducer.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the flat big-endian binary files of the caches and models (as written by a {@link java.io.DataOutput})
+ * through a fixed-size buffer that is refilled from the channel, so that files of any size can be read
+ * (a single memory mapping is limited to 2GB). Arrays are copied out of the buffer in bulk.
+ */
+public class ChannelReader implements Closeable {
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	public ChannelReader(File file) throws IOException {
+		this(new FileInputStream(file).getChannel(), DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param bufferSize The size of the buffer in bytes (at least 8)
+	 */
+	public ChannelReader(ReadableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		buffer = ByteBuffer.allocateDirect(Math.max(8, bufferSize));
+		buffer.flip();
+	}
+
+	/**
+	 * Makes sure that the buffer holds at least <code>bytes</code> unread bytes
+	 */
+	private void fill(int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) return;
+		buffer.compact();
+		while (buffer.position() < bytes) {
+			if (channel.read(buffer) < 0) {
+				buffer.flip();
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+	}
+
+	public byte get() throws IOException {
+		fill(1);
+		return buffer.get();
+	}
+
+	public boolean getBoolean() throws IOException {
+		return get() != 0;
+	}
+
+	public int getInt() throws IOException {
+		fill(4);
+		return buffer.getInt();
+	}
+
+	public double getDouble() throws IOException {
+		fill(8);
+		return buffer.getDouble();
+	}
+
+	public void get(byte[] array) throws IOException {
+		int pos = 0;
+		while (pos < array.length) {
+			fill(1);
+			int length = Math.min(buffer.remaining(), array.length - pos);
+			buffer.get(array, pos, length);
+			pos += length;
+		}
+	}
+
+	public void getInts(int[] array) throws IOException {
+		int pos = 0;
+		while (pos < array.length) {
+			fill(4);
+			int length = Math.min(buffer.remaining() / 4, array.length - pos);
+			buffer.asIntBuffer().get(array, pos, length);
+			buffer.position(buffer.position() + 4 * length);
+			pos += length;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -95,11 +95,28 @@ public class CollectionUtils {
 		return array;
 	}
 
+	/**
+	 * @return The number of distinct values in the array
+	 */
 	public static int countUnique(int[][] array) {
-		List<Integer> items = new ArrayList<>();
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int[] ints : array) {
+			for (int i : ints) {
+				min = Math.min(min, i);
+				max = Math.max(max, i);
+			}
+		}
+		if (min > max) return 0;
+		// Use a bitset over the range of values, unless the range is too sparse for it
+		if ((long) max - min < (1 << 26)) {
+			IntBitSet items = new IntBitSet(max - min + 1);
+			for (int[] ints : array)
+				for (int i : ints) items.set(i - min);
+			return items.cardinality();
+		}
+		IntIntHashMap items = new IntIntHashMap();
 		for (int[] ints : array)
-			for (int i : ints)
-				if (!items.contains(i)) items.add(i);
+			for (int i : ints) items.put(i, 1);
 		return items.size();
 	}
 }
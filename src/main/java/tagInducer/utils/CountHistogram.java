@@ -0,0 +1,58 @@
+package tagInducer.utils;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of the non-zero values of a count matrix. Sums of a function over every cell of the
+ * matrix (e.g. the log rising factorials of a collapsed Dirichlet-multinomial likelihood) can then be
+ * evaluated once per distinct value instead of once per cell.
+ * The histogram is rebuilt in place, so it can be refreshed repeatedly without allocating.
+ */
+public class CountHistogram {
+	/** Values below this limit are counted in a dense array */
+	private static final int DENSE_LIMIT = 1 << 12;
+	/** Number of cells holding each (small) value */
+	private final long[] smallCounts = new long[DENSE_LIMIT];
+	/** The distinct small values seen (in order of appearance) */
+	private final int[] distinctSmall = new int[DENSE_LIMIT];
+	private int numDistinctSmall;
+	/** The (rare) values too large for the dense array, one entry per cell */
+	private int[] largeValues = new int[16];
+	private int numLarge;
+
+	/**
+	 * Replaces the contents of the histogram with the non-zero cells of a matrix
+	 */
+	public void build(int[][] cells) {
+		for (int i = 0; i < numDistinctSmall; i++) smallCounts[distinctSmall[i]] = 0;
+		numDistinctSmall = 0;
+		numLarge = 0;
+		for (int[] row : cells) {
+			for (int value : row) {
+				if (value == 0) continue;
+				if (value < DENSE_LIMIT) {
+					if (smallCounts[value]++ == 0) distinctSmall[numDistinctSmall++] = value;
+				}
+				else {
+					if (numLarge == largeValues.length) largeValues = Arrays.copyOf(largeValues, 2 * numLarge);
+					largeValues[numLarge++] = value;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The sum over all non-zero cells n of log Gamma(n + offset) - log Gamma(offset)
+	 */
+	public double sumLogRising(double offset) {
+		double logGammaOffset = MathsUtils.logGamma(offset);
+		double sum = 0;
+		for (int i = 0; i < numDistinctSmall; i++) {
+			int value = distinctSmall[i];
+			sum += smallCounts[value] * (MathsUtils.logGamma(value + offset) - logGammaOffset);
+		}
+		for (int i = 0; i < numLarge; i++)
+			sum += MathsUtils.logGamma(largeValues[i] + offset) - logGammaOffset;
+		return sum;
+	}
+}
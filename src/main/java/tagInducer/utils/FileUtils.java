@@ -3,6 +3,9 @@ package tagInducer.utils;
 import org.apache.commons.io.filefilter.RegexFileFilter;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -22,7 +25,14 @@ public class FileUtils {
 	}
 
 	public static BufferedWriter createOut(String fileStr) throws IOException {
-		FileOutputStream fos = new FileOutputStream(new File(fileStr), false);
+		return createOut(fileStr, false);
+	}
+
+	/**
+	 * @param append Whether to add to the end of an existing file (instead of truncating it)
+	 */
+	public static BufferedWriter createOut(String fileStr, boolean append) throws IOException {
+		FileOutputStream fos = new FileOutputStream(new File(fileStr), append);
 		OutputStreamWriter outStream;
 		if (fileStr.endsWith(".gz")) {
 			GZIPOutputStream gos = new GZIPOutputStream(fos);
@@ -32,6 +42,40 @@ public class FileUtils {
 		return new BufferedWriter(outStream);
 	}
 
+	/**
+	 * Replaces a file with a (fully written) temporary file, atomically if the file system allows it,
+	 * so that readers never see a partially written file.
+	 */
+	public static void moveAtomically(File tmpFile, File file) throws IOException {
+		try {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Writes a non-negative int using 1-5 bytes (7 bits per byte, least significant first)
+	 */
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException {
+		int value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+	}
+
 	public static String strip(String file) {
 		return file.substring(0,file.lastIndexOf('.'));
 	}
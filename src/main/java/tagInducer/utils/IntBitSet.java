@@ -0,0 +1,37 @@
+package tagInducer.utils;
+
+/**
+ * A fixed-size set of the ints in <code>[0, size)</code>, one bit per value.
+ */
+public class IntBitSet {
+	private final long[] words;
+
+	public IntBitSet(int size) {
+		words = new long[(size + 63) >>> 6];
+	}
+
+	public boolean get(int i) {
+		return (words[i >>> 6] & (1L << i)) != 0;
+	}
+
+	public void set(int i) {
+		words[i >>> 6] |= 1L << i;
+	}
+
+	/**
+	 * Adds a value to the set
+	 * @return true if the value was not already in the set
+	 */
+	public boolean add(int i) {
+		long word = words[i >>> 6];
+		words[i >>> 6] = word | (1L << i);
+		return (word & (1L << i)) == 0;
+	}
+
+	/** @return The number of values in the set */
+	public int cardinality() {
+		int count = 0;
+		for (long word : words) count += Long.bitCount(word);
+		return count;
+	}
+}
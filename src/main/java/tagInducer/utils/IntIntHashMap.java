@@ -0,0 +1,121 @@
+package tagInducer.utils;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing (linear probing) map from int keys to int values, without boxing.
+ * Absent keys have the value 0, which makes it directly usable as a counter.
+ * The entries can be visited by slot: for every <code>slot &lt; capacity()</code> with
+ * <code>isUsed(slot)</code>, use <code>keyAt(slot)</code> and <code>valueAt(slot)</code>.
+ */
+public class IntIntHashMap {
+	private int[] keys;
+	private int[] values;
+	private boolean[] used;
+	private int size;
+	private int mask;
+
+	public IntIntHashMap() {
+		this(16);
+	}
+
+	public IntIntHashMap(int expectedSize) {
+		allocate(tableSize(expectedSize));
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	/** The smallest power of two that keeps the load factor under 0.5 */
+	static int tableSize(int expectedSize) {
+		int capacity = 16;
+		while (capacity < 2L * expectedSize) capacity <<= 1;
+		return capacity;
+	}
+
+	/** Finds the slot of a key, or the free slot where it would be inserted */
+	private int slot(int key) {
+		int hash = key * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (used[slot] && keys[slot] != key) slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	public int get(int key) {
+		int slot = slot(key);
+		return used[slot] ? values[slot] : 0;
+	}
+
+	public boolean containsKey(int key) {
+		return used[slot(key)];
+	}
+
+	public void put(int key, int value) {
+		int slot = slot(key);
+		if (!used[slot]) {
+			if (2 * (size + 1) > keys.length) {
+				rehash();
+				slot = slot(key);
+			}
+			used[slot] = true;
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+	}
+
+	/**
+	 * Adds to the value of a key (starting from 0 if absent)
+	 * @return The new value
+	 */
+	public int increment(int key, int delta) {
+		int slot = slot(key);
+		if (!used[slot]) {
+			put(key, delta);
+			return delta;
+		}
+		return values[slot] += delta;
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys, oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(keys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (!oldUsed[i]) continue;
+			int slot = slot(oldKeys[i]);
+			used[slot] = true;
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	public int capacity() {
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot) {
+		return used[slot];
+	}
+
+	public int keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+}
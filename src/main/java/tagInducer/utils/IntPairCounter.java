@@ -0,0 +1,54 @@
+package tagInducer.utils;
+
+/**
+ * Counts (first, second) pairs of ints, e.g. (word type, feature), packed into a single long key.
+ */
+public class IntPairCounter extends LongIntHashMap {
+
+	public IntPairCounter() {
+		super();
+	}
+
+	public IntPairCounter(int expectedSize) {
+		super(expectedSize);
+	}
+
+	public static long pair(int first, int second) {
+		return ((long) first << 32) | (second & 0xFFFFFFFFL);
+	}
+
+	public static int first(long pair) {
+		return (int) (pair >> 32);
+	}
+
+	public static int second(long pair) {
+		return (int) pair;
+	}
+
+	public void increment(int first, int second) {
+		increment(pair(first, second), 1);
+	}
+
+	public int get(int first, int second) {
+		return get(pair(first, second));
+	}
+
+	public int firstAt(int slot) {
+		return first(keyAt(slot));
+	}
+
+	public int secondAt(int slot) {
+		return second(keyAt(slot));
+	}
+
+	/**
+	 * @return The counts as a dense matrix (the pairs must be valid (row, column) indices)
+	 */
+	public int[][] toDense(int rows, int columns) {
+		int[][] dense = new int[rows][columns];
+		for (int slot = 0; slot < capacity(); slot++) {
+			if (isUsed(slot)) dense[firstAt(slot)][secondAt(slot)] += valueAt(slot);
+		}
+		return dense;
+	}
+}
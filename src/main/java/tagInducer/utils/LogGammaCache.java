@@ -0,0 +1,46 @@
+package tagInducer.utils;
+
+/**
+ * A table of log-gamma values at the points <code>n + offset</code> for small integers n.
+ * Used to evaluate log rising factorials, log[x(x+1)...(x+c-1)] = logGamma(x+c) - logGamma(x),
+ * with two lookups instead of c logarithms. Arguments beyond the table are computed directly.
+ * The table is only valid for a single offset (e.g. a Dirichlet hyperparameter), so a new one
+ * has to be built whenever the hyperparameter changes.
+ */
+public class LogGammaCache {
+	private final double offset;
+	private final double[] table;
+
+	/**
+	 * @param offset The (non-integer) offset added to every argument
+	 * @param size The number of integer arguments to precompute (0 disables the table)
+	 */
+	public LogGammaCache(double offset, int size) {
+		this.offset = offset;
+		table = new double[size];
+		for (int n = 0; n < size; n++)
+			table[n] = MathsUtils.logGamma(n + offset);
+	}
+
+	public double getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return log Gamma(n + offset)
+	 */
+	public double logGamma(int n) {
+		if (n < table.length) return table[n];
+		return MathsUtils.logGamma(n + offset);
+	}
+
+	/**
+	 * @return log[(n+offset)(n+1+offset)...(n+c-1+offset)]
+	 */
+	public double logRising(int n, int c) {
+		if (n + c < table.length) return table[n + c] - table[n];
+		// A single factor is cheaper than two log-gamma evaluations
+		if (c == 1) return Math.log(n + offset);
+		return logGamma(n + c) - logGamma(n);
+	}
+}
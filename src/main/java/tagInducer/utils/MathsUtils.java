@@ -2,58 +2,104 @@ package tagInducer.utils;
 
 /**
  * A collection of statistical functions used during sampling.
+ * Every instance draws from its own {@link RandomSource}, so instances should not be shared between threads.
  */
 public class MathsUtils {
 
+    private static final double HALF_LOG_2PI = 0.5 * Math.log(2 * Math.PI);
+
+    private final RandomSource random;
+
+    /**
+     * Uses a randomly seeded generator (runs will not be reproducible)
+     */
+    public MathsUtils() {
+        this(new XoroshiroRandom(System.nanoTime()));
+    }
+
+    public MathsUtils(RandomSource random) {
+        this.random = random;
+    }
+
+    public RandomSource getRandom() {
+        return random;
+    }
+
+    /** @return A uniform sample in [0, 1) */
+    public double randUniform() {
+        return random.nextDouble();
+    }
+
+    /** @return A uniform sample in [0, n) */
+    public int randInt(int n) {
+        return random.nextInt(n);
+    }
+
     public double randNormal(double mean, double stdDev){
-        double r1 = Math.random();
-        double r2 = Math.random();
+        // Use (0, 1] to avoid log(0)
+        double r1 = 1 - random.nextDouble();
+        double r2 = random.nextDouble();
         return stdDev*Math.sqrt(-2*Math.log(r1))*Math.cos(2*Math.PI*r2)+mean;
     }
 
+    /**
+     * The natural logarithm of the gamma function (for positive arguments).
+     * Small arguments are shifted up with the recurrence Gamma(x+1) = x Gamma(x) and evaluated with
+     * Stirling's series, which is accurate to ~1e-14 for x >= 10.
+     */
+    public static double logGamma(double x) {
+        double shift = 0;
+        if (x < 10) {
+            double prod = 1;
+            while (x < 10) {
+                prod *= x;
+                x += 1;
+            }
+            shift = Math.log(prod);
+        }
+        double x2 = 1 / (x * x);
+        double series = (1.0/12 - x2*(1.0/360 - x2*(1.0/1260 - x2*(1.0/1680 - x2/1188)))) / x;
+        return (x - 0.5) * Math.log(x) - x + HALF_LOG_2PI + series - shift;
+    }
+
     public double densityNorm(double val, double mean, double stdDev){
         return 1.0/(stdDev*Math.sqrt(2*Math.PI))*Math.exp(-1*Math.pow(val-mean, 2)/(2*stdDev*stdDev));
     }
 
+    /**
+     * Multinomial sample from unnormalised probabilities (p is not modified)
+     */
     public int multSample(double[] p){
         int totObs = p.length;
-        double[] dist = new double[totObs];
-        System.arraycopy(p, 0, dist, 0, totObs);
-        int sample;
-        //Cumulate multinomial parameters
-        for (sample = 1; sample < totObs; sample++) {
-            dist[sample] += dist[sample-1];
-        }
+        double total = 0;
+        for (int sample = 0; sample < totObs; sample++) total += p[sample];
         //Sample from the cumulative distribution
         //Scaled sample because of unnormalised p[]
-        double u = Math.random()*dist[totObs-1];
-        for (sample = 0; sample < totObs; sample++) {
-            if (dist[sample] > u) break;
+        double u = random.nextDouble()*total;
+        int last = 0;
+        for (int sample = 0; sample < totObs; sample++) {
+            if (p[sample] <= 0) continue;
+            u -= p[sample];
+            if (u < 0) return sample;
+            last = sample;
         }
-        return sample;
+        //Only reached through rounding errors
+        return last;
     }
 
     /**
-     * Multinomial sample in log-space
+     * Multinomial sample in log-space.
+     * The log probabilities are normalised by subtracting their maximum (so the largest becomes exp(0) = 1)
+     * and are exponentiated <b>in place</b>: p holds the unnormalised probabilities afterwards.
      */
     public int multSampleLog(double[] p){
-        int totObs = p.length;
-        double[] dist = new double[totObs];
-        System.arraycopy(p, 0, dist, 0, totObs);
-        double min = 0; double max = Double.NEGATIVE_INFINITY;
-        for (int sample = 0; sample < totObs; sample++) {
-            if (dist[sample] < min) min = dist[sample];
-            if (dist[sample] > max) max = dist[sample];
+        double max = Double.NEGATIVE_INFINITY;
+        for (double logP : p) {
+            if (logP > max) max = logP;
         }
-        boolean mult = false;
-        if (max < -100) mult = true;
-        for (int sample = 0; sample < totObs; sample++) {
-            if (mult) {
-                double div = min/(-100);
-                dist[sample] = Math.exp(dist[sample]/div);
-            }
-            else dist[sample] = Math.exp(dist[sample]);
+        for (int sample = 0; sample < p.length; sample++) {
+            p[sample] = Math.exp(p[sample] - max);
         }
-        return multSample(dist);
+        return multSample(p);
     }
 }
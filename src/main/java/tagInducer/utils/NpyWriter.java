@@ -0,0 +1,116 @@
+package tagInducer.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Writes a (C order, little-endian) int32 or float32 array in the NumPy <code>.npy</code> format (version 1.0),
+ * so that it can be loaded with <code>numpy.load(file, mmap_mode='r')</code>.
+ * The values are written in row-major order through a buffered file channel, to a temporary file that
+ * replaces the target file once every value has been written.
+ */
+public class NpyWriter implements Closeable {
+	private static final byte[] MAGIC = {(byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 1, 0};
+	/** The data starts at a multiple of this (as written by NumPy) */
+	private static final int ALIGNMENT = 64;
+
+	private final File file, tmp;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private final long size;
+	private long written;
+
+	/**
+	 * @param floats Whether the values are float32 (otherwise int32)
+	 * @param shape The dimensions of the array
+	 */
+	public NpyWriter(String file, boolean floats, long... shape) throws IOException {
+		this.file = new File(file);
+		this.tmp = new File(file + ".tmp");
+		long size = 1;
+		for (long dim : shape) size *= dim;
+		this.size = size;
+		String shapeStr = Arrays.toString(shape).replace('[', '(').replace(']', ')');
+		//A one-dimensional shape needs a trailing comma to be a tuple
+		if (shape.length == 1) shapeStr = shapeStr.replace(")", ",)");
+		String header = "{'descr': '" + (floats ? "<f4" : "<i4") + "', 'fortran_order': False, 'shape': " + shapeStr + ", }";
+		int headerLength = header.length() + 1;
+		int padding = (ALIGNMENT - (MAGIC.length + 2 + headerLength) % ALIGNMENT) % ALIGNMENT;
+		StringBuilder padded = new StringBuilder(header);
+		for (int i = 0; i < padding; i++) padded.append(' ');
+		padded.append('\n');
+		channel = new FileOutputStream(tmp).getChannel();
+		buffer.put(MAGIC);
+		buffer.putShort((short) padded.length());
+		buffer.put(padded.toString().getBytes(Charset.forName("US-ASCII")));
+	}
+
+	public void writeInt(int value) throws IOException {
+		if (buffer.remaining() < 4) flush();
+		buffer.putInt(value);
+		written++;
+	}
+
+	public void writeFloat(float value) throws IOException {
+		if (buffer.remaining() < 4) flush();
+		buffer.putFloat(value);
+		written++;
+	}
+
+	public void writeInts(int[] values) throws IOException {
+		for (int value : values) writeInt(value);
+	}
+
+	public void writeFloats(float[] values) throws IOException {
+		for (float value : values) writeFloat(value);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Completes the file (an incomplete array is discarded)
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			channel.close();
+		}
+		if (written != size) {
+			if (!tmp.delete()) tmp.deleteOnExit();
+			throw new IOException("Wrote " + written + " of the " + size + " values of " + file);
+		}
+		FileUtils.moveAtomically(tmp, file);
+	}
+
+	/**
+	 * Writes a whole int32 array
+	 */
+	public static void write(String file, int[] values, long... shape) throws IOException {
+		try (NpyWriter out = new NpyWriter(file, false, shape)) {
+			out.writeInts(values);
+		}
+	}
+
+	/**
+	 * Writes a whole float32 array
+	 */
+	public static void write(String file, float[] values, long... shape) throws IOException {
+		try (NpyWriter out = new NpyWriter(file, true, shape)) {
+			out.writeFloats(values);
+		}
+	}
+}
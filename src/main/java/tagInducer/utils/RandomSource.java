@@ -0,0 +1,34 @@
+package tagInducer.utils;
+
+/**
+ * A source of random numbers for the sampler. Unlike {@link Math#random()} an instance is not shared
+ * (or synchronised), so every thread should use its own stream obtained through {@link #split()}.
+ */
+public interface RandomSource {
+
+	/**
+	 * @return A uniformly distributed double in [0, 1)
+	 */
+	double nextDouble();
+
+	/**
+	 * @return A uniformly distributed int in [0, bound)
+	 */
+	int nextInt(int bound);
+
+	/**
+	 * Creates a new, statistically independent, stream. The result only depends on the state of this source,
+	 * so splitting in a fixed order gives reproducible per-thread streams.
+	 */
+	RandomSource split();
+
+	/**
+	 * @return A copy of the internal state (e.g. for checkpointing)
+	 */
+	long[] getState();
+
+	/**
+	 * Restores a state previously returned by {@link #getState()}
+	 */
+	void setState(long[] state);
+}
@@ -1,47 +1,239 @@
 package tagInducer.utils;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
+/**
+ * A map from strings to dense integer codes (in order of appearance) and back.
+ * The strings are stored once, as UTF-8 bytes packed in a single arena (indexed by an array of offsets),
+ * and looked up through an open-addressing table of codes, so there are no per-entry objects.
+ * A coder can be frozen once complete: it is then read-only (and safe to share between threads)
+ * and can be written to (and read from) a flat binary form.
+ */
 public class StringCoder {
-	
-	private Map<String, Integer> string2int;
-	private Map<Integer, String> int2string;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** The UTF-8 bytes of all the strings, one after the other */
+	private byte[] arena;
+	private int arenaSize;
+	/** The start of each string in the arena (size+1 entries) */
+	private int[] offsets;
+	/** The hash code of each string */
+	private int[] hashes;
+	/** Open-addressing table of codes (-1 for empty slots) */
+	private int[] table;
+	private int mask;
 	private int counter;
+	private boolean frozen;
+	/** The code of the null string (which is not kept in the table), or -1 */
+	private int nullCode = -1;
 
 	public StringCoder(){
-		string2int = new HashMap<>();
-		int2string = new HashMap<>();
+		arena = new byte[256];
+		offsets = new int[17];
+		hashes = new int[16];
+		allocateTable(IntIntHashMap.tableSize(16));
 		counter = 0;
 	}
-	
+
+	private void allocateTable(int capacity) {
+		table = new int[capacity];
+		Arrays.fill(table, -1);
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return The code of the string (a new one is assigned if the string is unseen)
+	 * @throws IllegalStateException If the string is unseen and the coder is frozen
+	 */
 	public int encode(String string){
-		if (string2int.containsKey(string)) return string2int.get(string);
-		string2int.put(string, counter);
-		int2string.put(counter, string);
-		counter++;
-		return counter-1;
+		if (string == null) {
+			if (nullCode < 0) {
+				checkNotFrozen(null);
+				add(new byte[0], 0);
+				nullCode = counter - 1;
+			}
+			return nullCode;
+		}
+		int hash = string.hashCode();
+		int slot = slot(string, hash);
+		if (table[slot] >= 0) return table[slot];
+		checkNotFrozen(string);
+		if (2 * (counter + 1) > table.length) {
+			rehash();
+			slot = slot(string, hash);
+		}
+		add(string.getBytes(UTF8), hash);
+		table[slot] = counter - 1;
+		return counter - 1;
 	}
-	
+
+	/**
+	 * @return The code of the string, or -1 if it has not been seen
+	 */
+	public int getId(String string) {
+		if (string == null) return nullCode;
+		return table[slot(string, string.hashCode())];
+	}
+
 	public String decode(int code){
-		return int2string.get(code);
+		if (code < 0 || code >= counter || code == nullCode) return null;
+		return new String(arena, offsets[code], offsets[code + 1] - offsets[code], UTF8);
 	}
-	
+
 	public int size(){
-		//Should be equal to int2string
-		return string2int.size();
+		return counter;
 	}
 
 	public boolean exists(String word) {
-		return string2int.containsKey(word);
+		return getId(word) >= 0;
+	}
+
+	private void checkNotFrozen(String string) {
+		if (frozen) throw new IllegalStateException("Cannot add '" + string + "' to a frozen StringCoder");
+	}
+
+	/**
+	 * Makes the coder read-only and trims its arrays to their final size
+	 */
+	public void freeze() {
+		if (frozen) return;
+		frozen = true;
+		arena = Arrays.copyOf(arena, arenaSize);
+		offsets = Arrays.copyOf(offsets, counter + 1);
+		hashes = Arrays.copyOf(hashes, counter);
+	}
+
+	public boolean isFrozen() {
+		return frozen;
 	}
 
+	/** @return A copy of the set of codes */
 	public Set<Integer> intSet() {
-		return int2string.keySet();
+		Set<Integer> codes = new LinkedHashSet<>();
+		for (int code = 0; code < counter; code++) codes.add(code);
+		return codes;
 	}
-	
+
+	/** @return A copy of the set of strings */
 	public Set<String> stringSet(){
-		return string2int.keySet();
+		Set<String> strings = new LinkedHashSet<>();
+		for (int code = 0; code < counter; code++) strings.add(decode(code));
+		return strings;
+	}
+
+	/**
+	 * Writes the coder in a flat binary form: the sizes, the offsets, the hashes, the arena
+	 * and the lookup table (as big-endian ints, read back in bulk by {@link #read(ChannelReader)}).
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(counter);
+		out.writeInt(arenaSize);
+		out.writeInt(table.length);
+		out.writeInt(nullCode);
+		for (int code = 0; code <= counter; code++) out.writeInt(offsets[code]);
+		for (int code = 0; code < counter; code++) out.writeInt(hashes[code]);
+		for (int slot : table) out.writeInt(slot);
+		out.write(arena, 0, arenaSize);
+	}
+
+	/**
+	 * Reads a coder written by {@link #write(DataOutput)}
+	 * @return A frozen coder
+	 */
+	public static StringCoder read(ChannelReader in) throws IOException {
+		StringCoder coder = new StringCoder();
+		coder.counter = in.getInt();
+		coder.arenaSize = in.getInt();
+		int tableSize = in.getInt();
+		coder.nullCode = in.getInt();
+		coder.offsets = new int[coder.counter + 1];
+		coder.hashes = new int[coder.counter];
+		coder.table = new int[tableSize];
+		coder.mask = tableSize - 1;
+		coder.arena = new byte[coder.arenaSize];
+		in.getInts(coder.offsets);
+		in.getInts(coder.hashes);
+		in.getInts(coder.table);
+		in.get(coder.arena);
+		coder.frozen = true;
+		return coder;
+	}
+
+	/** Finds the slot of a string, or the empty slot where it would be inserted */
+	private int slot(String string, int hash) {
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		int code;
+		while ((code = table[slot]) >= 0) {
+			if (hashes[code] == hash && equalsAt(code, string)) return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void add(byte[] bytes, int hash) {
+		if (arenaSize + bytes.length > arena.length)
+			arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + bytes.length));
+		if (counter == hashes.length) {
+			hashes = Arrays.copyOf(hashes, hashes.length * 2);
+			offsets = Arrays.copyOf(offsets, hashes.length + 1);
+		}
+		System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+		arenaSize += bytes.length;
+		hashes[counter] = hash;
+		offsets[++counter] = arenaSize;
+	}
+
+	private void rehash() {
+		allocateTable(table.length << 1);
+		for (int code = 0; code < counter; code++) {
+			// The null string is not kept in the table (its empty bytes would match "")
+			if (code == nullCode) continue;
+			int slot = (hashes[code] ^ (hashes[code] >>> 16)) & mask;
+			while (table[slot] >= 0) slot = (slot + 1) & mask;
+			table[slot] = code;
+		}
+	}
+
+	/**
+	 * Compares a string with the UTF-8 bytes of a code, encoding the string on the fly (without allocating)
+	 */
+	private boolean equalsAt(int code, String string) {
+		int pos = offsets[code], end = offsets[code + 1];
+		int length = string.length();
+		for (int i = 0; i < length; i++) {
+			int c = string.charAt(i);
+			if (c < 0x80) {
+				if (pos >= end || arena[pos++] != c) return false;
+				continue;
+			}
+			if (Character.isHighSurrogate((char) c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1)))
+				c = Character.toCodePoint((char) c, string.charAt(++i));
+			// Unpaired surrogates are encoded as '?' (as String.getBytes does)
+			else if (Character.isSurrogate((char) c)) c = '?';
+			if (c < 0x80) {
+				if (pos >= end || arena[pos++] != c) return false;
+			}
+			else if (c < 0x800) {
+				if (pos + 2 > end || arena[pos++] != (byte) (0xC0 | (c >> 6)) ||
+						arena[pos++] != (byte) (0x80 | (c & 0x3F))) return false;
+			}
+			else if (c < 0x10000) {
+				if (pos + 3 > end || arena[pos++] != (byte) (0xE0 | (c >> 12)) ||
+						arena[pos++] != (byte) (0x80 | ((c >> 6) & 0x3F)) ||
+						arena[pos++] != (byte) (0x80 | (c & 0x3F))) return false;
+			}
+			else {
+				if (pos + 4 > end || arena[pos++] != (byte) (0xF0 | (c >> 18)) ||
+						arena[pos++] != (byte) (0x80 | ((c >> 12) & 0x3F)) ||
+						arena[pos++] != (byte) (0x80 | ((c >> 6) & 0x3F)) ||
+						arena[pos++] != (byte) (0x80 | (c & 0x3F))) return false;
+			}
+		}
+		return pos == end;
 	}
 }
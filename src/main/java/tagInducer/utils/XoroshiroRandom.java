@@ -0,0 +1,88 @@
+package tagInducer.utils;
+
+/**
+ * The xoroshiro128+ generator of Blackman &amp; Vigna (2018): fast, lock-free and with a 2^128-1 period.
+ * Seeds are expanded with SplitMix64 and independent streams are created with the generator's
+ * jump function (each jump advances the state by 2^64 steps).
+ */
+public class XoroshiroRandom implements RandomSource {
+	private static final long[] JUMP = {0xdf900294d8f554a5L, 0x170865df4b3201fcL};
+
+	private long s0, s1;
+
+	public XoroshiroRandom(long seed) {
+		long x = seed;
+		x += 0x9e3779b97f4a7c15L;
+		s0 = mix(x);
+		x += 0x9e3779b97f4a7c15L;
+		s1 = mix(x);
+	}
+
+	private XoroshiroRandom(long s0, long s1) {
+		this.s0 = s0;
+		this.s1 = s1;
+	}
+
+	/** The SplitMix64 output function */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	public long nextLong() {
+		long a = s0;
+		long b = s1;
+		long result = a + b;
+		b ^= a;
+		s0 = Long.rotateLeft(a, 24) ^ b ^ (b << 16);
+		s1 = Long.rotateLeft(b, 37);
+		return result;
+	}
+
+	@Override
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	@Override
+	public int nextInt(int bound) {
+		return (int) (((nextLong() >>> 32) * bound) >>> 32);
+	}
+
+	/**
+	 * The new stream continues from the current state, while this one jumps 2^64 steps ahead.
+	 */
+	@Override
+	public RandomSource split() {
+		XoroshiroRandom child = new XoroshiroRandom(s0, s1);
+		jump();
+		return child;
+	}
+
+	private void jump() {
+		long j0 = 0, j1 = 0;
+		for (long jump : JUMP) {
+			for (int bit = 0; bit < 64; bit++) {
+				if ((jump & (1L << bit)) != 0) {
+					j0 ^= s0;
+					j1 ^= s1;
+				}
+				nextLong();
+			}
+		}
+		s0 = j0;
+		s1 = j1;
+	}
+
+	@Override
+	public long[] getState() {
+		return new long[]{s0, s1};
+	}
+
+	@Override
+	public void setState(long[] state) {
+		s0 = state[0];
+		s1 = state[1];
+	}
+}
@@ -41,4 +41,17 @@ public class EvaluatorTest extends TestCase {
         assertEquals(90.0, evaluator.VMeasure()[0], 1.0);
         assertEquals(0, evaluator.VI(), 1.0);
     }
-}
\ No newline at end of file
+
+    public void testClusteringAgreement() {
+        // The same partition with different (and non-contiguous) labels
+        int[] clusters = {0, 0, 1, 1, 2, 2};
+        int[] relabelled = {7, 7, 3, 3, 5, 5};
+        evaluator = new Evaluator(clusters, relabelled);
+        assertEquals(100.0, evaluator.VMeasure()[0], 1e-9);
+        assertEquals(0, evaluator.VI(), 1e-9);
+        int[] merged = {1, 1, 1, 1, 2, 2};
+        evaluator = new Evaluator(clusters, merged);
+        assertTrue(evaluator.VMeasure()[0] < 100.0);
+        assertTrue(evaluator.VI() > 0);
+    }
+}
@@ -0,0 +1,290 @@
+package tagInducer;
+
+import junit.framework.TestCase;
+import tagInducer.features.SparseFeatures;
+import tagInducer.monitor.HyperStats;
+import tagInducer.monitor.SamplerListener;
+import tagInducer.monitor.SweepStats;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class GibbsSamplerTest extends TestCase {
+    private static final int NUM_TYPES = 50;
+    private static final int NUM_CLASSES = 4;
+
+    private GibbsSampler sampler;
+    private Map<String, SparseFeatures> features;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        Random random = new Random(42);
+        features = new HashMap<>();
+        for (String featType : new String[]{"A", "B"}) {
+            int[][] dense = new int[NUM_TYPES][featType.equals("A") ? 12 : 5];
+            for (int[] row : dense)
+                for (int feature = 0; feature < row.length; feature++)
+                    if (random.nextDouble() < 0.3) row[feature] = 1 + random.nextInt(6);
+            features.put(featType, SparseFeatures.fromDense(dense));
+        }
+        Options options = new OptionsCmdLine(new String[]{"-classes", Integer.toString(NUM_CLASSES), "-seed", "1"});
+        sampler = new GibbsSampler(features, NUM_TYPES, options);
+        sampler.initialise(NUM_CLASSES);
+        sampler.setRunParameters(10);
+        sampler.gibbs();
+    }
+
+    public void testClosedFormPrior() {
+        // Replay the assignments one type at a time with the predictive probabilities
+        double alpha = sampler.getHyperClass();
+        int[] z = sampler.getCurrentAssignment();
+        int[] cumTypesPerClass = new int[NUM_CLASSES];
+        double expected = 0;
+        for (int type = 0; type < NUM_TYPES; type++) {
+            expected += Math.log((cumTypesPerClass[z[type]] + alpha) / (type + NUM_CLASSES * alpha));
+            cumTypesPerClass[z[type]]++;
+        }
+        assertEquals(expected, sampler.totalLogPrior(alpha), 1e-8);
+    }
+
+    public void testClosedFormLikelihood() {
+        double[] hyperFeats = {0.05, 0.3};
+        int[] z = sampler.getCurrentAssignment();
+        String[] featTypes = features.keySet().toArray(new String[0]);
+        double expected = 0;
+        for (int f = 0; f < featTypes.length; f++) {
+            SparseFeatures feats = features.get(featTypes[f]);
+            double beta = hyperFeats[f];
+            int[][] cumClassTokens = new int[NUM_CLASSES][feats.getNumFeatures()];
+            int[] cumTotClassTokens = new int[NUM_CLASSES];
+            for (int type = 0; type < NUM_TYPES; type++) {
+                int cluster = z[type];
+                for (int i = feats.getOffsets()[type]; i < feats.getOffsets()[type + 1]; i++) {
+                    int feature = feats.getIndices()[i];
+                    for (int token = 0; token < feats.getCounts()[i]; token++) {
+                        expected += Math.log((cumClassTokens[cluster][feature]++ + beta) /
+                                (cumTotClassTokens[cluster]++ + feats.getNumFeatures() * beta));
+                    }
+                }
+            }
+        }
+        assertEquals(expected, sampler.totalLogLikelihood(hyperFeats), 1e-8 * Math.abs(expected));
+    }
+
+    public void testResumeFromCheckpoint() throws Exception {
+        File checkpoint = File.createTempFile("sampler", ".ckpt");
+        checkpoint.deleteOnExit();
+        String[] args = {"-classes", Integer.toString(NUM_CLASSES), "-seed", "3",
+                "-checkpoint", "10", "-checkpoint-file", checkpoint.getPath()};
+        GibbsSampler full = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(args));
+        full.initialise(NUM_CLASSES);
+        full.setRunParameters(20);
+        full.gibbs();
+
+        GibbsSampler resumed = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(new String[]{
+                "-classes", Integer.toString(NUM_CLASSES), "-seed", "99"}));
+        resumed.initialise(NUM_CLASSES);
+        resumed.setRunParameters(20);
+        resumed.restore(checkpoint.getPath());
+        resumed.gibbs();
+        assertTrue(Arrays.equals(full.getCurrentAssignment(), resumed.getCurrentAssignment()));
+        assertEquals(full.getHyperClass(), resumed.getHyperClass());
+        assertEquals(full.getBestClassLogP(), resumed.getBestClassLogP());
+    }
+
+    public void testParallelSweeps() throws Exception {
+        File checkpoint = File.createTempFile("sampler", ".ckpt");
+        checkpoint.deleteOnExit();
+        String[] args = {"-classes", Integer.toString(NUM_CLASSES), "-seed", "13", "-threads", "3",
+                "-checkpoint", "10", "-checkpoint-file", checkpoint.getPath()};
+        GibbsSampler parallel = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(args));
+        parallel.initialise(NUM_CLASSES);
+        parallel.setRunParameters(20);
+        parallel.gibbs();
+
+        // The merged deltas leave the global counts equal to the counts of the assignments
+        int[] z = parallel.getCurrentAssignment();
+        ClusterCounts expected = new ClusterCounts(parallel.getFeatures(), NUM_CLASSES);
+        for (int type = 0; type < NUM_TYPES; type++) expected.add(type, z[type]);
+        ClusterCounts counts = parallel.getCounts();
+        assertTrue(Arrays.equals(expected.typesPerClass, counts.typesPerClass));
+        assertTrue(Arrays.deepEquals(expected.featuresPerClass, counts.featuresPerClass));
+        assertTrue(Arrays.deepEquals(expected.sumClassFeatures, counts.sumClassFeatures));
+
+        // Every worker has its own split of the random source, so the run is reproducible
+        GibbsSampler rerun = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(args));
+        rerun.initialise(NUM_CLASSES);
+        rerun.setRunParameters(20);
+        rerun.gibbs();
+        assertTrue(Arrays.equals(z, rerun.getCurrentAssignment()));
+        assertEquals(parallel.getHyperClass(), rerun.getHyperClass());
+
+        // ...including when resumed (with the workers' random states) from a checkpoint
+        GibbsSampler resumed = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(new String[]{
+                "-classes", Integer.toString(NUM_CLASSES), "-seed", "99", "-threads", "3"}));
+        resumed.initialise(NUM_CLASSES);
+        resumed.setRunParameters(20);
+        resumed.restore(checkpoint.getPath());
+        resumed.gibbs();
+        assertTrue(Arrays.equals(z, resumed.getCurrentAssignment()));
+        assertEquals(parallel.getBestClassLogP(), resumed.getBestClassLogP());
+    }
+
+    public void testBestState() {
+        BestState best = new BestState(2, NUM_CLASSES, true, 2);
+        best.update(new int[]{1, 3}, new double[][]{{-3, -1, -4, -2}, {-2, -2, -5, -1}});
+        int[] first = best.getAssignment();
+        assertTrue(Arrays.equals(new int[]{1, 3, 3, 0}, best.getClasses()));
+        assertTrue(Arrays.equals(new float[]{-1, -2, -1, -2}, best.getDistributions()));
+        assertEquals("3:-1.0, 0:-2.0", best.toString(1));
+
+        best.update(new int[]{2, 0}, new double[][]{{-3, -1, -0.5, -2}, {-2, -2, -5, -1}});
+        // The previous best state is kept until the next improvement, whose buffers it then reuses
+        assertTrue(Arrays.equals(new int[]{1, 3}, first));
+        assertTrue(Arrays.equals(new int[]{2, 0}, best.getAssignment()));
+        assertEquals("2:-0.5, 1:-1.0", best.toString(0));
+        best.update(new int[]{0, 0}, new double[][]{{0, -1, -2, -3}, {0, -1, -2, -3}});
+        assertSame(first, best.getAssignment());
+    }
+
+    public void testPosteriorCollector() throws Exception {
+        PosteriorCollector collector = new PosteriorCollector(1, 2);
+        collector.add(0, new double[]{Math.log(0.5), Math.log(0.2), Math.log(0.3)});
+        collector.sampleDone();
+        collector.add(0, new double[]{Math.log(0.1), Math.log(0.2), Math.log(0.7)});
+        collector.sampleDone();
+        // Cluster 2 replaces the smallest slot (cluster 1), which cannot re-enter with less mass than cluster 2 has
+        assertEquals("2:0.5, 0:0.3", collector.toString(0).replaceAll("(\\.\\d)\\d*", "$1"));
+
+        // With every class kept, each collected sweep adds a normalised distribution per type
+        GibbsSampler averaged = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(new String[]{
+                "-classes", Integer.toString(NUM_CLASSES), "-seed", "1", "-posterior", "-posterior-topk", "10"}));
+        averaged.initialise(NUM_CLASSES);
+        averaged.setRunParameters(100);
+        averaged.gibbs();
+        PosteriorCollector posteriors = averaged.getPosteriors();
+        // The sweeps at temperature 1 after the (50 iteration) annealing phase, until the cooling phase at 80
+        assertEquals(6, posteriors.getNumSamples());
+        assertEquals(NUM_CLASSES, posteriors.getTopK());
+        for (int type = 0; type < NUM_TYPES; type++) {
+            double total = 0;
+            for (int slot = type * NUM_CLASSES; slot < (type + 1) * NUM_CLASSES; slot++) total += posteriors.getMass()[slot];
+            assertEquals(6, total, 1e-4);
+        }
+    }
+
+    public void testEarlyStopping() throws Exception {
+        File checkpoint = File.createTempFile("sampler", ".ckpt");
+        checkpoint.deleteOnExit();
+        // Loose enough criteria to converge as soon as they are checked
+        String[] args = {"-classes", Integer.toString(NUM_CLASSES), "-seed", "5", "-converge-tol", "1e9",
+                "-converge-changes", "1.01", "-converge-window", "10", "-checkpoint", "70",
+                "-checkpoint-file", checkpoint.getPath()};
+        final List<SweepStats> sweeps = new ArrayList<>();
+        GibbsSampler stopped = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(args));
+        stopped.addListener(new SamplerListener() {
+            public void sweepCompleted(SweepStats stats) {sweeps.add(stats);}
+            public void hyperSampled(HyperStats stats) {}
+            public void samplingFinished() {}
+        });
+        stopped.initialise(NUM_CLASSES);
+        stopped.setRunParameters(100);
+        stopped.gibbs();
+        // Converged a window after the (50 iteration) annealing phase, then ran the 20 cooling iterations
+        assertEquals(60, stopped.getConvergedIteration());
+        assertEquals(80, sweeps.size());
+        assertEquals(1.0, sweeps.get(59).getTemperature());
+        assertEquals(Math.pow(1.11, 4), sweeps.get(79).getTemperature(), 1e-12);
+
+        // Resuming after the convergence point continues the compressed schedule
+        GibbsSampler resumed = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(new String[]{
+                "-classes", Integer.toString(NUM_CLASSES), "-seed", "99"}));
+        resumed.initialise(NUM_CLASSES);
+        resumed.setRunParameters(100);
+        resumed.restore(checkpoint.getPath());
+        resumed.gibbs();
+        assertEquals(60, resumed.getConvergedIteration());
+        assertTrue(Arrays.equals(stopped.getCurrentAssignment(), resumed.getCurrentAssignment()));
+    }
+
+    public void testSparseSampler() throws Exception {
+        int numClasses = 20;
+        GibbsSampler sparse = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(new String[]{
+                "-classes", Integer.toString(numClasses), "-seed", "7", "-sampler", "sparse"}));
+        sparse.initialise(numClasses);
+        sparse.setRunParameters(20);
+        sparse.gibbs();
+
+        // The buckets give the same conditionals as the dense sampler
+        for (double temperature : new double[]{0.5, 1, Math.pow(1.11, 4)}) {
+            for (int type = 0; type < NUM_TYPES; type++) {
+                double[] dense = sparse.clusterProbabilities(type, temperature, false);
+                double[] buckets = sparse.clusterProbabilities(type, temperature, true);
+                for (int cluster = 0; cluster < numClasses; cluster++)
+                    assertEquals(dense[cluster], buckets[cluster], 1e-9);
+            }
+        }
+
+        // The index of the clusters of every feature is kept up to date with the counts
+        ClusterCounts counts = sparse.getCounts();
+        for (int f = 0; f < counts.clusterBits.length; f++)
+            for (int feature = 0; feature < counts.clusterBits[f].length; feature++)
+                for (int cluster = 0; cluster < numClasses; cluster++)
+                    assertEquals(counts.featuresPerClass[f][cluster][feature] > 0,
+                            (counts.clusterBits[f][feature][cluster >>> 6] & (1L << cluster)) != 0);
+    }
+
+    public void testAliasSampler() throws Exception {
+        int numClasses = 20;
+        GibbsSampler alias = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(new String[]{
+                "-classes", Integer.toString(numClasses), "-seed", "11", "-sampler", "alias", "-alias-rebuild", "7"}));
+        alias.initialise(numClasses);
+        alias.setRunParameters(20);
+        alias.gibbs();
+
+        // Resampling a single type (with the other assignments fixed) visits the clusters with their exact conditional
+        int numSamples = 100000;
+        for (int type : new int[]{0, 17}) {
+            double[] expected = alias.clusterProbabilities(type, 1, false);
+            double[] visits = new double[numClasses];
+            for (int sample = 0; sample < numSamples; sample++) visits[alias.sampleCluster(type, 1)]++;
+            for (int cluster = 0; cluster < numClasses; cluster++)
+                assertEquals(expected[cluster], visits[cluster] / numSamples, 0.01);
+        }
+    }
+
+    public void testListener() throws Exception {
+        final List<SweepStats> sweeps = new ArrayList<>();
+        final List<HyperStats> hypers = new ArrayList<>();
+        GibbsSampler monitored = new GibbsSampler(features, NUM_TYPES, new OptionsCmdLine(new String[]{
+                "-classes", Integer.toString(NUM_CLASSES), "-seed", "1"}));
+        monitored.addListener(new SamplerListener() {
+            public void sweepCompleted(SweepStats stats) {sweeps.add(stats);}
+            public void hyperSampled(HyperStats stats) {hypers.add(stats);}
+            public void samplingFinished() {}
+        });
+        monitored.initialise(NUM_CLASSES);
+        monitored.setRunParameters(10);
+        monitored.gibbs();
+        // Listening does not change the run
+        assertTrue(Arrays.equals(sampler.getCurrentAssignment(), monitored.getCurrentAssignment()));
+
+        assertEquals(10, sweeps.size());
+        assertEquals(2, hypers.size());
+        for (SweepStats stats : sweeps) {
+            int total = 0;
+            for (int size : stats.getClusterSizes()) total += size;
+            assertEquals(NUM_TYPES, total);
+            assertTrue(stats.getTypesChanged() >= 0 && stats.getTypesChanged() <= NUM_TYPES);
+        }
+        HyperStats last = hypers.get(1);
+        assertEquals(10, last.getIteration());
+        assertEquals(monitored.getBestClassLogP(), last.getBestLogPosterior());
+        assertEquals(monitored.getHyperClass(), last.getHyperClass());
+    }
+}
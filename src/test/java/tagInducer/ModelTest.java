@@ -0,0 +1,88 @@
+package tagInducer;
+
+import junit.framework.TestCase;
+import tagInducer.corpus.Corpus;
+import tagInducer.features.SparseFeatures;
+import tagInducer.utils.ChannelReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+public class ModelTest extends TestCase {
+    private static final int NUM_CLASSES = 3;
+
+    private Corpus corpus;
+    private GibbsSampler sampler;
+    private Model model;
+    private File file;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        Options o = new OptionsCmdLine(new String[]{"-in", "src/test/resources/test.conll", "-classes",
+                Integer.toString(NUM_CLASSES), "-context-feats", "4", "-seed", "1"});
+        corpus = new Corpus(o);
+        Map<String, SparseFeatures> features = Inducer.extractFeatures(corpus, o);
+        sampler = new GibbsSampler(features, corpus.getNumTypes(), o);
+        sampler.initialise(NUM_CLASSES);
+        sampler.setRunParameters(10);
+        sampler.gibbs();
+        file = File.createTempFile("bmmm", ".model");
+        file.deleteOnExit();
+        Model.fromSampler(sampler, corpus, o).write(file.getPath());
+        model = Model.read(file.getPath());
+    }
+
+    public void testReadBack() {
+        assertEquals(corpus.getNumTypes(), model.getNumTypes());
+        assertEquals(sampler.getHyperClass(), model.hyperClass);
+        assertTrue(Arrays.equals(sampler.getHyperFeats(), model.hyperFeats));
+        assertEquals(4, model.contextWords.size());
+        ClusterCounts counts = new ClusterCounts(sampler.getFeatures(), NUM_CLASSES);
+        int[] z = sampler.getFinalAssignment();
+        for (int type = 0; type < z.length; type++) {
+            counts.add(type, z[type]);
+            assertEquals(z[type], model.getCluster(corpus.getWordString(type)));
+        }
+        assertTrue(Arrays.equals(counts.typesPerClass, model.typesPerClass));
+        assertTrue(Arrays.deepEquals(counts.featuresPerClass, model.featuresPerClass));
+        assertTrue(Arrays.deepEquals(counts.sumClassFeatures, model.sumClassFeatures));
+    }
+
+    public void testReadInSmallBuffer() throws Exception {
+        // A buffer much smaller than the file, so the values and arrays cross its boundaries
+        try (ChannelReader in = new ChannelReader(new FileInputStream(file).getChannel(), 13)) {
+            Model small = Model.read(in, file.getPath());
+            assertEquals(model.hyperClass, small.hyperClass);
+            assertEquals(model.contextWords.size(), small.contextWords.size());
+            assertEquals(model.getCluster(corpus.getWordString(3)), small.getCluster(corpus.getWordString(3)));
+            assertTrue(Arrays.equals(model.typesPerClass, small.typesPerClass));
+            assertTrue(Arrays.deepEquals(model.featuresPerClass, small.featuresPerClass));
+        }
+    }
+
+    public void testTagging() throws Exception {
+        Tagger tagger = new Tagger(model, null);
+        // The training text is tagged with the trained clusters
+        String[][] sentences = corpus.getCorpusOriginalSents();
+        assertTrue(Arrays.deepEquals(corpus.tokenClusters(sampler.getFinalAssignment()), tagger.tag(sentences)));
+        assertEquals(0, tagger.getNumUnseenTypes());
+
+        // An unseen word in the same contexts as a training word has the same features
+        String[][] renamed = new String[sentences.length][];
+        for (int s = 0; s < sentences.length; s++) {
+            renamed[s] = sentences[s].clone();
+            for (int i = 0; i < renamed[s].length; i++)
+                if (renamed[s][i].equals("cookies")) renamed[s][i] = "biscuits";
+        }
+        int[][] clusters = tagger.tag(renamed);
+        assertEquals(1, tagger.getNumUnseenTypes());
+        double[] logP = new double[NUM_CLASSES];
+        model.logConditionals(sampler.getFeatures(), corpus.getWordType("cookies"), logP);
+        int expected = 0;
+        for (int cluster = 1; cluster < NUM_CLASSES; cluster++) if (logP[cluster] > logP[expected]) expected = cluster;
+        assertEquals(expected, clusters[0][3]);
+        assertEquals(expected, clusters[1][3]);
+    }
+}
@@ -0,0 +1,46 @@
+package tagInducer;
+
+import junit.framework.TestCase;
+import tagInducer.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+public class SweepTest extends TestCase {
+
+    public void testGrid() throws Exception {
+        File results = File.createTempFile("sweep", ".tsv");
+        results.deleteOnExit();
+        Properties config = new Properties();
+        config.setProperty("CORPUS", "src/test/resources/test.conll");
+        config.setProperty("FEATURE_TYPES", "context");
+        config.setProperty("NUM_CLUSTERS", "3");
+        config.setProperty("SAMPLE_ITERS", "10");
+        config.setProperty("SEED", "1");
+        config.setProperty("SWEEP.NUM_CLUSTERS", "2 | 4");
+        config.setProperty("SWEEP.NUM_CONTEXT_FEATS", "3 | 5 | 100");
+        config.setProperty("SWEEP_THREADS", "2");
+        config.setProperty("SWEEP_OUT", results.getPath());
+
+        Sweep sweep = new Sweep(config);
+        List<Properties> configs = sweep.configurations();
+        assertEquals(6, configs.size());
+        assertEquals("2", configs.get(0).getProperty("NUM_CLUSTERS"));
+        assertEquals("5", configs.get(1).getProperty("NUM_CONTEXT_FEATS"));
+        assertEquals("4", configs.get(5).getProperty("NUM_CLUSTERS"));
+        assertEquals("0", configs.get(5).getProperty("CHECKPOINT_INTERVAL"));
+
+        sweep.run();
+        List<String> rows = new ArrayList<>();
+        try (BufferedReader in = FileUtils.createIn(results.getPath())) {
+            String line;
+            while ((line = in.readLine()) != null) rows.add(line);
+        }
+        assertEquals(7, rows.size());
+        assertTrue(rows.get(0).startsWith("id\tNUM_CLUSTERS\tNUM_CONTEXT_FEATS\tM-1"));
+        for (String row : rows.subList(1, rows.size())) assertEquals(11, row.split("\t").length);
+    }
+}
@@ -0,0 +1,154 @@
+package tagInducer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import junit.framework.TestCase;
+import org.apache.commons.io.IOUtils;
+import tagInducer.corpus.Corpus;
+import tagInducer.features.SparseFeatures;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TaggingServerTest extends TestCase {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int NUM_CLIENTS = 8;
+    private static final int REQUESTS_PER_CLIENT = 50;
+
+    private final Gson gson = new Gson();
+    private Corpus corpus;
+    private Tagger tagger;
+    private TaggingServer server;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        Options o = new OptionsCmdLine(new String[]{"-in", "src/test/resources/test.conll", "-classes", "3",
+                "-context-feats", "4", "-seed", "1"});
+        corpus = new Corpus(o);
+        Map<String, SparseFeatures> features = Inducer.extractFeatures(corpus, o);
+        GibbsSampler sampler = new GibbsSampler(features, corpus.getNumTypes(), o);
+        sampler.initialise(3);
+        sampler.setRunParameters(10);
+        sampler.gibbs();
+        File file = File.createTempFile("bmmm", ".model");
+        file.deleteOnExit();
+        Model.fromSampler(sampler, corpus, o).write(file.getPath());
+        tagger = new Tagger(Model.read(file.getPath()), null);
+        server = new TaggingServer(tagger, new InetSocketAddress("localhost", 0), NUM_CLIENTS, 64, 1000);
+        server.start();
+    }
+
+    public void tearDown() throws Exception {
+        server.stop();
+        super.tearDown();
+    }
+
+    public void testLoad() throws Exception {
+        final String[][] sentences = corpus.getCorpusOriginalSents();
+        ExecutorService clients = Executors.newFixedThreadPool(NUM_CLIENTS);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int client = 0; client < NUM_CLIENTS; client++) {
+            // Every client has unseen words: one of its own, and one shared by all the clients in different contexts
+            final String[][] clientSentences = new String[sentences.length][];
+            for (int s = 0; s < sentences.length; s++) clientSentences[s] = sentences[s].clone();
+            clientSentences[0][client % clientSentences[0].length] = "blorp";
+            clientSentences[1][(client + 2) % clientSentences[1].length] = "word" + client;
+            // The clients' requests are tagged in the same batches, but each one as if it were alone
+            final int[][] expected = tagger.tag(clientSentences);
+            final String body = "{\"sentences\": " + gson.toJson(clientSentences) + "}";
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int request = 0; request < REQUESTS_PER_CLIENT; request++) {
+                        JsonObject response = post("/tag", body);
+                        int[][] clusters = gson.fromJson(response.get("clusters"), int[][].class);
+                        assertTrue(Arrays.deepEquals(expected, clusters));
+                    }
+                    return null;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        try {
+            for (Future<Void> future : clients.invokeAll(tasks)) future.get();
+        }
+        finally {
+            clients.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Tagging server: " + (int) (NUM_CLIENTS * REQUESTS_PER_CLIENT / seconds) + " requests/s");
+
+        JsonObject stats = get("/stats");
+        int numRequests = NUM_CLIENTS * REQUESTS_PER_CLIENT;
+        assertEquals(numRequests, stats.get("requests").getAsInt());
+        assertEquals(numRequests * sentences.length, stats.get("sentences").getAsInt());
+        assertEquals(numRequests * corpus.getNumTokens(), stats.get("tokens").getAsInt());
+        assertTrue(stats.get("batches").getAsInt() <= numRequests);
+        JsonObject latency = stats.getAsJsonObject("latencyMs");
+        assertTrue(latency.get("p50").getAsDouble() <= latency.get("p99").getAsDouble());
+        assertTrue(latency.get("p99").getAsDouble() <= latency.get("max").getAsDouble());
+    }
+
+    public void testPosteriors() throws Exception {
+        JsonObject response = post("/tag", "{\"sentences\": [[\"I\", \"gave\", \"you\", \"biscuits\", \".\"]], \"topK\": 2}");
+        int[][] clusters = gson.fromJson(response.get("clusters"), int[][].class);
+        JsonArray tokens = response.getAsJsonArray("posteriors").get(0).getAsJsonArray();
+        assertEquals(5, tokens.size());
+        // Known words have all the mass on their cluster
+        JsonObject known = tokens.get(1).getAsJsonArray().get(0).getAsJsonObject();
+        assertEquals(clusters[0][1], known.get("cluster").getAsInt());
+        assertEquals(1.0, known.get("p").getAsDouble());
+        // The unseen word is tagged with its most probable cluster
+        JsonArray unseen = tokens.get(3).getAsJsonArray();
+        assertEquals(2, unseen.size());
+        assertEquals(clusters[0][3], unseen.get(0).getAsJsonObject().get("cluster").getAsInt());
+        assertTrue(unseen.get(0).getAsJsonObject().get("p").getAsDouble() >= unseen.get(1).getAsJsonObject().get("p").getAsDouble());
+    }
+
+    public void testBadRequest() throws Exception {
+        HttpURLConnection connection = connect("/tag");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write("{\"words\": 1}".getBytes(UTF8));
+        }
+        assertEquals(400, connection.getResponseCode());
+    }
+
+    private HttpURLConnection connect(String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        return connection;
+    }
+
+    private JsonObject post(String path, String body) throws Exception {
+        HttpURLConnection connection = connect(path);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(UTF8));
+        }
+        assertEquals(200, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            return gson.fromJson(IOUtils.toString(in, UTF8), JsonObject.class);
+        }
+    }
+
+    private JsonObject get(String path) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            return gson.fromJson(IOUtils.toString(in, UTF8), JsonObject.class);
+        }
+    }
+}
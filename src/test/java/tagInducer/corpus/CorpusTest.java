@@ -3,6 +3,15 @@ package tagInducer.corpus;
 import junit.framework.TestCase;
 import tagInducer.Options;
 import tagInducer.OptionsCmdLine;
+import tagInducer.features.SparseFeatures;
+
+import tagInducer.utils.ChannelReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 public class CorpusTest extends TestCase {
     private Options options;
@@ -35,4 +44,39 @@ public class CorpusTest extends TestCase {
         assertEquals(10, corpus.getNumTokens());
         assertEquals(7, corpus.getNumTypes());
     }
-}
\ No newline at end of file
+
+    public void testCacheRoundTrip() throws Exception {
+        Corpus corpus = new Corpus(options);
+        Map<String, SparseFeatures> features = new HashMap<>();
+        features.put("F", SparseFeatures.fromDense(new int[][]{{0, 2}, {1, 0}}));
+        File file = File.createTempFile("corpus", ".bmc");
+        file.deleteOnExit();
+        CorpusCache.write(file, corpus, features);
+
+        CorpusCache cache = CorpusCache.load(file, options);
+        Corpus cached = cache.getCorpus();
+        assertEquals(corpus.getNumTokens(), cached.getNumTokens());
+        assertEquals(corpus.getNumTypes(), cached.getNumTypes());
+        assertEquals(corpus.getWordString(3), cached.getWordString(3));
+        assertEquals(corpus.getWordType("you"), cached.getWordType("you"));
+        assertEquals(corpus.getFrequentWordList(), cached.getFrequentWordList());
+        assertTrue(Arrays.deepEquals(corpus.getCorpusOriginalSents(), cached.getCorpusOriginalSents()));
+        assertTrue(Arrays.deepEquals(corpus.getCorpusProcessedSents(), cached.getCorpusProcessedSents()));
+        assertTrue(Arrays.deepEquals(corpus.getCorpusGoldTags(), cached.getCorpusGoldTags()));
+        assertTrue(Arrays.deepEquals(corpus.getCorpusDeps(), cached.getCorpusDeps()));
+        SparseFeatures feats = cache.getFeatures().get("F");
+        assertEquals(2, feats.getNumFeatures());
+        assertTrue(Arrays.equals(new int[]{1, 0}, feats.getIndices()));
+        assertTrue(Arrays.equals(new int[]{2, 1}, feats.getCounts()));
+
+        // Read through a buffer much smaller than the file, so the values and arrays cross its boundaries
+        try (ChannelReader in = new ChannelReader(new FileInputStream(file).getChannel(), 13)) {
+            CorpusCache small = CorpusCache.load(in, file, options);
+            assertEquals(corpus.getWordType("you"), small.getCorpus().getWordType("you"));
+            assertTrue(Arrays.deepEquals(corpus.getCorpusOriginalSents(), small.getCorpus().getCorpusOriginalSents()));
+            assertTrue(Arrays.deepEquals(corpus.getCorpusGoldTags(), small.getCorpus().getCorpusGoldTags()));
+            assertTrue(Arrays.equals(feats.getOffsets(), small.getFeatures().get("F").getOffsets()));
+            assertTrue(Arrays.equals(feats.getCounts(), small.getFeatures().get("F").getCounts()));
+        }
+    }
+}
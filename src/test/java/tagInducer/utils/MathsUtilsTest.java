@@ -0,0 +1,29 @@
+package tagInducer.utils;
+
+import junit.framework.TestCase;
+
+public class MathsUtilsTest extends TestCase {
+
+    public void testLogGamma() {
+        assertEquals(0, MathsUtils.logGamma(1), 1e-12);
+        assertEquals(0, MathsUtils.logGamma(2), 1e-12);
+        assertEquals(Math.log(Math.sqrt(Math.PI)), MathsUtils.logGamma(0.5), 1e-12);
+        // log(9!)
+        assertEquals(12.801827480081469, MathsUtils.logGamma(10), 1e-12);
+    }
+
+    public void testLogRising() {
+        double beta = 0.1;
+        LogGammaCache cache = new LogGammaCache(beta, 100);
+        LogGammaCache noTable = new LogGammaCache(beta, 0);
+        for (int n : new int[]{0, 3, 95, 5000}) {
+            for (int c : new int[]{0, 1, 7, 40}) {
+                // The rising factorial as the product of the per-token probabilities' numerators
+                double expected = 0;
+                for (int token = 0; token < c; token++) expected += Math.log(n + token + beta);
+                assertEquals(expected, cache.logRising(n, c), 1e-9);
+                assertEquals(expected, noTable.logRising(n, c), 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package tagInducer.utils;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+public class NpyWriterTest extends TestCase {
+
+    public void testFormat() throws Exception {
+        File file = File.createTempFile("array", ".npy");
+        file.deleteOnExit();
+        // More values than the write buffer holds
+        float[] values = new float[3 * 10000];
+        for (int i = 0; i < values.length; i++) values[i] = i / 2f;
+        NpyWriter.write(file.getPath(), values, 3, 10000);
+
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[8];
+        in.get(magic);
+        assertEquals("\u0093NUMPY\u0001\u0000", new String(magic, Charset.forName("ISO-8859-1")));
+        byte[] header = new byte[in.getShort()];
+        in.get(header);
+        assertEquals(0, in.position() % 64);
+        String headerStr = new String(header, Charset.forName("US-ASCII"));
+        assertEquals("{'descr': '<f4', 'fortran_order': False, 'shape': (3, 10000), }", headerStr.trim());
+        assertTrue(headerStr.endsWith("\n"));
+        assertEquals(4 * values.length, in.remaining());
+        for (float value : values) assertEquals(value, in.getFloat());
+    }
+
+    public void testIncomplete() throws Exception {
+        File file = File.createTempFile("array", ".npy");
+        file.deleteOnExit();
+        try {
+            NpyWriter.write(file.getPath(), new int[]{1, 2, 3}, 4);
+            fail();
+        }
+        catch (IOException e) {
+            // The target file is left as it was
+            assertEquals(0, file.length());
+        }
+    }
+}
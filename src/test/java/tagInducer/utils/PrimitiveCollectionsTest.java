@@ -0,0 +1,76 @@
+package tagInducer.utils;
+
+import junit.framework.TestCase;
+import tagInducer.features.SparseFeatures;
+
+import java.util.Arrays;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PrimitiveCollectionsTest extends TestCase {
+
+    public void testIntIntHashMap() {
+        // Enough keys (including negative ones) to force several rehashes
+        Random random = new Random(1);
+        IntIntHashMap map = new IntIntHashMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(5000) - 100;
+            map.increment(key, 2);
+            Integer count = expected.get(key);
+            expected.put(key, (count == null) ? 2 : count + 2);
+        }
+        assertEquals(expected.size(), map.size());
+        for (int key : expected.keySet()) assertEquals((int) expected.get(key), map.get(key));
+        assertEquals(0, map.get(100000));
+        assertFalse(map.containsKey(100000));
+    }
+
+    public void testIntPairCounter() {
+        IntPairCounter counter = new IntPairCounter();
+        counter.increment(3, -1);
+        counter.increment(3, -1);
+        counter.increment(0, 2);
+        counter.increment(-1, 3);
+        assertEquals(2, counter.get(3, -1));
+        assertEquals(1, counter.get(-1, 3));
+        assertEquals(0, counter.get(-1, -1));
+        assertEquals(3, counter.size());
+        assertEquals(-1, IntPairCounter.first(IntPairCounter.pair(-1, 7)));
+        assertEquals(7, IntPairCounter.second(IntPairCounter.pair(-1, 7)));
+
+        counter = new IntPairCounter();
+        counter.increment(3, 1);
+        counter.increment(3, 1);
+        counter.increment(0, 2);
+        int[][] dense = counter.toDense(4, 3);
+        assertEquals(2, dense[3][1]);
+        assertEquals(1, dense[0][2]);
+        assertEquals(0, dense[0][1]);
+
+        // The CSR matrix built from the pairs is the one compressed from the dense matrix
+        Random random = new Random(1);
+        counter = new IntPairCounter();
+        for (int i = 0; i < 5000; i++) counter.increment(random.nextInt(300), random.nextInt(200));
+        SparseFeatures expected = SparseFeatures.fromDense(counter.toDense(301, 200));
+        SparseFeatures sparse = SparseFeatures.fromPairs(counter, 301, 200);
+        assertEquals(301, sparse.getNumTypes());
+        assertEquals(200, sparse.getNumFeatures());
+        assertTrue(Arrays.equals(expected.getOffsets(), sparse.getOffsets()));
+        assertTrue(Arrays.equals(expected.getIndices(), sparse.getIndices()));
+        assertTrue(Arrays.equals(expected.getCounts(), sparse.getCounts()));
+    }
+
+    public void testCountUnique() {
+        assertEquals(4, CollectionUtils.countUnique(new int[][]{{-1, 3, 3}, {}, {0, 7, -1}}));
+        assertEquals(2, CollectionUtils.countUnique(new int[][]{{Integer.MIN_VALUE, Integer.MAX_VALUE}}));
+        IntBitSet set = new IntBitSet(130);
+        assertTrue(set.add(129));
+        assertFalse(set.add(129));
+        assertTrue(set.get(129));
+        assertFalse(set.get(64));
+        assertEquals(1, set.cardinality());
+    }
+}
@@ -0,0 +1,68 @@
+package tagInducer.utils;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+public class StringCoderTest extends TestCase {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // ASCII, 2-, 3- and 4-byte UTF-8 characters, an unpaired surrogate and the empty string
+    private static final String[] WORDS = {"the", "café", "λόγος", "漢字",
+            "😀!", "bad\ud800", "", "The"};
+
+    public void testEncodeDecode() {
+        StringCoder coder = new StringCoder();
+        // Enough strings to force the table and arena to grow
+        for (int i = 0; i < 1000; i++) assertEquals(i, coder.encode("w" + i));
+        for (String word : WORDS) coder.encode(word);
+        int nullCode = coder.encode(null);
+        assertEquals(1000 + WORDS.length + 1, coder.size());
+        for (int i = 0; i < WORDS.length; i++) {
+            assertEquals(1000 + i, coder.encode(WORDS[i]));
+            assertEquals(new String(WORDS[i].getBytes(UTF8), UTF8), coder.decode(1000 + i));
+        }
+        assertEquals(nullCode, coder.encode(null));
+        assertNull(coder.decode(nullCode));
+        assertEquals(-1, coder.getId("cafè"));
+        assertFalse(coder.exists("the "));
+        assertEquals("w512", coder.decode(512));
+    }
+
+    public void testNullAndEmpty() {
+        StringCoder coder = new StringCoder();
+        int nullCode = coder.encode(null);
+        // Enough strings to force the table to grow
+        for (int i = 0; i < 20; i++) coder.encode("w" + i);
+        int emptyCode = coder.encode("");
+        assertTrue(emptyCode != nullCode);
+        assertEquals("", coder.decode(emptyCode));
+        assertNull(coder.decode(nullCode));
+        assertEquals(emptyCode, coder.getId(""));
+        assertEquals(nullCode, coder.getId(null));
+    }
+
+    public void testFreezeAndSerialise() throws Exception {
+        StringCoder coder = new StringCoder();
+        for (String word : WORDS) coder.encode(word);
+        coder.freeze();
+        try {
+            coder.encode("unseen");
+            fail("A frozen coder should not accept new strings");
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        coder.write(new DataOutputStream(bytes));
+        StringCoder copy = StringCoder.read(new ChannelReader(
+                Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), 16));
+        assertTrue(copy.isFrozen());
+        assertEquals(coder.size(), copy.size());
+        for (String word : WORDS) assertEquals(coder.getId(word), copy.getId(word));
+        assertEquals(-1, copy.getId("unseen"));
+    }
+}